@@ -0,0 +1,165 @@
+package com.megvii.facepp.sdk;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Times the real native engine calls on a device that ships the Megvii libraries and models.
+ * Frames come from a file of back-to-back NV21 frames passed as instrumentation arguments, e.g.
+ * {@code -e frames /data/local/tmp/face.nv21 -e width 640 -e height 480}; without one a flat grey
+ * frame is used, which measures the no-face path only.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LiteEngineBenchmark {
+    private static final String MODEL_PATH = "/system/etc/face/model_file";
+    private static final String PANORAMA_PATH = "/system/etc/face/panorama_mgb";
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 30;
+
+    private Lite mLite;
+    private List<byte[]> mFrames;
+    private int mWidth;
+    private int mHeight;
+
+    @Before
+    public void setUp() throws IOException {
+        assumeTrue("no face model on this device", new File(MODEL_PATH).canRead());
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        Bundle args = InstrumentationRegistry.getArguments();
+        mWidth = Integer.parseInt(args.getString("width", "640"));
+        mHeight = Integer.parseInt(args.getString("height", "480"));
+        mFrames = readFrames(args.getString("frames"), mWidth * mHeight * 3 / 2);
+        mLite = new Lite();
+        try {
+            mLite.initHandle(context.getFilesDir().getAbsolutePath());
+        } catch (UnsatisfiedLinkError e) {
+            assumeTrue("engine libraries not loadable: " + e.getMessage(), false);
+        }
+        assumeTrue("initAllWithPath failed", mLite.initAllWithPath(PANORAMA_PATH, "", MODEL_PATH) == 0);
+        mLite.prepare();
+    }
+
+    @After
+    public void tearDown() {
+        if (mLite == null) return;
+        mLite.reset();
+        mLite.release();
+    }
+
+    private static List<byte[]> readFrames(String path, int frameSize) throws IOException {
+        List<byte[]> frames = new ArrayList<>();
+        if (path != null) {
+            try (FileInputStream in = new FileInputStream(path)) {
+                byte[] frame = new byte[frameSize];
+                while (in.readNBytes(frame, 0, frameSize) == frameSize) {
+                    frames.add(frame);
+                    frame = new byte[frameSize];
+                }
+            }
+        }
+        if (frames.isEmpty()) {
+            byte[] grey = new byte[frameSize];
+            Arrays.fill(grey, (byte) 128);
+            frames.add(grey);
+        }
+        return frames;
+    }
+
+    private byte[] frame(int i) {
+        return mFrames.get(i % mFrames.size());
+    }
+
+    /** Median of {@code samples} in milliseconds. */
+    private static double median(long[] samples) {
+        Arrays.sort(samples);
+        return samples[samples.length / 2] / 1e6;
+    }
+
+    @Test
+    public void compareVersusCompareMultiImages() {
+        int[] scores = new int[Lite.RESULT_SIZE];
+        long[] single = new long[ITERATIONS];
+        for (int i = -WARMUP; i < ITERATIONS; i++) {
+            long t0 = System.nanoTime();
+            mLite.compare(frame(i + WARMUP), mWidth, mHeight, 0, true, true, scores);
+            if (i >= 0) single[i] = System.nanoTime() - t0;
+        }
+        System.out.printf("compare (liveness on): %.1fms per frame over %d frame(s)%n", median(single),
+                mFrames.size());
+        int size = mWidth * mHeight * 3 / 2;
+        for (int k = 2; k <= 3; k++) {
+            Lite.MGULKImage[] batch = new Lite.MGULKImage[k];
+            for (int j = 0; j < k; j++) {
+                batch[j] = new Lite.MGULKImage(Lite.MGULKImage.MG_UNLOCK_IMG_NV21, null, 0, 0, 0, 0);
+            }
+            long[] multi = new long[ITERATIONS];
+            for (int i = -WARMUP; i < ITERATIONS; i++) {
+                for (int j = 0; j < k; j++) batch[j].set(frame(i + WARMUP + j), size, mWidth, mHeight, 0);
+                long t0 = System.nanoTime();
+                mLite.compareMultiImages(batch, scores);
+                if (i >= 0) multi[i] = System.nanoTime() - t0;
+            }
+            System.out.printf("compareMultiImages k=%d: %.1fms per call, %d x compare=%.1fms%n", k, median(multi),
+                    k, k * median(single));
+        }
+    }
+
+    /**
+     * What a feature pre-screen would cost per frame, getFeature plus compareFeatures over a full
+     * slab, against compare alone. A genuine frame would pay both. The printed scores also show
+     * the scale compareFeatures reports on this model.
+     */
+    @Test
+    public void prescreenVersusCompare() {
+        int templates = 5;
+        byte[] slab = new byte[(templates + 1) * Lite.FEATURE_SIZE];
+        byte[] feature = new byte[Lite.FEATURE_SIZE];
+        for (int t = 1; t <= templates; t++) {
+            mLite.getFeature(frame(t), mWidth, mHeight, 0, feature);
+            System.arraycopy(feature, 0, slab, t * Lite.FEATURE_SIZE, Lite.FEATURE_SIZE);
+        }
+        float[] templateScores = new float[templates];
+        int[] scores = new int[Lite.RESULT_SIZE];
+        long[] extract = new long[ITERATIONS];
+        long[] match = new long[ITERATIONS];
+        long[] compare = new long[ITERATIONS];
+        for (int i = -WARMUP; i < ITERATIONS; i++) {
+            byte[] frame = frame(i + WARMUP);
+            long t0 = System.nanoTime();
+            mLite.getFeature(frame, mWidth, mHeight, 0, feature);
+            System.arraycopy(feature, 0, slab, 0, Lite.FEATURE_SIZE);
+            long t1 = System.nanoTime();
+            mLite.compareFeatures(slab, templateScores, templates, false);
+            long t2 = System.nanoTime();
+            mLite.compare(frame, mWidth, mHeight, 0, true, true, scores);
+            long t3 = System.nanoTime();
+            if (i < 0) continue;
+            extract[i] = t1 - t0;
+            match[i] = t2 - t1;
+            compare[i] = t3 - t2;
+        }
+        double e = median(extract);
+        double m = median(match);
+        double c = median(compare);
+        System.out.printf("getFeature=%.1fms compareFeatures(%d)=%.2fms compare=%.1fms pre-screen+compare=%.1fms%n",
+                e, templates, m, c, e + m + c);
+        System.out.println("compareFeatures scores: " + Arrays.toString(templateScores));
+    }
+}
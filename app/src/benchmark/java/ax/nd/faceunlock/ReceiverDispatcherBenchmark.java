@@ -0,0 +1,50 @@
+package ax.nd.faceunlock;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.*;
+
+/**
+ * Rough cold-vs-cached timing of receiver dispatch; the cold path mirrors the per-call
+ * getMethod()/invoke() the bridge used to do.
+ */
+public class ReceiverDispatcherBenchmark {
+    private static final int ITERATIONS = 200_000;
+
+    @Test
+    public void coldVersusCached() throws Throwable {
+        ReceiverDispatcherTest.FakeReceiver receiver = new ReceiverDispatcherTest.FakeReceiver();
+        for (int i = 0; i < ITERATIONS / 10; i++) {
+            coldDispatch(receiver, i);
+            ReceiverDispatcher.of(receiver).onAcquired(receiver, i, 0);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            coldDispatch(receiver, i);
+        }
+        long cold = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            ReceiverDispatcher.of(receiver).onAcquired(receiver, i, 0);
+        }
+        long cached = System.nanoTime() - start;
+
+        System.out.println("ReceiverDispatcher: cold=" + (cold / ITERATIONS) + "ns/op cached="
+                + (cached / ITERATIONS) + "ns/op");
+        assertEquals(ITERATIONS - 1, receiver.acquired);
+    }
+
+    private static void coldDispatch(Object receiver, int info) throws Exception {
+        try {
+            Method m = receiver.getClass().getMethod("onAcquired", int.class, int.class, int.class);
+            m.invoke(receiver, 0, info, 0);
+        } catch (NoSuchMethodException e) {
+            Method m = receiver.getClass().getMethod("onAcquired", int.class, int.class);
+            m.invoke(receiver, info, 0);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.Test;
+
+import static ax.nd.faceunlock.camera.FrameQualityGateTest.H;
+import static ax.nd.faceunlock.camera.FrameQualityGateTest.W;
+import static ax.nd.faceunlock.camera.FrameQualityGateTest.frame;
+
+public class FrameQualityGateBenchmark {
+
+    @Test
+    public void evaluate() {
+        FrameQualityGate gate = new FrameQualityGate(FrameQualityGate.Thresholds.DEFAULT);
+        byte[] nv21 = frame(120, 30, 7);
+        for (int n = 0; n < 500; n++) gate.evaluate(nv21, W, H);
+        int iterations = 2000;
+        long t0 = System.nanoTime();
+        for (int n = 0; n < iterations; n++) gate.evaluate(nv21, W, H);
+        System.out.printf("FrameQualityGate %dx%d: %.1fus per frame%n", W, H, (System.nanoTime() - t0) / 1e3 / iterations);
+    }
+}
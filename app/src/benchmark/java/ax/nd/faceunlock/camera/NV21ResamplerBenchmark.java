@@ -0,0 +1,47 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.Test;
+
+import static ax.nd.faceunlock.camera.NV21ResamplerTest.DST_H;
+import static ax.nd.faceunlock.camera.NV21ResamplerTest.DST_W;
+import static ax.nd.faceunlock.camera.NV21ResamplerTest.legacyDownscale;
+import static ax.nd.faceunlock.camera.NV21ResamplerTest.noise;
+import static ax.nd.faceunlock.camera.NV21ResamplerTest.resampler;
+
+public class NV21ResamplerBenchmark {
+
+    @Test
+    public void filtersAgainstLegacyKernel() {
+        int w = 2592, h = 1952, scale = 4;
+        byte[] src = noise(w, h, scale);
+        byte[] dst = new byte[DST_W * DST_H * 3 / 2];
+        NV21Resampler nearest = resampler(w, h, scale, NV21Resampler.Filter.NEAREST, 1);
+        NV21Resampler box = resampler(w, h, scale, NV21Resampler.Filter.BOX, 1);
+        NV21Resampler boxParallel = resampler(w, h, scale, NV21Resampler.Filter.BOX, 4);
+        NV21Resampler bilinear = resampler(w, h, scale, NV21Resampler.Filter.BILINEAR, 1);
+        NV21Resampler fractional = new NV21Resampler(1600, 1200, 0, 0, 1600, 1200, DST_W, DST_H, NV21Resampler.Filter.BOX);
+        byte[] fractionalSrc = noise(1600, 1200, 1);
+
+        int iterations = 100;
+        for (int round = 0; round < 2; round++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < iterations; i++) legacyDownscale(src, w, h, dst, scale);
+            long t1 = System.nanoTime();
+            for (int i = 0; i < iterations; i++) nearest.resample(src, dst);
+            long t2 = System.nanoTime();
+            for (int i = 0; i < iterations; i++) box.resample(src, dst);
+            long t3 = System.nanoTime();
+            for (int i = 0; i < iterations; i++) boxParallel.resample(src, dst);
+            long t4 = System.nanoTime();
+            for (int i = 0; i < iterations; i++) bilinear.resample(src, dst);
+            long t5 = System.nanoTime();
+            for (int i = 0; i < iterations; i++) fractional.resample(fractionalSrc, dst);
+            long t6 = System.nanoTime();
+            if (round == 1) {
+                System.out.printf("NV21Resampler 2592x1952->640x480 us/frame: legacy=%d nearest=%d box=%d box4=%d bilinear=%d; 1600x1200 box=%d%n",
+                        (t1 - t0) / iterations / 1000, (t2 - t1) / iterations / 1000, (t3 - t2) / iterations / 1000,
+                        (t4 - t3) / iterations / 1000, (t5 - t4) / iterations / 1000, (t6 - t5) / iterations / 1000);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.megvii.facepp.sdk;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.megvii.facepp.sdk.LiteImageConversionTest.convert;
+import static com.megvii.facepp.sdk.LiteImageConversionTest.layouts;
+import static com.megvii.facepp.sdk.LiteImageConversionTest.legacy;
+
+public class LiteImageConversionBenchmark {
+
+    @Test
+    public void yuvToNV21() {
+        Random random = new Random(11);
+        for (int[] size : new int[][]{{640, 480}, {1920, 1080}}) {
+            byte[] out = new byte[size[0] * size[1] * 3 / 2];
+            byte[] scratch = new byte[size[0]];
+            for (LiteImageConversionTest.Planes p : layouts(size[0], size[1], random)) {
+                for (int n = 0; n < 20; n++) {
+                    legacy(p, out);
+                    convert(p, out, scratch);
+                }
+                int iterations = 60;
+                long t0 = System.nanoTime();
+                for (int n = 0; n < iterations; n++) legacy(p, out);
+                long t1 = System.nanoTime();
+                for (int n = 0; n < iterations; n++) convert(p, out, scratch);
+                long t2 = System.nanoTime();
+                System.out.printf("yuvToNV21 %dx%d %-16s legacy=%.3fms kernel=%.3fms%n", size[0], size[1], p.name,
+                        (t1 - t0) / 1e6 / iterations, (t2 - t1) / 1e6 / iterations);
+            }
+        }
+    }
+}
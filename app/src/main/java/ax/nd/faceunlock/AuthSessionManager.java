@@ -0,0 +1,365 @@
+package ax.nd.faceunlock;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.os.Handler;
+import android.util.Log;
+
+import ax.nd.faceunlock.camera.CameraFaceAuthController;
+import ax.nd.faceunlock.camera.CameraService;
+import ax.nd.faceunlock.camera.FrameQualityGate;
+import ax.nd.faceunlock.camera.FrameThreadBoost;
+import ax.nd.faceunlock.camera.FrameWorker;
+import ax.nd.faceunlock.util.Settings;
+import ax.nd.faceunlock.vendor.FacePPImpl;
+import ax.nd.faceunlock.vendor.PowerModePolicy;
+import com.megvii.facepp.sdk.Lite;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Owns the camera/engine side of authentication across keyguard requests. Only the most recent
+ * start/stop request is acted on, a live and healthy session is re-targeted to a new receiver
+ * instead of being torn down, and a cancelled session lingers briefly so a retry can pick it up
+ * without reopening the camera.
+ */
+final class AuthSessionManager {
+    private static final String TAG = "AuthSessionManager";
+    private static final long LINGER_MS = 500;
+    private static final int FACE_ACQUIRED_INSUFFICIENT = 1;
+    private static final int FACE_ACQUIRED_TOO_BRIGHT = 2;
+    private static final int FACE_ACQUIRED_TOO_DARK = 3;
+
+    interface Callback {
+        void onAuthenticated(Target target);
+        void onError(Target target, int error);
+        void onAcquired(Target target, int acquiredInfo);
+    }
+
+    /** Main-looper scheduling and the camera side of a session; faked in tests. */
+    interface Host {
+        void post(Runnable task);
+
+        void postDelayed(Runnable task, long delayMs);
+
+        void removeCallbacks(Runnable task);
+
+        CameraFaceAuthController newController(CameraFaceAuthController.ServiceCallback callback);
+
+        void closeCamera();
+    }
+
+    /** The production host: a main-looper Handler and CameraService. */
+    private static final class CameraHost implements Host {
+        private final Context mContext;
+        private final Handler mHandler;
+        private final FrameWorker mWorker;
+
+        CameraHost(Context context, Handler handler, FrameWorker worker) {
+            mContext = context;
+            mHandler = handler;
+            mWorker = worker;
+        }
+
+        @Override
+        public void post(Runnable task) {
+            mHandler.post(task);
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMs) {
+            mHandler.postDelayed(task, delayMs);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            mHandler.removeCallbacks(task);
+        }
+
+        @Override
+        public CameraFaceAuthController newController(CameraFaceAuthController.ServiceCallback callback) {
+            return new CameraFaceAuthController(mContext, mWorker, callback);
+        }
+
+        @Override
+        public void closeCamera() {
+            CameraService.closeCamera(null);
+        }
+    }
+
+    static final class Target {
+        final int sensorId;
+        final int userId;
+        final Object receiver;
+        /** The request that asked for this target; stale once a newer start or stop arrives. */
+        final int seq;
+
+        Target(int sensorId, int userId, Object receiver, int seq) {
+            this.sensorId = sensorId;
+            this.userId = userId;
+            this.receiver = receiver;
+            this.seq = seq;
+        }
+    }
+
+    private final Host mHost;
+    private final FacePPImpl mFacePP;
+    private final SurfaceTexture mSurface;
+    private final int mCameraId;
+    private final Callback mCallback;
+    private final AtomicInteger mRequestSeq = new AtomicInteger();
+    private final Runnable mLingerRelease = this::releaseNow;
+    private final FrameQualityGate mQualityGate;
+    private final PowerModePolicy mPowerPolicy;
+    private final FrameThreadBoost mBoost;
+    private final boolean mBoostEnabled;
+
+    /** Cleared only by compare-and-set, so a late result cannot wipe a newer receiver. */
+    private final AtomicReference<Target> mTarget = new AtomicReference<>();
+    /** The target whose outcome the power policy has not been told yet; taken once, by CAS. */
+    private final AtomicReference<Target> mAttempt = new AtomicReference<>();
+    private CameraFaceAuthController mController;
+    private SessionCallback mSessionCallback;
+    private boolean mEnginePrepared = false;
+    private int mReusedSessions = 0;
+    private int mCoalescedRequests = 0;
+
+    AuthSessionManager(Context context, Handler handler, FacePPImpl facePP, SurfaceTexture surface,
+                       FrameWorker worker, int cameraId, Callback callback) {
+        this(new CameraHost(context, handler, worker), facePP, surface, cameraId, callback,
+                new FrameQualityGate(FrameQualityGate.Thresholds.decode(Settings.getFrameQualityThresholds(context))),
+                new PowerModePolicy(context),
+                new FrameThreadBoost(context, worker, FrameThreadBoost.DEFAULT_TARGET_NANOS),
+                Settings.isFrameThreadBoostEnabled(context));
+    }
+
+    AuthSessionManager(Host host, FacePPImpl facePP, SurfaceTexture surface, int cameraId, Callback callback,
+                       FrameQualityGate qualityGate, PowerModePolicy powerPolicy, FrameThreadBoost boost,
+                       boolean boostEnabled) {
+        mHost = host;
+        mFacePP = facePP;
+        mSurface = surface;
+        mCameraId = cameraId;
+        mCallback = callback;
+        mQualityGate = qualityGate;
+        Log.d(TAG, "Frame quality gate: " + mQualityGate.getThresholds());
+        mPowerPolicy = powerPolicy;
+        mBoost = boost;
+        mBoostEnabled = boostEnabled;
+    }
+
+    void requestStart(int sensorId, int userId, Object receiver) {
+        final int seq = mRequestSeq.incrementAndGet();
+        final Target target = new Target(sensorId, userId, receiver, seq);
+        mHost.post(() -> {
+            if (seq != mRequestSeq.get()) {
+                mCoalescedRequests++;
+                Log.d(TAG, "Start request superseded, coalesced=" + mCoalescedRequests);
+                return;
+            }
+            startOrRetarget(target);
+        });
+    }
+
+    void requestStop() {
+        final int seq = mRequestSeq.incrementAndGet();
+        // Cleared on main, after any start already running there; until then the bumped sequence
+        // makes the old target stale for frame callbacks.
+        mHost.post(() -> {
+            if (seq != mRequestSeq.get()) {
+                mCoalescedRequests++;
+                return;
+            }
+            mTarget.set(null);
+            endAttempt();
+            if (mController != null) {
+                mHost.removeCallbacks(mLingerRelease);
+                mHost.postDelayed(mLingerRelease, LINGER_MS);
+            }
+        });
+    }
+
+    /** Tears the session down now, e.g. before enrollment needs the camera. Main looper only. */
+    void releaseNow() {
+        mHost.removeCallbacks(mLingerRelease);
+        mTarget.set(null);
+        endAttempt();
+        if (mEnginePrepared) {
+            mFacePP.compareStop();
+            mEnginePrepared = false;
+        }
+        if (mController != null) {
+            mController.stop();
+            mController = null;
+            mSessionCallback.mReleased = true;
+            mSessionCallback = null;
+            Log.d(TAG, "Quality gate " + mQualityGate);
+            Log.d(TAG, "Power policy " + mPowerPolicy);
+            mBoost.end();
+            Log.d(TAG, "Frame thread " + mBoost);
+        } else {
+            // Stopping a controller closes its camera; without one, a camera another path left
+            // open still has to be released.
+            mHost.closeCamera();
+        }
+    }
+
+    int getReusedSessionCount() {
+        return mReusedSessions;
+    }
+
+    int getCoalescedRequestCount() {
+        return mCoalescedRequests;
+    }
+
+    /** Power mode and frame-thread latency figures, plain against boosted. */
+    String getDiagnostics() {
+        return "power: " + mPowerPolicy + "; frame thread: " + mBoost;
+    }
+
+    private void startOrRetarget(Target target) {
+        mHost.removeCallbacks(mLingerRelease);
+        if (mController != null && mController.isHealthy()) {
+            mReusedSessions++;
+            Log.i(TAG, "Re-targeting live auth session, reused=" + mReusedSessions);
+            // The previous target ended here without an unlock; the mode is chosen again with
+            // that outcome counted, and the engine re-prepared only if it changed.
+            mTarget.set(null);
+            endAttempt();
+            Lite.MGULKPowerMode current = mPowerPolicy.getMode();
+            Lite.MGULKPowerMode mode = mPowerPolicy.choose();
+            if (!mEnginePrepared || mode != current) {
+                if (mEnginePrepared) mFacePP.compareStop();
+                mFacePP.compareStart(mode);
+                mEnginePrepared = true;
+            }
+            mSessionCallback.mStartNanos = System.nanoTime();
+            setTargetIfCurrent(target);
+            return;
+        }
+        releaseNow();
+        try {
+            mFacePP.compareStart(mPowerPolicy.choose());
+            mEnginePrepared = true;
+            setTargetIfCurrent(target);
+            mSessionCallback = new SessionCallback();
+            mSessionCallback.mStartNanos = System.nanoTime();
+            mController = mHost.newController(mSessionCallback);
+            mSessionCallback.mController = mController;
+            mController.start(mCameraId, mSurface);
+            mBoost.begin(mBoostEnabled);
+        } catch (Throwable t) {
+            Log.e(TAG, "Failed to start auth session", t);
+            releaseNow();
+            mCallback.onError(target, 1);
+        }
+    }
+
+    /** A stop that arrived while this start ran on main will clear the target when it runs. */
+    private void setTargetIfCurrent(Target target) {
+        if (!isCurrent(target)) return;
+        mAttempt.set(target);
+        mTarget.set(target);
+    }
+
+    /** Tells the power policy that the pending target, if any, ended without an unlock. */
+    private void endAttempt() {
+        if (mAttempt.getAndSet(null) != null) mPowerPolicy.recordSessionEnd(false, 0);
+    }
+
+    private boolean isCurrent(Target target) {
+        return target.seq == mRequestSeq.get();
+    }
+
+    /** Reports {@code error} to {@code target} unless it has been stopped or replaced meanwhile. */
+    private void finish(final SessionCallback session, final Target target, final int error) {
+        if (!mTarget.compareAndSet(target, null)) return;
+        mHost.post(() -> {
+            // A newer request may already have re-targeted this session.
+            if (mSessionCallback == session && mTarget.get() == null) releaseNow();
+        });
+        if (error == 0) {
+            mCallback.onAuthenticated(target);
+        } else {
+            mCallback.onError(target, error);
+        }
+    }
+
+    private static int acquiredInfoFor(int verdict) {
+        switch (verdict) {
+            case FrameQualityGate.TOO_DARK: return FACE_ACQUIRED_TOO_DARK;
+            case FrameQualityGate.TOO_BRIGHT: return FACE_ACQUIRED_TOO_BRIGHT;
+            default: return FACE_ACQUIRED_INSUFFICIENT;
+        }
+    }
+
+    private class SessionCallback implements CameraFaceAuthController.ServiceCallback {
+        private final int[] mScores = new int[20];
+        private Target mHintTarget;
+        private int mLastHint = -1;
+        /** When the current target started waiting, for the policy's unlock latency. */
+        volatile long mStartNanos;
+        volatile CameraFaceAuthController mController;
+        /** Set once the session is torn down, so a late callback cannot act on a newer target. */
+        volatile boolean mReleased;
+
+        @Override
+        public int handlePreviewData(byte[] data, int width, int height) {
+            Target target = mTarget.get();
+            if (target == null || mReleased || !isCurrent(target)) return -1;
+            int verdict = mQualityGate.evaluate(data, width, height);
+            if (verdict != FrameQualityGate.PASS) {
+                int hint = acquiredInfoFor(verdict);
+                // One hint per condition change, not one per frame.
+                if (target != mHintTarget || hint != mLastHint) {
+                    mHintTarget = target;
+                    mLastHint = hint;
+                    mCallback.onAcquired(target, hint);
+                }
+                return -1;
+            }
+            mLastHint = -1;
+            mFacePP.offerTuningFrame(data, width, height);
+            long t0 = System.nanoTime();
+            int res = mFacePP.compare(data, width, height, 0, true, true, mScores);
+            long t1 = System.nanoTime();
+            mPowerPolicy.recordFrame(t1 - t0);
+            mBoost.reportWork(t1 - t0);
+            CameraFaceAuthController controller = mController;
+            if (controller != null) controller.recordCompare(t1 - t0);
+            if (res == 0 && mTarget.get() == target && isCurrent(target)) {
+                Log.i(TAG, "Authentication successful. Triggering unlock.");
+                if (mAttempt.compareAndSet(target, null)) mPowerPolicy.recordSessionEnd(true, t1 - mStartNanos);
+                finish(this, target, 0);
+            }
+            return res;
+        }
+
+        @Override
+        public void setDetectArea(Camera.Size size) {
+            mFacePP.setDetectArea(0, 0, size.height, size.width);
+        }
+
+        @Override
+        public void onTimeout(boolean b) {
+            Target target = mTarget.get();
+            if (target != null && !mReleased && isCurrent(target)) {
+                if (mAttempt.compareAndSet(target, null)) mPowerPolicy.recordSessionEnd(false, 0);
+                finish(this, target, 3);
+            }
+        }
+
+        @Override
+        public void onCameraError() {
+            Target target = mTarget.get();
+            mHost.post(() -> {
+                if (mSessionCallback == this) releaseNow();
+            });
+            if (target != null && !mReleased && mTarget.compareAndSet(target, null)) {
+                mCallback.onError(target, 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package ax.nd.faceunlock;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the engine bring-up as named phases on its own thread so system_server boot does not wait
+ * for library loading, keystore and model I/O. Callers that need the engine block on
+ * {@link #awaitReady} for a bounded time instead. Phases added with {@link #addAfterReady} run
+ * on the same thread once readiness has completed; their failure does not affect it.
+ * <p>
+ * A phase that throws before readiness fails the bring-up for the life of the process: nothing
+ * re-runs the phases, and {@link #awaitReady} keeps returning false, so callers report the
+ * hardware as unavailable until the next boot. Phases that can fail transiently should report
+ * it without throwing and retry on first use instead, as the model load does.
+ */
+final class EngineInitializer {
+    private static final String TAG = "EngineInitializer";
+
+    interface Phase {
+        void run() throws Exception;
+    }
+
+    private final List<String> mNames = new ArrayList<>();
+    private final List<Phase> mPhases = new ArrayList<>();
+    private final CompletableFuture<Void> mReadiness = new CompletableFuture<>();
+    private int mReadyCount = -1;
+    private volatile long[] mDurations = new long[0];
+    private volatile int mCurrent = -1;
+    private volatile long mStartNanos;
+    private volatile long mEndNanos;
+
+    /** Phases run in the order they are added; add them all before {@link #start}. */
+    EngineInitializer add(String name, Phase phase) {
+        if (mReadyCount >= 0) throw new IllegalStateException(name + " added after a post-ready phase");
+        mNames.add(name);
+        mPhases.add(phase);
+        return this;
+    }
+
+    /** A phase that runs after readiness, e.g. work that is useful but not needed to authenticate. */
+    EngineInitializer addAfterReady(String name, Phase phase) {
+        if (mReadyCount < 0) mReadyCount = mPhases.size();
+        mNames.add(name);
+        mPhases.add(phase);
+        return this;
+    }
+
+    void start() {
+        if (mReadyCount < 0) mReadyCount = mPhases.size();
+        mDurations = new long[mPhases.size()];
+        mStartNanos = System.nanoTime();
+        Thread thread = new Thread(this::runPhases, "face_init");
+        thread.start();
+    }
+
+    private void runPhases() {
+        long[] durations = mDurations;
+        try {
+            for (int i = 0; i < mPhases.size(); i++) {
+                if (i == mReadyCount) {
+                    Log.i(TAG, "Engine ready: " + describe());
+                    mReadiness.complete(null);
+                }
+                mCurrent = i;
+                long t0 = System.nanoTime();
+                mPhases.get(i).run();
+                durations[i] = System.nanoTime() - t0;
+            }
+            mEndNanos = System.nanoTime();
+            mCurrent = mPhases.size();
+            if (mReadiness.complete(null)) {
+                Log.i(TAG, "Engine ready: " + describe());
+            } else {
+                Log.i(TAG, "Post-ready phases done: " + describe());
+            }
+        } catch (Throwable t) {
+            mEndNanos = System.nanoTime();
+            if (mReadiness.isDone()) {
+                Log.w(TAG, "Post-ready phase " + getCurrentPhase() + " failed, engine stays ready: " + describe(), t);
+            } else {
+                Log.e(TAG, "Engine bring-up failed in " + getCurrentPhase() + ": " + describe(), t);
+                mReadiness.completeExceptionally(t);
+            }
+        }
+    }
+
+    CompletableFuture<Void> getReadiness() {
+        return mReadiness;
+    }
+
+    boolean isReady() {
+        return mReadiness.isDone() && !mReadiness.isCompletedExceptionally();
+    }
+
+    /**
+     * Waits up to {@code timeoutMs} for every phase before readiness to finish. Returns false on
+     * timeout or failure, and always after a failed bring-up; the phase timings are logged
+     * whenever the caller had to wait.
+     */
+    boolean awaitReady(String caller, long timeoutMs) {
+        if (isReady()) return true;
+        long t0 = System.nanoTime();
+        boolean ready = false;
+        try {
+            mReadiness.get(timeoutMs, TimeUnit.MILLISECONDS);
+            ready = true;
+        } catch (TimeoutException e) {
+            Log.w(TAG, caller + ": engine not ready after " + timeoutMs + "ms, still in " + getCurrentPhase());
+        } catch (ExecutionException e) {
+            Log.w(TAG, caller + ": engine bring-up failed in " + getCurrentPhase());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Log.i(TAG, caller + " waited " + (System.nanoTime() - t0) / 1000000 + "ms: " + describe());
+        return ready;
+    }
+
+    String getCurrentPhase() {
+        int current = mCurrent;
+        if (current < 0) return "not started";
+        return current < mNames.size() ? mNames.get(current) : "done";
+    }
+
+    /** Per-phase durations, e.g. {@code libraries=40ms encryptor=120ms ... total=900ms}. */
+    String describe() {
+        int current = mCurrent;
+        long[] durations = mDurations;
+        long start = mStartNanos;
+        long end = mEndNanos;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mNames.size(); i++) {
+            sb.append(mNames.get(i)).append('=');
+            if (i < current) sb.append(durations[i] / 1000000).append("ms ");
+            else if (i > current) sb.append("pending ");
+            else sb.append(end != 0 ? "failed " : "running ");
+        }
+        long total = start == 0 ? 0 : (end != 0 ? end : System.nanoTime()) - start;
+        sb.append("total=").append(total / 1000000).append("ms");
+        return sb.toString();
+    }
+}
@@ -1,6 +1,8 @@
 package ax.nd.faceunlock;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.SurfaceTexture;
 import android.os.Handler;
 import android.os.Looper;
@@ -8,15 +10,18 @@ import android.util.Log;
 import android.view.Surface;
 import ax.nd.faceunlock.vendor.FacePPImpl;
 import ax.nd.faceunlock.camera.CameraFaceEnrollController;
-import ax.nd.faceunlock.camera.CameraFaceAuthController;
 import ax.nd.faceunlock.camera.CameraService;
+import ax.nd.faceunlock.camera.FrameQualityGate;
+import ax.nd.faceunlock.camera.FrameWorker;
+import ax.nd.faceunlock.util.Settings;
 import ax.nd.faceunlock.util.Util; 
+import ax.nd.faceunlock.vendor.EnrollFrameSelector;
+import com.megvii.facepp.sdk.jni.LiteApi;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 public class FaceAuthBridge {
     private static final String TAG = "FaceAuthBridge";
@@ -24,9 +29,13 @@ public class FaceAuthBridge {
     private Context mContext;
     private FacePPImpl mFacePP;
     private Handler mHandler;
-    private SurfaceTexture mDummySurface;
-    private CameraFaceAuthController mAuthController;
+    private volatile SurfaceTexture mDummySurface;
+    private final FrameWorker mFrameWorker;
+    private volatile AuthSessionManager mAuthSessions;
+    private final EngineInitializer mInitializer = new EngineInitializer();
     private static final int FRONT_CAMERA_ID = 1;
+    private static final long READY_WAIT_MS = 2000;
+    private static final int FACE_ERROR_HW_UNAVAILABLE = 1;
     
     // Engine Constants
     private static final int MG_UNLOCK_OK = 0;
@@ -47,25 +56,74 @@ public class FaceAuthBridge {
     private int mCurrentSteps = TOTAL_STEPS;
     private int mPendingFaceId = 0;
     private long mLastUpdateTime = 0;
+    private static final int MAX_MULTI_ENROLL_ATTEMPTS = 2;
+    private volatile FrameQualityGate mEnrollGate;
 
     private FaceAuthBridge(Context context) {
         mContext = context;
         mHandler = new Handler(Looper.getMainLooper());
         mFacePP = new FacePPImpl(context);
-        mDummySurface = new SurfaceTexture(10); 
+        mFrameWorker = new FrameWorker("face_frame_thread");
+        mInitializer
+                .add("libraries", () -> Class.forName(LiteApi.class.getName(), true, LiteApi.class.getClassLoader()))
+                .add("session", this::createSession)
+                .add("encryptor", mFacePP::createEncryptor)
+                .add("models", mFacePP::init)
+                .add("restore", mFacePP::restore)
+                // Benchmarking can take seconds on an untuned build; authentication need not wait.
+                .addAfterReady("tune", mFacePP::tuneConfig);
+        mContext.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override public void onTrimMemory(int level) {
+                // The next session re-initializes from the mapped model, without model file I/O.
+                if (level >= TRIM_MEMORY_RUNNING_CRITICAL) mFacePP.trimEngine();
+            }
+            @Override public void onLowMemory() {
+                mFacePP.trimEngine();
+            }
+            @Override public void onConfigurationChanged(Configuration newConfig) {
+            }
+        });
+    }
+
+    private void createSession() {
+        mDummySurface = new SurfaceTexture(10);
+        mAuthSessions = new AuthSessionManager(mContext, mHandler, mFacePP, mDummySurface, mFrameWorker, FRONT_CAMERA_ID,
+                new AuthSessionManager.Callback() {
+                    @Override public void onAuthenticated(AuthSessionManager.Target target) {
+                        notifyAuthenticated(target.receiver, target.sensorId, 1, target.userId);
+                    }
+                    @Override public void onError(AuthSessionManager.Target target, int error) {
+                        notifyError(target.receiver, error, 0);
+                    }
+                    @Override public void onAcquired(AuthSessionManager.Target target, int acquiredInfo) {
+                        notifyAcquired(target.receiver, target.userId, acquiredInfo, 0);
+                    }
+                });
     }
 
+    /** Called from FaceProvider.initSensors; returns at once and brings the engine up in the background. */
     public static void init(Context context) {
         if (sInstance == null) {
             try {
                 sInstance = new FaceAuthBridge(context);
-                sInstance.mFacePP.init(); 
+                sInstance.mInitializer.start();
             } catch (Throwable t) {
                 Log.e(TAG, "FaceAuthBridge initialization failed.", t);
             }
         }
     }
 
+    /** Readiness of the background bring-up. */
+    public CompletableFuture<Void> getReadiness() {
+        return mInitializer.getReadiness();
+    }
+
+    /** Bring-up phase timings and auth latency figures, for dumps and bug reports. */
+    public String getDiagnostics() {
+        AuthSessionManager sessions = mAuthSessions;
+        return "engine: " + mInitializer.describe() + "; crypto: " + mFacePP.getCryptoStats() + "; " + (sessions != null ? sessions.getDiagnostics() : "no session");
+    }
+
     public static FaceAuthBridge getInstance() {
         return sInstance;
     }
@@ -90,24 +148,47 @@ public class FaceAuthBridge {
     // --- ENROLLMENT ---
     public void startEnroll(final int userId, final Object receiverObject, final Surface previewSurface) {
         Log.d(TAG, "Enrollment requested for user: " + userId);
+        if (!mInitializer.awaitReady("startEnroll", READY_WAIT_MS)) {
+            notifyError(receiverObject, FACE_ERROR_HW_UNAVAILABLE, 0);
+            return;
+        }
         mEnrollFinished = false;
         mEngineSuccess = false;
         mCurrentSteps = TOTAL_STEPS;
         
         mHandler.post(() -> {
             try {
-                forceReleaseCamera();
-                try { Thread.sleep(150); } catch (Exception e) {}
+                mAuthSessions.releaseNow();
                 notifyEnrollResult(receiverObject, 0, userId, TOTAL_STEPS);
                 mFacePP.saveFeatureStart();
+                final EnrollFrameSelector selector = newEnrollSelector();
                 CameraFaceEnrollController.getInstance(mContext).start(new CameraFaceEnrollController.CameraCallback() {
                     byte[] mFeature = new byte[10000]; 
                     byte[] mFaceData = new byte[40000];
                     int[] mOutId = new int[1];
+                    int mMultiFailures = 0;
                     @Override public int handleSaveFeature(byte[] data, int width, int height, int angle) {
                         if (mEnrollFinished || mEngineSuccess) return 0;
+                        if (selector != null && mMultiFailures < MAX_MULTI_ENROLL_ATTEMPTS) {
+                            return saveFromSelection(data, width, height, angle);
+                        }
                         return mFacePP.saveFeature(data, width, height, angle, true, mFeature, mFaceData, mOutId);
                     }
+                    private int saveFromSelection(byte[] data, int width, int height, int angle) {
+                        FrameQualityGate gate = mEnrollGate;
+                        if (gate.evaluate(data, width, height) == FrameQualityGate.PASS) {
+                            selector.offer(data, width, height, angle, EnrollFrameSelector.score(gate.getLastMeanLuma(),
+                                    gate.getLastClippedRatio(), gate.getLastSharpness(), gate.getLastCentreOffset()));
+                        }
+                        if (!selector.isReady()) return MG_UNLOCK_KEEP;
+                        int res = selector.submit(mFeature, mFaceData, mOutId);
+                        Log.d(TAG, "Multi-image enroll res=" + res + " " + selector);
+                        if (res == MG_UNLOCK_OK) return res;
+                        if (++mMultiFailures >= MAX_MULTI_ENROLL_ATTEMPTS) {
+                            Log.w(TAG, "Multi-image enroll failed, falling back to single frames");
+                        }
+                        return MG_UNLOCK_KEEP;
+                    }
                     @Override public void handleSaveFeatureResult(int res) {
                         if (mEnrollFinished || mEngineSuccess) return;
                         if (res == MG_UNLOCK_OK) { 
@@ -135,7 +216,7 @@ public class FaceAuthBridge {
                     @Override public void onTimeout() { if(!mEngineSuccess) { stopEnroll(); notifyError(receiverObject, 3, 0); } }
                     @Override public void onCameraError() { if(!mEngineSuccess) { stopEnroll(); notifyError(receiverObject, 1, 0); } }
                     @Override public void setDetectArea(android.hardware.Camera.Size size) { mFacePP.setDetectArea(0, 0, size.height, size.width); }
-                }, FRONT_CAMERA_ID, previewSurface); 
+                }, mFrameWorker, FRONT_CAMERA_ID, previewSurface); 
             } catch (Throwable t) {
                 forceReleaseCamera();
                 notifyError(receiverObject, 1, 0);
@@ -143,6 +224,14 @@ public class FaceAuthBridge {
         });
     }
 
+    /** Null unless multi-image enrollment is enabled. */
+    private EnrollFrameSelector newEnrollSelector() {
+        if (!Settings.isMultiImageEnrollEnabled(mContext)) return null;
+        mEnrollGate = new FrameQualityGate(
+                FrameQualityGate.Thresholds.decode(Settings.getFrameQualityThresholds(mContext)));
+        return new EnrollFrameSelector(mFacePP::saveFeatureMulti);
+    }
+
     private void runProgressAnimation(final Object receiver, final int userId) {
         final int DELAY_MS = 50;
         mHandler.post(new Runnable() {
@@ -179,48 +268,16 @@ public class FaceAuthBridge {
     // --- AUTHENTICATION ---
     public void startAuthenticate(final int sensorId, final int userId, final Object receiverObject) {
         Log.d(TAG, "Authentication requested. Sensor: " + sensorId + ", User: " + userId);
-        mHandler.post(() -> {
-            try {
-                forceReleaseCamera(); 
-                try { Thread.sleep(100); } catch (Exception e) {}
-                mFacePP.compareStart();
-                mAuthController = new CameraFaceAuthController(mContext, new CameraFaceAuthController.ServiceCallback() {
-                    @Override
-                    public int handlePreviewData(byte[] data, int width, int height) {
-                        int[] scores = new int[20];
-                        int res = mFacePP.compare(data, width, height, 0, true, true, scores);
-                        if (res == 0) { 
-                            Log.i(TAG, "Authentication successful. Triggering unlock.");
-                            stopAuthenticateInternal(); 
-                            notifyAuthenticated(receiverObject, sensorId, 1, userId); 
-                        }
-                        return res;
-                    }
-                    @Override public void setDetectArea(android.hardware.Camera.Size size) { mFacePP.setDetectArea(0, 0, size.height, size.width); }
-                    @Override public void onTimeout(boolean b) { stopAuthenticateInternal(); notifyError(receiverObject, 3, 0); }
-                    @Override public void onCameraError() { stopAuthenticateInternal(); notifyError(receiverObject, 1, 0); }
-                });
-                mAuthController.start(FRONT_CAMERA_ID, mDummySurface); 
-            } catch (Throwable t) {
-                forceReleaseCamera();
-                notifyError(receiverObject, 1, 0);
-            }
-        });
+        if (!mInitializer.awaitReady("startAuthenticate", READY_WAIT_MS)) {
+            notifyError(receiverObject, FACE_ERROR_HW_UNAVAILABLE, 0);
+            return;
+        }
+        mAuthSessions.requestStart(sensorId, userId, receiverObject);
     }
 
     public void stopAuthenticate() {
-        stopAuthenticateInternal();
-    }
-
-    private void stopAuthenticateInternal() {
-        try {
-            mFacePP.compareStop();
-            if (mAuthController != null) {
-                mAuthController.stop();
-                mAuthController = null;
-            }
-            forceReleaseCamera();
-        } catch (Throwable t) {}
+        AuthSessionManager sessions = mAuthSessions;
+        if (sessions != null) sessions.requestStop();
     }
 
     private void forceReleaseCamera() {
@@ -229,6 +286,10 @@ public class FaceAuthBridge {
 
     public void remove(final int userId, final int faceId, final Object receiver) {
         Log.d(TAG, "Face removal requested. ID: " + faceId);
+        if (!mInitializer.awaitReady("remove", READY_WAIT_MS)) {
+            notifyError(receiver, FACE_ERROR_HW_UNAVAILABLE, 0);
+            return;
+        }
         mHandler.post(() -> {
             notifySystemUIonFaceChanged(false);
             mFacePP.deleteFeature(faceId); 
@@ -244,12 +305,8 @@ public class FaceAuthBridge {
     public List<Object> getEnrolledFaces(int sensorId, int userId) {
         List<Object> faces = new ArrayList<>();
         if (mFacePP.hasEnrolledFaces()) { 
-            try {
-                Class<?> faceClass = Class.forName("android.hardware.face.Face");
-                java.lang.reflect.Constructor<?> ctor = faceClass.getConstructor(CharSequence.class, int.class, long.class);
-                Object face = ctor.newInstance("Face 1", 1, (long)sensorId);
-                faces.add(face);
-            } catch (Exception e) {}
+            Object face = ReceiverDispatcher.newFace("Face 1", 1, (long)sensorId);
+            if (face != null) faces.add(face);
         }
         return faces;
     }
@@ -258,89 +315,47 @@ public class FaceAuthBridge {
     
     private void notifyChallengeGenerated(Object receiver, int sensorId, int userId, long challenge) {
         try {
-            Method m = receiver.getClass().getMethod("onChallengeGenerated", int.class, int.class, long.class);
-            m.invoke(receiver, sensorId, userId, challenge);
-        } catch (Exception e) {}
+            ReceiverDispatcher.of(receiver).onChallengeGenerated(receiver, sensorId, userId, challenge);
+        } catch (Throwable t) {}
     }
     
     private void notifyChallengeRevoked(Object receiver, int sensorId, int userId, long challenge) {}
 
     private void notifyRemoved(Object receiver, int faceId, int userId, int remaining) {
         try {
-            Class<?> faceClass = Class.forName("android.hardware.face.Face");
-            java.lang.reflect.Constructor<?> ctor = faceClass.getConstructor(CharSequence.class, int.class, long.class);
-            Object faceObj = ctor.newInstance("", faceId, 0L);
-            Method m = receiver.getClass().getMethod("onRemoved", faceClass, int.class);
-            m.invoke(receiver, faceObj, remaining);
-        } catch (Exception e) {}
+            ReceiverDispatcher.of(receiver).onRemoved(receiver, ReceiverDispatcher.newFace("", faceId, 0L), remaining);
+        } catch (Throwable t) {}
     }
 
     private void notifyAcquired(Object receiver, int userId, int acquiredInfo, int vendorCode) {
         try {
-            try {
-                Method m = receiver.getClass().getMethod("onAcquired", int.class, int.class, int.class);
-                m.invoke(receiver, 0, acquiredInfo, vendorCode);
-            } catch (NoSuchMethodException e) {
-                Method m = receiver.getClass().getMethod("onAcquired", int.class, int.class);
-                m.invoke(receiver, acquiredInfo, vendorCode);
-            }
-        } catch (Exception e) {}
+            ReceiverDispatcher.of(receiver).onAcquired(receiver, acquiredInfo, vendorCode);
+        } catch (Throwable t) {}
     }
 
     private void notifyEnrollResult(Object receiver, int faceId, int userId, int remaining) {
         try {
-            Class<?> faceClass = Class.forName("android.hardware.face.Face");
-            java.lang.reflect.Constructor<?> ctor = faceClass.getConstructor(CharSequence.class, int.class, long.class);
-            Object faceObj = ctor.newInstance("", faceId, 0L);
-            Method m = receiver.getClass().getMethod("onEnrollResult", faceClass, int.class);
-            m.invoke(receiver, faceObj, remaining);
-        } catch (Exception e) {}
+            ReceiverDispatcher.of(receiver).onEnrollResult(receiver, ReceiverDispatcher.newFace("", faceId, 0L), remaining);
+        } catch (Throwable t) {}
     }
 
     private void notifyAuthenticated(Object receiver, int deviceId, int faceId, int userId) {
         try {
-            Class<?> faceClass = Class.forName("android.hardware.face.Face");
-            java.lang.reflect.Constructor<?> ctor = faceClass.getConstructor(CharSequence.class, int.class, long.class);
-            Object faceObj = ctor.newInstance("", faceId, (long)deviceId);
-            Object targetReceiver = receiver;
-            if (receiver.getClass().getName().contains("ClientMonitorCallbackConverter") || 
-                receiver.getClass().getName().contains("Wrapper")) {
-                try {
-                    Field[] fields = receiver.getClass().getDeclaredFields();
-                    for (Field f : fields) {
-                        f.setAccessible(true);
-                        Object val = f.get(receiver);
-                        if (val != null && val.getClass().getName().contains("IFaceServiceReceiver")) {
-                            Log.d(TAG, "Receiver unwrapped successfully: " + val.getClass().getName());
-                            targetReceiver = val;
-                            break;
-                        }
-                    }
-                } catch (Exception ex) {
-                    Log.w(TAG, "Receiver unwrapping encountered an exception.", ex);
-                }
-            }
-            try {
-                Method m = targetReceiver.getClass().getMethod("onAuthenticationSucceeded", faceClass, int.class, boolean.class);
-                m.invoke(targetReceiver, faceObj, userId, true);
-            } catch (NoSuchMethodException e) {
-                try {
-                    Method m = targetReceiver.getClass().getMethod("onAuthenticationSucceeded", faceClass, int.class, byte[].class);
-                    m.invoke(targetReceiver, faceObj, userId, new byte[0]);
-                } catch (Exception ex2) {
-                    Log.e(TAG, "Critical error: Unable to locate callback method on receiver: " + targetReceiver.getClass().getName());
-                }
+            Object faceObj = ReceiverDispatcher.newFace("", faceId, (long) deviceId);
+            Object targetReceiver = ReceiverDispatcher.of(receiver).unwrap(receiver);
+            ReceiverDispatcher dispatcher = ReceiverDispatcher.of(targetReceiver);
+            if (!dispatcher.onAuthenticationSucceeded(targetReceiver, faceObj, userId)) {
+                Log.e(TAG, "Critical error: Unable to locate callback method on receiver: " + dispatcher.receiverName());
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to invoke authentication callback.", e);
+        } catch (Throwable t) {
+            Log.e(TAG, "Failed to invoke authentication callback.", t);
         }
     }
 
     private void notifyError(Object receiver, int error, int vendorCode) {
         try {
-            Method m = receiver.getClass().getMethod("onError", int.class, int.class);
-            m.invoke(receiver, error, vendorCode);
-        } catch (Exception e) {}
+            ReceiverDispatcher.of(receiver).onError(receiver, error, vendorCode);
+        } catch (Throwable t) {}
     }
 
     private void notifySystemUIonFaceChanged(boolean isEnrolled) {
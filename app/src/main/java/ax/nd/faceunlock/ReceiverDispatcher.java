@@ -0,0 +1,168 @@
+package ax.nd.faceunlock;
+
+import android.util.Log;
+
+import ax.nd.faceunlock.util.MethodHandleCache;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-receiver-class view of the IFaceServiceReceiver callbacks. Every overload and the
+ * ClientMonitorCallbackConverter unwrap field is resolved once per class; afterwards a
+ * callback is a map lookup plus an exact MethodHandle invocation.
+ */
+final class ReceiverDispatcher {
+    private static final String TAG = "ReceiverDispatcher";
+    private static final String FACE_CLASS = "android.hardware.face.Face";
+    private static final byte[] EMPTY_TOKEN = new byte[0];
+    private static final ConcurrentHashMap<Class<?>, ReceiverDispatcher> sDispatchers = new ConcurrentHashMap<>();
+
+    private static final Class<?> sFaceClass = MethodHandleCache.findClass(FACE_CLASS);
+    private static final MethodHandle sFaceCtor = erase(MethodHandleCache.findConstructor(sFaceClass, CharSequence.class, int.class, long.class));
+
+    private final Class<?> mReceiverClass;
+    private final MethodHandle mOnChallengeGenerated;
+    private final MethodHandle mOnEnrollResult;
+    private final MethodHandle mOnAcquired;
+    private final MethodHandle mOnAcquiredLegacy;
+    private final MethodHandle mOnAuthenticationSucceeded;
+    private final MethodHandle mOnAuthenticationSucceededToken;
+    private final MethodHandle mOnRemoved;
+    private final MethodHandle mOnError;
+    private final MethodHandle[] mUnwrapGetters;
+
+    private ReceiverDispatcher(Class<?> cls) {
+        mReceiverClass = cls;
+        mOnChallengeGenerated = find(cls, "onChallengeGenerated", int.class, int.class, long.class);
+        mOnAcquired = find(cls, "onAcquired", int.class, int.class, int.class);
+        mOnAcquiredLegacy = find(cls, "onAcquired", int.class, int.class);
+        mOnError = find(cls, "onError", int.class, int.class);
+        if (sFaceClass != null) {
+            mOnEnrollResult = find(cls, "onEnrollResult", sFaceClass, int.class);
+            mOnAuthenticationSucceeded = find(cls, "onAuthenticationSucceeded", sFaceClass, int.class, boolean.class);
+            mOnAuthenticationSucceededToken = find(cls, "onAuthenticationSucceeded", sFaceClass, int.class, byte[].class);
+            mOnRemoved = find(cls, "onRemoved", sFaceClass, int.class);
+        } else {
+            mOnEnrollResult = null;
+            mOnAuthenticationSucceeded = null;
+            mOnAuthenticationSucceededToken = null;
+            mOnRemoved = null;
+        }
+        mUnwrapGetters = isWrapper(cls) ? findUnwrapGetters(cls) : new MethodHandle[0];
+    }
+
+    static ReceiverDispatcher of(Object receiver) {
+        Class<?> cls = receiver.getClass();
+        ReceiverDispatcher dispatcher = sDispatchers.get(cls);
+        if (dispatcher == null) {
+            dispatcher = sDispatchers.computeIfAbsent(cls, ReceiverDispatcher::new);
+        }
+        return dispatcher;
+    }
+
+    static Object newFace(CharSequence name, int faceId, long deviceId) {
+        if (sFaceCtor == null) return null;
+        try {
+            return (Object) sFaceCtor.invokeExact((Object) name, faceId, deviceId);
+        } catch (Throwable t) {
+            Log.w(TAG, "Failed to construct " + FACE_CLASS, t);
+            return null;
+        }
+    }
+
+    /** Returns the IFaceServiceReceiver held by a converter/wrapper, or {@code receiver} itself. */
+    Object unwrap(Object receiver) {
+        for (MethodHandle getter : mUnwrapGetters) {
+            try {
+                Object val = (Object) getter.invokeExact(receiver);
+                if (val != null && val.getClass().getName().contains("IFaceServiceReceiver")) {
+                    return val;
+                }
+            } catch (Throwable t) {
+                Log.w(TAG, "Receiver unwrapping encountered an exception.", t);
+            }
+        }
+        return receiver;
+    }
+
+    boolean onChallengeGenerated(Object receiver, int sensorId, int userId, long challenge) throws Throwable {
+        if (mOnChallengeGenerated == null) return false;
+        mOnChallengeGenerated.invokeExact(receiver, sensorId, userId, challenge);
+        return true;
+    }
+
+    boolean onEnrollResult(Object receiver, Object face, int remaining) throws Throwable {
+        if (mOnEnrollResult == null || face == null) return false;
+        mOnEnrollResult.invokeExact(receiver, face, remaining);
+        return true;
+    }
+
+    boolean onAcquired(Object receiver, int acquiredInfo, int vendorCode) throws Throwable {
+        if (mOnAcquired != null) {
+            mOnAcquired.invokeExact(receiver, 0, acquiredInfo, vendorCode);
+            return true;
+        }
+        if (mOnAcquiredLegacy != null) {
+            mOnAcquiredLegacy.invokeExact(receiver, acquiredInfo, vendorCode);
+            return true;
+        }
+        return false;
+    }
+
+    boolean onAuthenticationSucceeded(Object receiver, Object face, int userId) throws Throwable {
+        if (face == null) return false;
+        if (mOnAuthenticationSucceeded != null) {
+            mOnAuthenticationSucceeded.invokeExact(receiver, face, userId, true);
+            return true;
+        }
+        if (mOnAuthenticationSucceededToken != null) {
+            mOnAuthenticationSucceededToken.invokeExact(receiver, face, userId, (Object) EMPTY_TOKEN);
+            return true;
+        }
+        return false;
+    }
+
+    boolean onRemoved(Object receiver, Object face, int remaining) throws Throwable {
+        if (mOnRemoved == null || face == null) return false;
+        mOnRemoved.invokeExact(receiver, face, remaining);
+        return true;
+    }
+
+    boolean onError(Object receiver, int error, int vendorCode) throws Throwable {
+        if (mOnError == null) return false;
+        mOnError.invokeExact(receiver, error, vendorCode);
+        return true;
+    }
+
+    String receiverName() {
+        return mReceiverClass.getName();
+    }
+
+    private static boolean isWrapper(Class<?> cls) {
+        String name = cls.getName();
+        return name.contains("ClientMonitorCallbackConverter") || name.contains("Wrapper");
+    }
+
+    private static MethodHandle[] findUnwrapGetters(Class<?> cls) {
+        List<MethodHandle> getters = new ArrayList<>();
+        for (Field f : cls.getDeclaredFields()) {
+            if (f.getType().isPrimitive() || Modifier.isStatic(f.getModifiers())) continue;
+            MethodHandle getter = erase(MethodHandleCache.findGetter(f));
+            if (getter != null) getters.add(getter);
+        }
+        return getters.toArray(new MethodHandle[0]);
+    }
+
+    private static MethodHandle find(Class<?> cls, String name, Class<?>... params) {
+        return erase(MethodHandleCache.findVirtual(cls, name, params));
+    }
+
+    private static MethodHandle erase(MethodHandle handle) {
+        return handle == null ? null : handle.asType(handle.type().erase());
+    }
+}
@@ -6,27 +6,72 @@ import android.util.Log;
 
 import com.megvii.facepp.sdk.UnlockEncryptor;
 
-import java.io.ByteArrayOutputStream;
+import java.security.InvalidKeyException;
 import java.security.KeyStore;
 import java.security.SecureRandom;
-import java.util.Arrays;
+import java.util.Locale;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 
+/**
+ * AES-GCM sealing of restore images with a key held in AndroidKeyStore. The key is looked up
+ * once and reused until keystore rejects it, then looked up again. A session groups the calls
+ * of one restore or enrollment so they share a cipher instance and get one timing summary.
+ */
 public class CustomUnlockEncryptor implements UnlockEncryptor {
     public static final String AKS_PROVIDER = "AndroidKeyStore";
     public static final String SEED_ALIAS = "seed_faceunlock";
     private static final int PROFILE_KEY_IV_SIZE = 12;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
     private static final String TAG = CustomUnlockEncryptor.class.getSimpleName();
 
+    /** Where the seed key comes from; tests supply one without AndroidKeyStore. */
+    interface KeySource {
+        SecretKey load() throws Exception;
+    }
+
+    private static final class Stats {
+        long lookups;
+        long lookupNanos;
+        long ops;
+        long cipherNanos;
+
+        void add(Stats other) {
+            lookups += other.lookups;
+            lookupNanos += other.lookupNanos;
+            ops += other.ops;
+            cipherNanos += other.cipherNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "ops=%d keystore=%d lookup(s) %.1fms cipher=%.1fms", ops, lookups,
+                    lookupNanos / 1e6, cipherNanos / 1e6);
+        }
+    }
+
+    private final KeySource mKeySource;
+    private final Stats mTotal = new Stats();
+    private SecretKey mKey;
+    private Cipher mSessionCipher;
+    private Stats mSession;
+    private String mSessionName;
+    private long mSessionStart;
+
+    /** Creates the seed key if needed and caches it, so the first restore skips the lookup. */
     public CustomUnlockEncryptor() {
-        saveSeed();
+        this(CustomUnlockEncryptor::loadSeed);
+        warmUp();
+    }
+
+    CustomUnlockEncryptor(KeySource keySource) {
+        mKeySource = keySource;
     }
 
-    private boolean saveSeed() {
+    private static boolean saveSeed() {
         try {
             KeyStore instance = KeyStore.getInstance(AKS_PROVIDER);
             instance.load(null);
@@ -51,67 +96,146 @@ public class CustomUnlockEncryptor implements UnlockEncryptor {
         }
     }
 
-    private byte[] encryptData(byte[] bArr) {
-        SecretKey secretKey;
+    private static SecretKey loadSeed() throws Exception {
+        KeyStore instance = KeyStore.getInstance(AKS_PROVIDER);
+        instance.load(null);
+        if (!instance.containsAlias(SEED_ALIAS)) {
+            Log.i(TAG, "key not exist, create key!");
+            saveSeed();
+        }
+        return (SecretKey) instance.getKey(SEED_ALIAS, null);
+    }
+
+    synchronized void warmUp() {
+        Stats op = new Stats();
+        try {
+            key(op);
+        } catch (Exception e) {
+            Log.e(TAG, "Exception in key lookup. " + e.toString());
+        }
+        mTotal.add(op);
+    }
+
+    /** Starts batching calls under {@code name}; an open session is ended first. */
+    public synchronized void beginSession(String name) {
+        if (mSession != null) endSession();
+        mSession = new Stats();
+        mSessionName = name;
+        mSessionStart = System.nanoTime();
+    }
+
+    /** Ends the current session and logs where its time went. */
+    public synchronized void endSession() {
+        if (mSession == null) return;
+        Log.i(TAG, "Session " + mSessionName + ": " + mSession + " in "
+                + (System.nanoTime() - mSessionStart) / 1000000 + "ms");
+        mSession = null;
+        mSessionName = null;
+        mSessionCipher = null;
+    }
+
+    private SecretKey key(Stats stats) throws Exception {
+        if (mKey != null) return mKey;
+        long t0 = System.nanoTime();
+        try {
+            mKey = mKeySource.load();
+        } finally {
+            stats.lookups++;
+            stats.lookupNanos += System.nanoTime() - t0;
+        }
+        return mKey;
+    }
+
+    /** The session's cipher, or a new one outside a session or after a failed init. */
+    private Cipher cipher(boolean fresh) throws Exception {
+        if (mSession == null) return Cipher.getInstance(TRANSFORMATION);
+        if (fresh || mSessionCipher == null) mSessionCipher = Cipher.getInstance(TRANSFORMATION);
+        return mSessionCipher;
+    }
+
+    /**
+     * A cipher initialized with the cached key, or null without a key. A key keystore no longer
+     * accepts is dropped and looked up once more, with a new cipher.
+     */
+    private Cipher init(int mode, GCMParameterSpec spec, Stats stats) throws Exception {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            SecretKey secretKey = key(stats);
+            if (secretKey == null) return null;
+            Cipher cipher = cipher(attempt > 0);
+            try {
+                if (spec == null) {
+                    cipher.init(mode, secretKey);
+                } else {
+                    cipher.init(mode, secretKey, spec);
+                }
+                return cipher;
+            } catch (InvalidKeyException e) {
+                Log.w(TAG, "Cached key rejected, looking it up again: " + e);
+                mKey = null;
+            }
+        }
+        return null;
+    }
+
+    private synchronized byte[] encryptData(byte[] bArr) {
         if (bArr == null) {
             return null;
         }
+        Stats op = new Stats();
+        long t0 = System.nanoTime();
         try {
-            KeyStore instance = KeyStore.getInstance(AKS_PROVIDER);
-            instance.load(null);
-            if (instance.containsAlias(SEED_ALIAS)) {
-                secretKey = (SecretKey) instance.getKey(SEED_ALIAS, null);
-            } else {
-                Log.i(TAG, "key not exist, create key!");
-                saveSeed();
-                secretKey = (SecretKey) instance.getKey(SEED_ALIAS, null);
-            }
-            if (secretKey != null) {
-                Cipher instance2 = Cipher.getInstance("AES/GCM/NoPadding");
-                instance2.init(1, secretKey);
-                byte[] doFinal = instance2.doFinal(bArr);
-                byte[] iv = instance2.getIV();
+            Cipher cipher = init(Cipher.ENCRYPT_MODE, null, op);
+            if (cipher != null) {
+                byte[] doFinal = cipher.doFinal(bArr);
+                byte[] iv = cipher.getIV();
                 if (iv.length == PROFILE_KEY_IV_SIZE) {
-                    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                    byteArrayOutputStream.write(iv);
-                    byteArrayOutputStream.write(doFinal);
-                    return byteArrayOutputStream.toByteArray();
+                    byte[] out = new byte[PROFILE_KEY_IV_SIZE + doFinal.length];
+                    System.arraycopy(iv, 0, out, 0, PROFILE_KEY_IV_SIZE);
+                    System.arraycopy(doFinal, 0, out, PROFILE_KEY_IV_SIZE, doFinal.length);
+                    return out;
                 }
+            } else {
+                Log.e(TAG, "key not exist, something is wrong!");
             }
         } catch (Exception e) {
             e.printStackTrace();
             Log.e(TAG, "Exception in encrypt. " + e.toString());
+        } finally {
+            record(op, t0);
         }
         return new byte[0];
     }
 
-    private byte[] decryptData(byte[] bArr) {
-        SecretKey secretKey = null;
+    private synchronized byte[] decryptData(byte[] bArr) {
         if (bArr == null) {
             return null;
         }
+        Stats op = new Stats();
+        long t0 = System.nanoTime();
         try {
-            KeyStore instance = KeyStore.getInstance(AKS_PROVIDER);
-            instance.load(null);
-            if (instance.containsAlias(SEED_ALIAS)) {
-                secretKey = (SecretKey) instance.getKey(SEED_ALIAS, null);
-            } else {
-                Log.e(TAG, "key not exist, something is wrong!");
-            }
-            if (secretKey != null) {
-                byte[] copyOfRange = Arrays.copyOfRange(bArr, 0, PROFILE_KEY_IV_SIZE);
-                byte[] copyOfRange2 = Arrays.copyOfRange(bArr, PROFILE_KEY_IV_SIZE, bArr.length);
-                Cipher instance2 = Cipher.getInstance("AES/GCM/NoPadding");
-                instance2.init(2, secretKey, new GCMParameterSpec(128, copyOfRange));
-                return instance2.doFinal(copyOfRange2);
+            GCMParameterSpec spec = new GCMParameterSpec(128, bArr, 0, PROFILE_KEY_IV_SIZE);
+            Cipher cipher = init(Cipher.DECRYPT_MODE, spec, op);
+            if (cipher != null) {
+                return cipher.doFinal(bArr, PROFILE_KEY_IV_SIZE, bArr.length - PROFILE_KEY_IV_SIZE);
             }
+            Log.e(TAG, "key not exist, something is wrong!");
         } catch (Exception e) {
             e.printStackTrace();
             Log.e(TAG, "Exception in decrypt. " + e.toString());
+        } finally {
+            record(op, t0);
         }
         return new byte[0];
     }
 
+    /** Books one call: cipher time is its run time minus any keystore lookup it made. */
+    private void record(Stats op, long t0) {
+        op.ops = 1;
+        op.cipherNanos = System.nanoTime() - t0 - op.lookupNanos;
+        mTotal.add(op);
+        if (mSession != null) mSession.add(op);
+    }
+
     @Override
     public byte[] encrypt(byte[] bArr) {
         return encryptData(bArr);
@@ -121,5 +245,9 @@ public class CustomUnlockEncryptor implements UnlockEncryptor {
     public byte[] decrypt(byte[] bArr) {
         return decryptData(bArr);
     }
-}
 
+    @Override
+    public synchronized String toString() {
+        return mTotal.toString();
+    }
+}
@@ -0,0 +1,110 @@
+package ax.nd.faceunlock.camera;
+
+import android.hardware.Camera;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.CompletableFuture;
+
+import ax.nd.faceunlock.camera.listeners.CameraListener;
+import ax.nd.faceunlock.camera.listeners.ErrorCallbackListener;
+
+/** android.hardware.Camera through the CameraService callables, with pooled callback buffers. */
+public class Camera1Backend implements CameraBackend {
+    private static final String TAG = "Camera1Backend";
+    private static final int CALLBACK_BUFFER_COUNT = 3;
+
+    private final FrameBufferPool mPool = FrameBufferPool.getInstance();
+    private volatile boolean mOpen = false;
+    private volatile int mBufferSize = 0;
+
+    @Override
+    public void open(SessionConfig config, Callback callback) {
+        mOpen = true;
+        CameraService.openCamera(config.cameraId, new ErrorCallbackListener() {
+            @Override
+            public void onEventCallback(int i, Object value) {
+                callback.onError(new RuntimeException("Camera error " + i + ": " + value));
+            }
+        }, new CameraListener() {
+            @Override
+            public void onComplete(Object value) {
+                CameraService.configureAndStartPreview(config.previewSurface, config.previewTexture, config.cropZoom, new CameraListener() {
+                    @Override
+                    public void onComplete(Object value) {
+                        attach(config, callback);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        callback.onError(e);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(Exception e) {
+                callback.onError(e);
+            }
+        });
+    }
+
+    private void attach(SessionConfig config, Callback callback) {
+        if (!mOpen) return;
+        CameraRepository.CameraData data = CameraRepository.getInstance().getCameraData();
+        FrameDescriptor descriptor = data.mFrameDescriptor;
+        if (descriptor == null) {
+            Log.w(TAG, "Preview geometry unavailable, using expected " + config.expectedDescriptor);
+            descriptor = config.expectedDescriptor;
+        }
+        if (descriptor == null) {
+            callback.onError(new IllegalStateException("Preview geometry unavailable"));
+            return;
+        }
+        mBufferSize = descriptor.byteSize;
+        for (int n = 0; n < CALLBACK_BUFFER_COUNT; n++) {
+            byte[] buffer = mPool.acquire(descriptor.byteSize);
+            if (buffer == null) continue;
+            mPool.queued(buffer);
+            CameraService.addCallbackBuffer(buffer, null);
+        }
+        callback.onStarted(descriptor, data.mPreviewPlan);
+        CameraService.setPreviewCallback((frame, frameDescriptor) -> {
+            if (frame == null) return;
+            mPool.delivered(frame);
+            callback.onFrame(frame, SystemClock.elapsedRealtimeNanos());
+        }, true, null);
+    }
+
+    /**
+     * Hands a frame back to the camera, or to the pool once the session is over. Serialised with
+     * {@link #close} so nothing is queued in a camera whose buffers are already being reclaimed.
+     */
+    @Override
+    public synchronized void recycle(byte[] frame) {
+        Camera camera = CameraRepository.getInstance().getCameraData().mCamera;
+        if (mOpen && camera != null && frame.length == mBufferSize) {
+            mPool.queued(frame);
+            camera.addCallbackBuffer(frame);
+        } else {
+            mPool.release(frame);
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return mOpen && CameraService.getState() == CameraStateMachine.State.PREVIEWING;
+    }
+
+    @Override
+    public CompletableFuture<Void> close() {
+        final int bufferSize;
+        synchronized (this) {
+            mOpen = false;
+            bufferSize = mBufferSize;
+        }
+        return CameraService.closeCamera(null).thenRun(() -> {
+            if (bufferSize > 0) mPool.reclaim(bufferSize);
+        });
+    }
+}
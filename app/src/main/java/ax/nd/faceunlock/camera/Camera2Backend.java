@@ -0,0 +1,282 @@
+package ax.nd.faceunlock.camera;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+
+import com.megvii.facepp.sdk.Lite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * CameraDevice with a YUV_420_888 ImageReader. Images are converted into pooled NV21 buffers by
+ * {@link Lite#image2NV21} on the backend thread and closed right away, so the reader never runs
+ * dry while the engine holds a frame. Every instance runs on one shared backend thread, since a new
+ * backend is created per session and only one session has the camera at a time. An instance can be
+ * reopened after close(), as the enroll controller does; each open is a generation, and device and
+ * capture callbacks from an older generation only close what they were handed.
+ */
+public class Camera2Backend implements CameraBackend {
+    private static final String TAG = "Camera2Backend";
+    private static final int MAX_IMAGES = 3;
+    private static Handler sHandler;
+
+    private final Context mContext;
+    private final FrameBufferPool mPool = FrameBufferPool.getInstance();
+    private final Handler mHandler;
+
+    private CameraDevice mDevice;
+    private CameraCaptureSession mSession;
+    private ImageReader mReader;
+    private Callback mCallback;
+    private FrameDescriptor mDescriptor;
+    private PreviewSizePlanner.Plan mPlan;
+    private byte[] mScratch;
+    /** Completes once the current generation's device is closed or its openCamera failed. */
+    private CompletableFuture<Void> mClosed = CompletableFuture.completedFuture(null);
+    /** Bumped on the backend thread by every open and close. */
+    private int mGeneration = 0;
+    private volatile boolean mOpen = false;
+    private volatile boolean mStreaming = false;
+    private long mStarved = 0;
+
+    public Camera2Backend(Context context) {
+        mContext = context;
+        mHandler = backendHandler();
+    }
+
+    private static synchronized Handler backendHandler() {
+        if (sHandler == null) {
+            HandlerThread thread = new HandlerThread("Camera2Backend");
+            thread.start();
+            sHandler = new Handler(thread.getLooper());
+        }
+        return sHandler;
+    }
+
+    @Override
+    public void open(SessionConfig config, Callback callback) {
+        mOpen = true;
+        mHandler.post(() -> {
+            final int generation = ++mGeneration;
+            final CompletableFuture<Void> closed = new CompletableFuture<>();
+            mClosed = closed;
+            try {
+                mCallback = callback;
+                CameraManager manager = mContext.getSystemService(CameraManager.class);
+                String id = String.valueOf(config.cameraId);
+                CameraCharacteristics chars = manager.getCameraCharacteristics(id);
+                mPlan = plan(chars, config.cropZoom);
+                if (mPlan == null) throw new IllegalStateException("No YUV_420_888 output sizes");
+                int width = mPlan.size.width;
+                int height = mPlan.size.height;
+                mDescriptor = new FrameDescriptor(config.cameraId, width, height, ImageFormat.NV21);
+                if (mScratch == null || mScratch.length < width) mScratch = new byte[width];
+                mReader = ImageReader.newInstance(width, height, ImageFormat.YUV_420_888, MAX_IMAGES);
+                mReader.setOnImageAvailableListener(this::onImageAvailable, mHandler);
+                manager.openCamera(id, new DeviceCallback(config, generation, closed), mHandler);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to open camera " + config.cameraId, e);
+                // No device will be handed to this generation.
+                closed.complete(null);
+                fail(e);
+            }
+        });
+    }
+
+    private PreviewSizePlanner.Plan plan(CameraCharacteristics chars, boolean cropZoom) {
+        StreamConfigurationMap map = chars.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] outputs = map != null ? map.getOutputSizes(ImageFormat.YUV_420_888) : null;
+        if (outputs == null) return null;
+        List<PreviewSizePlanner.Size> sizes = new ArrayList<>(outputs.length);
+        for (Size s : outputs) sizes.add(new PreviewSizePlanner.Size(s.getWidth(), s.getHeight()));
+
+        // Same crop-zoom as the Camera1 enroll path: a tenth of the way up the zoom range.
+        float zoom = 1f;
+        List<Integer> ratios = null;
+        Range<Float> range = chars.get(CameraCharacteristics.CONTROL_ZOOM_RATIO_RANGE);
+        if (cropZoom && range != null && range.getUpper() > 1f) {
+            zoom = 1f + (range.getUpper() - 1f) / 10f;
+            ratios = Arrays.asList(100, Math.round(zoom * 100));
+        }
+        PreviewSizePlanner.Plan plan = new PreviewSizePlanner().plan(sizes,
+                new PreviewSizePlanner.Request(PreviewSizePlanner.ENGINE_WIDTH, PreviewSizePlanner.ENGINE_HEIGHT, zoom, ratios));
+        if (plan != null) Log.i(TAG, "Preview plan: " + plan);
+        return plan;
+    }
+
+    private class DeviceCallback extends CameraDevice.StateCallback {
+        private final SessionConfig mConfig;
+        private final int mGen;
+        private final CompletableFuture<Void> mDeviceClosed;
+
+        DeviceCallback(SessionConfig config, int generation, CompletableFuture<Void> closed) {
+            mConfig = config;
+            mGen = generation;
+            mDeviceClosed = closed;
+        }
+
+        /** Whether this callback's open has been closed or superseded; closes the device if so. */
+        private boolean isStale(CameraDevice device) {
+            if (mGen == mGeneration && mOpen) return false;
+            if (mDevice == device) mDevice = null;
+            device.close();
+            return true;
+        }
+
+        @Override
+        public void onOpened(CameraDevice device) {
+            if (isStale(device)) return;
+            mDevice = device;
+            try {
+                final List<Surface> targets = new ArrayList<>();
+                targets.add(mReader.getSurface());
+                if (mConfig.previewSurface != null) targets.add(mConfig.previewSurface);
+                device.createCaptureSession(targets, new CameraCaptureSession.StateCallback() {
+                    @Override
+                    public void onConfigured(CameraCaptureSession session) {
+                        if (mGen != mGeneration) {
+                            session.close();
+                            return;
+                        }
+                        mSession = session;
+                        startRepeating(device, session, targets);
+                    }
+
+                    @Override
+                    public void onConfigureFailed(CameraCaptureSession session) {
+                        if (mGen != mGeneration) return;
+                        fail(new IllegalStateException("Capture session configuration failed"));
+                    }
+                }, mHandler);
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void onClosed(CameraDevice device) {
+            mDeviceClosed.complete(null);
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice device) {
+            if (isStale(device)) return;
+            // May come instead of onOpened; close() still has to close the device.
+            mDevice = device;
+            fail(new IllegalStateException("Camera disconnected"));
+        }
+
+        @Override
+        public void onError(CameraDevice device, int error) {
+            if (isStale(device)) return;
+            mDevice = device;
+            fail(new IllegalStateException("Camera device error " + error));
+        }
+    }
+
+    private void startRepeating(CameraDevice device, CameraCaptureSession session, List<Surface> targets) {
+        if (!mOpen) return;
+        try {
+            CaptureRequest.Builder builder = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            for (Surface target : targets) builder.addTarget(target);
+            if (mPlan.hardwareZoom > 1f) builder.set(CaptureRequest.CONTROL_ZOOM_RATIO, mPlan.hardwareZoom);
+            session.setRepeatingRequest(builder.build(), null, mHandler);
+            mStreaming = true;
+            mCallback.onStarted(mDescriptor, mPlan);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    private void onImageAvailable(ImageReader reader) {
+        Image image = reader.acquireLatestImage();
+        if (image == null) return;
+        try {
+            if (!mStreaming) return;
+            byte[] frame = mPool.acquire(mDescriptor.byteSize);
+            if (frame == null) {
+                // Every pooled buffer is still with the engine; drop this image.
+                if (++mStarved % 30 == 1) Log.d(TAG, "No free frame buffer, dropped=" + mStarved);
+                return;
+            }
+            if (Lite.image2NV21(image, frame, mScratch) != 0) {
+                mPool.release(frame);
+                return;
+            }
+            mCallback.onFrame(frame, image.getTimestamp());
+        } catch (Exception e) {
+            Log.e(TAG, "Frame copy failed", e);
+        } finally {
+            image.close();
+        }
+    }
+
+    @Override
+    public void recycle(byte[] frame) {
+        mPool.release(frame);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return mOpen && mStreaming;
+    }
+
+    @Override
+    public CompletableFuture<Void> close() {
+        mOpen = false;
+        mStreaming = false;
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        mHandler.post(() -> {
+            CompletableFuture<Void> deviceClosed = mClosed;
+            // A device still being opened arrives stale and is closed in DeviceCallback.
+            mGeneration++;
+            teardown();
+            deviceClosed.whenComplete((v, t) -> closed.complete(null));
+        });
+        return closed;
+    }
+
+    private void fail(Exception e) {
+        mStreaming = false;
+        Callback callback = mCallback;
+        if (mOpen && callback != null) callback.onError(e);
+    }
+
+    /** Backend thread only. */
+    private void teardown() {
+        if (mSession != null) {
+            try {
+                mSession.close();
+            } catch (Exception e) {
+                Log.w(TAG, "Session close failed", e);
+            }
+            mSession = null;
+        }
+        if (mDevice != null) {
+            mDevice.close();
+            mDevice = null;
+        }
+        if (mReader != null) {
+            mReader.close();
+            mReader = null;
+        }
+        // Frames still with the engine come back through recycle(); nothing to reclaim here.
+    }
+}
@@ -0,0 +1,61 @@
+package ax.nd.faceunlock.camera;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.view.Surface;
+
+import java.util.concurrent.CompletableFuture;
+
+import ax.nd.faceunlock.util.Settings;
+
+/**
+ * Source of NV21 preview frames for auth and enroll. A frame handed to {@link Callback#onFrame}
+ * belongs to the receiver until it is given back through {@link #recycle}.
+ */
+public interface CameraBackend {
+
+    class SessionConfig {
+        public final int cameraId;
+        /** Optional on-screen preview target (enrollment). */
+        public final Surface previewSurface;
+        /** Optional off-screen preview target for backends that need one to stream. */
+        public final SurfaceTexture previewTexture;
+        /** Geometry to fall back to if the negotiated one cannot be read. */
+        public final FrameDescriptor expectedDescriptor;
+        /** Apply the enroll crop-zoom; auth keeps the full field of view. */
+        public final boolean cropZoom;
+
+        public SessionConfig(int cameraId, Surface previewSurface, SurfaceTexture previewTexture,
+                             FrameDescriptor expectedDescriptor, boolean cropZoom) {
+            this.cameraId = cameraId;
+            this.previewSurface = previewSurface;
+            this.previewTexture = previewTexture;
+            this.expectedDescriptor = expectedDescriptor;
+            this.cropZoom = cropZoom;
+        }
+    }
+
+    interface Callback {
+        /** Streaming started; {@code plan} may be null if no preview plan was applied. */
+        void onStarted(FrameDescriptor descriptor, PreviewSizePlanner.Plan plan);
+
+        void onFrame(byte[] frame, long timestampNanos);
+
+        void onError(Exception e);
+    }
+
+    void open(SessionConfig config, Callback callback);
+
+    void recycle(byte[] frame);
+
+    /** True while the device is open and a repeating preview is running. */
+    boolean isStreaming();
+
+    /** Completes once the device has been released. */
+    CompletableFuture<Void> close();
+
+    static CameraBackend create(Context context) {
+        if (context != null && Settings.isCamera2BackendEnabled(context)) return new Camera2Backend(context);
+        return new Camera1Backend();
+    }
+}
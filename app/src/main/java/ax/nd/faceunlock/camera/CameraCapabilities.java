@@ -0,0 +1,148 @@
+package ax.nd.faceunlock.camera;
+
+import android.hardware.Camera;
+import android.os.Build;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a camera supports, captured once from Camera.Parameters and CameraInfo. It never changes
+ * for a given build, so it is persisted and checked against the build fingerprint instead of being
+ * re-read and re-parsed every session.
+ */
+public class CameraCapabilities {
+    static final int VERSION = 1;
+    /** Upper bound for any list in a stored record; a larger count means the file is corrupt. */
+    static final int MAX_ENTRIES = 256;
+
+    public final String fingerprint;
+    public final int cameraId;
+    public final int facing;
+    public final int orientation;
+    public final List<PreviewSizePlanner.Size> previewSizes;
+    public final List<Integer> previewFormats;
+    public final boolean zoomSupported;
+    public final int maxZoom;
+    public final List<Integer> zoomRatios;
+    public final List<int[]> fpsRanges;
+
+    public CameraCapabilities(String fingerprint, int cameraId, int facing, int orientation,
+                              List<PreviewSizePlanner.Size> previewSizes, List<Integer> previewFormats,
+                              boolean zoomSupported, int maxZoom, List<Integer> zoomRatios, List<int[]> fpsRanges) {
+        this.fingerprint = fingerprint;
+        this.cameraId = cameraId;
+        this.facing = facing;
+        this.orientation = orientation;
+        this.previewSizes = Collections.unmodifiableList(previewSizes);
+        this.previewFormats = Collections.unmodifiableList(previewFormats);
+        this.zoomSupported = zoomSupported;
+        this.maxZoom = maxZoom;
+        this.zoomRatios = Collections.unmodifiableList(zoomRatios);
+        this.fpsRanges = Collections.unmodifiableList(fpsRanges);
+    }
+
+    public static CameraCapabilities from(int cameraId, Camera.Parameters params, Camera.CameraInfo info) {
+        List<PreviewSizePlanner.Size> sizes = new ArrayList<>();
+        List<Camera.Size> supported = params.getSupportedPreviewSizes();
+        if (supported != null) {
+            for (Camera.Size s : supported) sizes.add(new PreviewSizePlanner.Size(s.width, s.height));
+        }
+        List<Integer> formats = params.getSupportedPreviewFormats();
+        boolean zoom = params.isZoomSupported();
+        List<Integer> ratios = zoom ? params.getZoomRatios() : null;
+        List<int[]> fps = params.getSupportedPreviewFpsRange();
+        return new CameraCapabilities(buildFingerprint(), cameraId,
+                info != null ? info.facing : 0, info != null ? info.orientation : 0, sizes,
+                formats != null ? new ArrayList<>(formats) : new ArrayList<>(),
+                zoom, zoom ? params.getMaxZoom() : 0,
+                ratios != null ? new ArrayList<>(ratios) : new ArrayList<>(),
+                fps != null ? new ArrayList<>(fps) : new ArrayList<>());
+    }
+
+    public boolean isCurrentBuild() {
+        return buildFingerprint().equals(fingerprint);
+    }
+
+    static String buildFingerprint() {
+        return String.valueOf(Build.FINGERPRINT);
+    }
+
+    public void fillCameraInfo(Camera.CameraInfo info) {
+        info.facing = facing;
+        info.orientation = orientation;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(VERSION);
+        out.writeUTF(fingerprint);
+        out.writeInt(cameraId);
+        out.writeInt(facing);
+        out.writeInt(orientation);
+        out.writeInt(previewSizes.size());
+        for (PreviewSizePlanner.Size s : previewSizes) {
+            out.writeInt(s.width);
+            out.writeInt(s.height);
+        }
+        writeInts(out, previewFormats);
+        out.writeBoolean(zoomSupported);
+        out.writeInt(maxZoom);
+        writeInts(out, zoomRatios);
+        out.writeInt(fpsRanges.size());
+        for (int[] range : fpsRanges) {
+            out.writeInt(range[0]);
+            out.writeInt(range[1]);
+        }
+    }
+
+    /**
+     * Returns null if the record was written by a different format version; throws if a count is
+     * out of range, so a corrupt file cannot size an allocation.
+     */
+    static CameraCapabilities read(DataInputStream in) throws IOException {
+        if (in.readInt() != VERSION) return null;
+        String fingerprint = in.readUTF();
+        int cameraId = in.readInt();
+        int facing = in.readInt();
+        int orientation = in.readInt();
+        int n = readCount(in);
+        List<PreviewSizePlanner.Size> sizes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) sizes.add(new PreviewSizePlanner.Size(in.readInt(), in.readInt()));
+        List<Integer> formats = readInts(in);
+        boolean zoom = in.readBoolean();
+        int maxZoom = in.readInt();
+        List<Integer> ratios = readInts(in);
+        n = readCount(in);
+        List<int[]> fps = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) fps.add(new int[]{in.readInt(), in.readInt()});
+        return new CameraCapabilities(fingerprint, cameraId, facing, orientation, sizes, formats, zoom, maxZoom, ratios, fps);
+    }
+
+    private static void writeInts(DataOutputStream out, List<Integer> values) throws IOException {
+        out.writeInt(values.size());
+        for (int v : values) out.writeInt(v);
+    }
+
+    private static List<Integer> readInts(DataInputStream in) throws IOException {
+        int n = readCount(in);
+        List<Integer> values = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) values.add(in.readInt());
+        return values;
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > MAX_ENTRIES) throw new IOException("Bad entry count " + n);
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        return "camera" + cameraId + " facing=" + facing + " orientation=" + orientation + " sizes=" + previewSizes
+                + " formats=" + previewFormats + " maxZoom=" + maxZoom + " fpsRanges=" + fpsRanges.size();
+    }
+}
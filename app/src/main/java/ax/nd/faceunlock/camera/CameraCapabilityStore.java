@@ -0,0 +1,83 @@
+package ax.nd.faceunlock.camera;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Capability snapshots per camera id, kept in memory and on disk across reboots of the same build. */
+public class CameraCapabilityStore {
+    private static final String TAG = "CameraCapabilityStore";
+    private static final String CACHE_PATH = "/data/system/face_unlock_cache";
+    private static CameraCapabilityStore sInstance;
+
+    private final File mDir;
+    private final ConcurrentHashMap<Integer, CameraCapabilities> mMemory = new ConcurrentHashMap<>();
+
+    public static synchronized CameraCapabilityStore getInstance() {
+        if (sInstance == null) {
+            sInstance = new CameraCapabilityStore(new File(CACHE_PATH));
+        }
+        return sInstance;
+    }
+
+    public CameraCapabilityStore(File dir) {
+        mDir = dir;
+    }
+
+    /** Returns the snapshot for {@code cameraId}, or null if none was recorded on this build. */
+    public CameraCapabilities get(int cameraId) {
+        CameraCapabilities caps = mMemory.get(cameraId);
+        if (caps != null) return caps;
+        caps = load(cameraId);
+        if (caps != null) mMemory.put(cameraId, caps);
+        return caps;
+    }
+
+    public void put(CameraCapabilities caps) {
+        mMemory.put(caps.cameraId, caps);
+        File file = fileFor(caps.cameraId);
+        File tmp = new File(mDir, file.getName() + ".tmp");
+        try {
+            if (!mDir.exists() && !mDir.mkdirs()) throw new IOException("Cannot create " + mDir);
+            try (FileOutputStream stream = new FileOutputStream(tmp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+                caps.write(out);
+                out.flush();
+                // The rename must not reach disk before the data it points at.
+                stream.getFD().sync();
+            }
+            if (!tmp.renameTo(file)) throw new IOException("Cannot rename " + tmp);
+            Log.i(TAG, "Stored capabilities " + caps);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to persist capabilities for camera " + caps.cameraId, e);
+            tmp.delete();
+        }
+    }
+
+    private CameraCapabilities load(int cameraId) {
+        File file = fileFor(cameraId);
+        if (!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            CameraCapabilities caps = CameraCapabilities.read(in);
+            if (caps != null && caps.cameraId == cameraId && caps.isCurrentBuild()) return caps;
+            Log.i(TAG, "Discarding stale capabilities for camera " + cameraId);
+        } catch (IOException | RuntimeException e) {
+            // A corrupt file is a stale cache: drop it and read the camera again.
+            Log.w(TAG, "Unable to read capabilities for camera " + cameraId, e);
+        }
+        file.delete();
+        return null;
+    }
+
+    private File fileFor(int cameraId) {
+        return new File(mDir, "camera_caps_" + cameraId);
+    }
+}
@@ -1,32 +1,30 @@
 package ax.nd.faceunlock.camera;
 
 import android.content.Context;
-import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.PowerManager;
 import android.util.Log;
 
-import ax.nd.faceunlock.camera.listeners.CameraListener;
-import ax.nd.faceunlock.camera.listeners.ErrorCallbackListener;
-
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
 
 public class CameraFaceAuthController {
     private static final String TAG = "CameraFaceAuthController";
     private Context mContext;
     private Handler mHandler;
-    private HandlerThread mAuthHandlerThread;
-    private Handler mAuthHandler;
+    private final FrameWorker mWorker;
+    private volatile int mSession;
+    private volatile FrameMailbox mMailbox;
+    private final FramePipeline mPipeline;
+    private volatile FrameAdmissionScheduler mScheduler;
+    private PowerManager.OnThermalStatusChangedListener mThermalListener;
     private ServiceCallback mCallback;
-    private boolean mIsAuthenticating = false;
+    private volatile boolean mIsAuthenticating = false;
+    private volatile boolean mCameraFailed = false;
 
-    private int mWidth = 640;
-    private int mHeight = 480;
+    private static final long OPEN_GRACE_MS = 2000;
+    private static final long FRAME_STALL_MS = 1000;
 
     public interface ServiceCallback {
         int handlePreviewData(byte[] data, int width, int height);
@@ -35,8 +33,14 @@ public class CameraFaceAuthController {
         void onCameraError();
     }
 
-    public CameraFaceAuthController(Context context, ServiceCallback callback) {
+    public CameraFaceAuthController(Context context, FrameWorker worker, ServiceCallback callback) {
+        this(context, worker, callback, CameraBackend.create(context));
+    }
+
+    public CameraFaceAuthController(Context context, FrameWorker worker, ServiceCallback callback, CameraBackend backend) {
         mContext = context;
+        mPipeline = new FramePipeline(backend);
+        mWorker = worker;
         mCallback = callback;
         mHandler = new Handler(Looper.getMainLooper());
     }
@@ -45,137 +49,128 @@ public class CameraFaceAuthController {
         Log.d(TAG, "Starting Auth Camera...");
         if (mIsAuthenticating) stop();
         mIsAuthenticating = true;
-        
-        mAuthHandlerThread = new HandlerThread("face_auth_thread");
-        mAuthHandlerThread.start();
-        mAuthHandler = new Handler(mAuthHandlerThread.getLooper());
-
-        CameraService.openCamera(cameraId, new ErrorCallbackListener() {
-            @Override
-            public void onEventCallback(int i, Object value) {
-                Log.e(TAG, "Auth Camera Open Error: " + i);
-                if (mCallback != null) mCallback.onCameraError();
-            }
-        }, new CameraListener() {
-            @Override
-            public void onComplete(Object value) {
-                if (value instanceof Camera) {
-                    Camera camera = (Camera) value;
-                    
-                    setupCameraParameters(camera);
-
-                    CameraService.startPreview(dummySurface, new CameraListener() {
-                        @Override
-                        public void onComplete(Object value) {
-                            Log.d(TAG, "Auth Preview Started (" + mWidth + "x" + mHeight + "). Attaching buffers...");
-                            setupBufferedCallback(camera);
-                        }
-                        @Override
-                        public void onError(Exception e) {
-                            Log.e(TAG, "Auth Preview Start Failed", e);
-                            if (mCallback != null) mCallback.onCameraError();
-                        }
-                    });
-                }
+        mCameraFailed = false;
+        mSession = mWorker.beginSession();
+
+        final FrameAdmissionScheduler scheduler = new FrameAdmissionScheduler();
+        mScheduler = scheduler;
+        registerThermalListener(scheduler);
+
+        final FrameMailbox mailbox = new FrameMailbox(mWorker, mSession, data -> {
+            scheduler.onComputeStarted(System.nanoTime());
+            try {
+                ServiceCallback callback = mCallback;
+                FrameDescriptor descriptor = mPipeline.getDescriptor();
+                if (callback == null || !mIsAuthenticating || descriptor == null) return;
+                callback.handlePreviewData(data, descriptor.width, descriptor.height);
+            } catch (Exception e) {
+                Log.e(TAG, "Auth loop error", e);
+            } finally {
+                scheduler.onComputeFinished(System.nanoTime());
+                mPipeline.recycle(data);
             }
-            @Override
-            public void onError(Exception e) {
-                Log.e(TAG, "Camera open exception", e);
-                if (mCallback != null) mCallback.onCameraError();
+        }, mPipeline::recycle);
+        mMailbox = mailbox;
+
+        final FramePipeline.Sink sink = frame -> {
+            if (scheduler.admit(System.nanoTime())) {
+                mailbox.offer(frame);
+            } else {
+                mPipeline.recycle(frame);
             }
-        });
-    }
-
-    private void setupCameraParameters(Camera camera) {
-        try {
-            Camera.Parameters params = camera.getParameters();
-            List<Camera.Size> supported = params.getSupportedPreviewSizes();
-            
-            Camera.Size bestSize = null;
-            int minDiff = Integer.MAX_VALUE;
-            
-            if (supported != null) {
-                for (Camera.Size size : supported) {
-                    if (size.width == 640 && size.height == 480) {
-                        bestSize = size;
-                        break;
+        };
+        mPipeline.start(new CameraBackend.SessionConfig(cameraId, null, dummySurface, null, false), sink,
+                new FramePipeline.Listener() {
+                    @Override
+                    public void onStarted(FrameDescriptor descriptor, PreviewSizePlanner.Plan plan) {
+                        Log.d(TAG, "Auth Preview Started (" + descriptor.width + "x" + descriptor.height + ")");
                     }
-                    int diff = Math.abs((size.width * size.height) - (640 * 480));
-                    if (diff < minDiff) {
-                        minDiff = diff;
-                        bestSize = size;
+
+                    @Override
+                    public void onError(Exception e) {
+                        Log.e(TAG, "Auth camera error", e);
+                        reportCameraError();
                     }
-                }
-            }
+                });
+    }
 
-            if (bestSize != null) {
-                mWidth = bestSize.width;
-                mHeight = bestSize.height;
-                params.setPreviewSize(mWidth, mHeight);
-                Log.i(TAG, "Requested Camera Size: " + mWidth + "x" + mHeight);
-            }
-            
-            params.setPreviewFormat(ImageFormat.NV21);
-            
-            camera.setParameters(params);
-            
+    /** Feeds the admission scheduler the native compare time of the frame being processed. */
+    public void recordCompare(long nanos) {
+        FrameAdmissionScheduler scheduler = mScheduler;
+        if (scheduler != null) scheduler.recordCompare(nanos);
+    }
+
+    /** True while the camera is open and either still coming up or delivering frames. */
+    public boolean isHealthy() {
+        if (!mIsAuthenticating || mCameraFailed) return false;
+        long sinceFrame = mPipeline.getMillisSinceLastFrame();
+        if (sinceFrame < 0) return mPipeline.getMillisSinceStart() < OPEN_GRACE_MS;
+        return mPipeline.isStreaming() && sinceFrame < FRAME_STALL_MS;
+    }
+
+    private void registerThermalListener(FrameAdmissionScheduler scheduler) {
+        PowerManager powerManager = mContext != null ? mContext.getSystemService(PowerManager.class) : null;
+        if (powerManager == null) return;
+        scheduler.setDutyCap(FrameAdmissionScheduler.dutyCapForThermalStatus(powerManager.getCurrentThermalStatus()));
+        PowerManager.OnThermalStatusChangedListener listener = status -> {
+            scheduler.setDutyCap(FrameAdmissionScheduler.dutyCapForThermalStatus(status));
+            Log.i(TAG, "Thermal status " + status + ", duty cap " + scheduler.getDutyCap());
+        };
+        try {
+            powerManager.addThermalStatusListener(mHandler::post, listener);
+            mThermalListener = listener;
         } catch (Exception e) {
-            Log.e(TAG, "Failed to set camera parameters", e);
+            Log.w(TAG, "Thermal status unavailable", e);
         }
     }
 
-    private void setupBufferedCallback(Camera camera) {
+    private void unregisterThermalListener() {
+        PowerManager.OnThermalStatusChangedListener listener = mThermalListener;
+        mThermalListener = null;
+        if (listener == null) return;
         try {
-            Camera.Parameters params = camera.getParameters();
-            Camera.Size size = params.getPreviewSize();
-            mWidth = size.width;
-            mHeight = size.height;
-
-            int format = params.getPreviewFormat();
-            int bitsPerPixel = ImageFormat.getBitsPerPixel(format);
-            int bufferSize = (mWidth * mHeight * bitsPerPixel) / 8;
-            camera.addCallbackBuffer(new byte[bufferSize]);
-            camera.addCallbackBuffer(new byte[bufferSize]);
-            camera.addCallbackBuffer(new byte[bufferSize]);
-
-            CameraService.setPreviewCallback((i, obj) -> {
-                if (!mIsAuthenticating || mCallback == null) return;
-                
-                if (obj instanceof byte[]) {
-                    final byte[] data = (byte[]) obj;
-                    
-                    if (mAuthHandler != null) {
-                        mAuthHandler.post(() -> {
-                            try {
-                                if (mCallback == null || !mIsAuthenticating) return;
-
-                                mCallback.handlePreviewData(data, mWidth, mHeight);
-                                
-                                if (mIsAuthenticating && camera != null) {
-                                    camera.addCallbackBuffer(data);
-                                }
-                            } catch (Exception e) {
-                                Log.e(TAG, "Auth loop error", e);
-                            }
-                        });
-                    }
-                }
-            }, true, null);
-
+            mContext.getSystemService(PowerManager.class).removeThermalStatusListener(listener);
         } catch (Exception e) {
-            Log.e(TAG, "Buffer Setup Failed", e);
-            if (mCallback != null) mCallback.onCameraError();
+            Log.w(TAG, "Failed to remove thermal listener", e);
         }
     }
 
+    private void reportCameraError() {
+        mCameraFailed = true;
+        ServiceCallback callback = mCallback;
+        if (callback != null) callback.onCameraError();
+    }
+
     public void stop() {
         Log.d(TAG, "Stopping Auth Camera");
         mIsAuthenticating = false;
         mCallback = null;
-        CameraService.closeCamera(null);
-        if (mAuthHandlerThread != null) {
-            mAuthHandlerThread.quitSafely();
-            mAuthHandlerThread = null;
+        mWorker.endSession(mSession);
+        FrameMailbox mailbox = mMailbox;
+        if (mailbox != null) {
+            mailbox.clear();
+            Log.d(TAG, "Frames processed=" + mailbox.getProcessedCount() + " dropped=" + mailbox.getDroppedCount());
         }
+        unregisterThermalListener();
+        FrameAdmissionScheduler scheduler = mScheduler;
+        if (scheduler != null) Log.d(TAG, "Admission " + scheduler);
+        long firstFrame = mPipeline.getFirstFrameLatencyMs();
+        if (firstFrame >= 0) Log.d(TAG, "First frame latency=" + firstFrame + "ms");
+        mPipeline.stop();
+    }
+
+    public long getProcessedFrames() {
+        FrameMailbox mailbox = mMailbox;
+        return mailbox != null ? mailbox.getProcessedCount() : 0;
+    }
+
+    public long getDroppedFrames() {
+        FrameMailbox mailbox = mMailbox;
+        return mailbox != null ? mailbox.getDroppedCount() : 0;
+    }
+
+    /** Admission decisions and throughput of the current or last session, for tuning. */
+    public FrameAdmissionScheduler getScheduler() {
+        return mScheduler;
     }
-}
\ No newline at end of file
+}
@@ -3,53 +3,32 @@ package ax.nd.faceunlock.camera;
 import android.content.Context;
 import android.hardware.Camera;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.util.Log;
 import android.view.Surface;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import ax.nd.faceunlock.camera.listeners.CameraListener;
-import ax.nd.faceunlock.camera.listeners.ErrorCallbackListener;
+import java.util.Collections;
 
 public class CameraFaceEnrollController {
     private static final String TAG = "CameraFaceEnrollController";
     private static CameraFaceEnrollController sInstance;
     private Context mContext;
     private Handler mHandler;
-    private HandlerThread mEnrollHandlerThread;
-    private Handler mEnrollHandler;
+    private FrameWorker mWorker;
+    private volatile int mSession;
+    private volatile FrameMailbox mMailbox;
+    private static final int CALLBACK_BUFFER_COUNT = 3;
+    private final FrameBufferPool mBufferPool = FrameBufferPool.getInstance();
+    private final FramePipeline mPipeline;
     private volatile CameraCallback mCallback;
     private volatile boolean mIsEnrolling = false;
-    private int mSrcWidth = 0;
-    private int mSrcHeight = 0;
+    private final FrameProfileStore mProfileStore;
     private final int mTargetWidth = 640;
     private final int mTargetHeight = 480;
-    private int mScaleFactor = 1;
     private byte[] mProcessedBuffer;
-
-    private static final List<ResolutionProfile> KNOWN_DEVICES = new ArrayList<>();
-
-    static {
-        KNOWN_DEVICES.add(new ResolutionProfile(2592, 1952, 4));
-        KNOWN_DEVICES.add(new ResolutionProfile(2592, 1940, 4));
-        KNOWN_DEVICES.add(new ResolutionProfile(2304, 1728, 3));
-        KNOWN_DEVICES.add(new ResolutionProfile(1920, 1080, 2));
-        KNOWN_DEVICES.add(new ResolutionProfile(1280,  720, 2));
-        KNOWN_DEVICES.add(new ResolutionProfile( 640,  480, 1));
-    }
-
-    private static class ResolutionProfile {
-        int width, height, scale;
-        long expectedBytes;
-
-        ResolutionProfile(int w, int h, int s) {
-            width = w; height = h; scale = s;
-            expectedBytes = (long)(w * h * 1.5);
-        }
-    }
+    private volatile NV21Resampler mResampler;
+    private static final int RESAMPLE_PARALLELISM =
+            Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2));
 
     public interface CameraCallback {
         int handleSaveFeature(byte[] data, int width, int height, int angle);
@@ -72,227 +51,105 @@ public class CameraFaceEnrollController {
     private CameraFaceEnrollController(Context context) {
         mContext = context;
         mHandler = new Handler(Looper.getMainLooper());
+        mProfileStore = new FrameProfileStore(context);
+        mPipeline = new FramePipeline(CameraBackend.create(context));
     }
 
-    public void start(CameraCallback callback, int cameraId, Surface previewSurface) {
+    public void start(CameraCallback callback, FrameWorker worker, int cameraId, Surface previewSurface) {
         if (mIsEnrolling) stop(null);
         mIsEnrolling = true;
         mCallback = callback;
-        mSrcWidth = 0;
-
-        mEnrollHandlerThread = new HandlerThread("face_enroll_thread");
-        mEnrollHandlerThread.start();
-        mEnrollHandler = new Handler(mEnrollHandlerThread.getLooper());
-
-        CameraService.openCamera(cameraId, new ErrorCallbackListener() {
-            @Override public void onEventCallback(int i, Object value) {
-                if (mCallback != null) mCallback.onCameraError();
-            }
-        }, new CameraListener() {
-            @Override public void onComplete(Object value) { startConfiguredPreview(previewSurface); }
-            @Override public void onError(Exception e) { if (mCallback != null) mCallback.onCameraError(); }
-        });
+        mWorker = worker;
+        mSession = worker.beginSession();
+        FrameDescriptor profile = mProfileStore.load(cameraId);
+        warmUp(profile);
+
+        final FrameMailbox mailbox = new FrameMailbox(worker, mSession, this::processFrame, mPipeline::recycle);
+        mMailbox = mailbox;
+        mPipeline.start(new CameraBackend.SessionConfig(cameraId, previewSurface, null, profile, true), mailbox::offer,
+                new FramePipeline.Listener() {
+                    @Override
+                    public void onStarted(FrameDescriptor descriptor, PreviewSizePlanner.Plan plan) {
+                        if (!descriptor.equals(mProfileStore.load(descriptor.cameraId))) mProfileStore.save(descriptor);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        Log.e(TAG, "Enroll camera error", e);
+                        CameraCallback callback = mCallback;
+                        if (callback != null) callback.onCameraError();
+                    }
+                });
     }
 
-    private void startConfiguredPreview(Surface surface) {
-        CameraService.configureAndStartPreview(surface, new CameraListener() {
-            @Override public void onComplete(Object value) { attachPreviewCallback(); }
-            @Override public void onError(Exception e) { if (mCallback != null) mCallback.onCameraError(); }
-        });
+    /** Sizes the pool and the resampler from the last known geometry while the camera opens. */
+    private void warmUp(FrameDescriptor profile) {
+        if (profile == null) return;
+        byte[][] buffers = new byte[CALLBACK_BUFFER_COUNT][];
+        for (int n = 0; n < CALLBACK_BUFFER_COUNT; n++) buffers[n] = mBufferPool.acquire(profile.byteSize);
+        for (byte[] buffer : buffers) mBufferPool.release(buffer);
+        resamplerFor(profile);
     }
 
-    private void attachPreviewCallback() {
-        CameraService.setPreviewCallback((i, obj) -> {
-            final CameraCallback callback = mCallback;
-            if (!mIsEnrolling || callback == null) return;
-
-            if (obj instanceof byte[]) {
-                final byte[] srcData = (byte[]) obj;
+    private void processFrame(byte[] srcData) {
+        final CameraCallback callback = mCallback;
+        try {
+            FrameDescriptor descriptor = mPipeline.getDescriptor();
+            if (callback == null || !mIsEnrolling || descriptor == null) return;
 
-                if (mSrcWidth == 0) detectSourceResolution(srcData.length);
-                if (mSrcWidth == 0) return;
-
-                if (mEnrollHandler != null) {
-                    mEnrollHandler.post(() -> {
-                        try {
-                            if (callback == null || mSrcWidth == 0) return;
-
-                            if (mProcessedBuffer == null) {
-                                mProcessedBuffer = new byte[mTargetWidth * mTargetHeight * 3 / 2];
-                            }
-
-                            if (mScaleFactor == 4) {
-                                downscale4xNV21(srcData, mSrcWidth, mSrcHeight, mProcessedBuffer, mTargetWidth, mTargetHeight);
-                            } else if (mScaleFactor == 3) {
-                                downscale3xNV21(srcData, mSrcWidth, mSrcHeight, mProcessedBuffer, mTargetWidth, mTargetHeight);
-                            } else if (mScaleFactor == 2) {
-                                downscale2xNV21(srcData, mSrcWidth, mSrcHeight, mProcessedBuffer, mTargetWidth, mTargetHeight);
-                            } else {
-                                cropNV21(srcData, mSrcWidth, mSrcHeight, mProcessedBuffer, mTargetWidth, mTargetHeight);
-                            }
-
-                            int res = callback.handleSaveFeature(mProcessedBuffer, mTargetWidth, mTargetHeight, 90);
-                            callback.handleSaveFeatureResult(res);
-
-                        } catch (Exception e) {
-                            Log.e(TAG, "Enroll processing error", e);
-                        }
-                    });
-                }
+            if (mProcessedBuffer == null) {
+                mProcessedBuffer = new byte[mTargetWidth * mTargetHeight * 3 / 2];
             }
-        }, false, null);
-    }
 
-    private void detectSourceResolution(int dataLength) {
-        for (ResolutionProfile profile : KNOWN_DEVICES) {
-            if (Math.abs(dataLength - profile.expectedBytes) < 2000) {
-                mSrcWidth = profile.width;
-                mSrcHeight = profile.height;
-                mScaleFactor = profile.scale;
-                Log.i(TAG, "Matched Profile: (" + mSrcWidth + "x" + mSrcHeight + ")");
-                return;
-            }
+            resamplerFor(descriptor).resample(srcData, mProcessedBuffer);
+        } catch (Exception e) {
+            Log.e(TAG, "Enroll downscale error", e);
+            return;
+        } finally {
+            // The source frame is no longer needed once downscaled; let the camera refill it
+            // while the engine runs.
+            mPipeline.recycle(srcData);
         }
 
-        int pixels = (int)(dataLength / 1.5);
-        int h = (int) Math.sqrt(pixels * 0.75);
-        int w = (int) (h * 1.3333333);
-
-        if (w % 2 != 0) w++;
-        if (h % 2 != 0) h++;
-
-        mSrcWidth = w;
-        mSrcHeight = h;
-
-        if (w >= 2300) mScaleFactor = 4;
-        else if (w >= 2000) mScaleFactor = 3;
-        else if (w >= 1200) mScaleFactor = 2;
-        else mScaleFactor = 1;
-
-        Log.w(TAG, "Unknown Device Detected! Estimated dimension: " + mSrcWidth + "x" + mSrcHeight + " Scale: " + mScaleFactor);
-    }
-
-    private void downscale4xNV21(byte[] src, int srcWidth, int srcHeight, byte[] dest, int dstWidth, int dstHeight) {
-        int scaledW = srcWidth / 4;
-        int scaledH = srcHeight / 4;
-        int xOffset = (scaledW - dstWidth) / 2;
-        int yOffset = (scaledH - dstHeight) / 2;
-        if (xOffset < 0) xOffset = 0;
-        if (yOffset < 0) yOffset = 0;
-
-        for (int y = 0; y < dstHeight; y++) {
-            int srcY = (y + yOffset) * 4;
-            if (srcY >= srcHeight) break;
-            for (int x = 0; x < dstWidth; x++) {
-                int srcX = (x + xOffset) * 4;
-                dest[y * dstWidth + x] = src[srcY * srcWidth + srcX];
-            }
-        }
-        int uvSrcStart = srcWidth * srcHeight;
-        int uvDstStart = dstWidth * dstHeight;
-        for (int y = 0; y < dstHeight / 2; y++) {
-            int srcY = (y + yOffset / 2) * 4;
-            if (srcY >= srcHeight / 2) break;
-            for (int x = 0; x < dstWidth; x += 2) {
-                int srcX = (x + xOffset / 2) * 4;
-                int srcIndex = uvSrcStart + srcY * srcWidth + srcX;
-                int dstIndex = uvDstStart + y * dstWidth + x;
-                dest[dstIndex] = src[srcIndex];
-                dest[dstIndex + 1] = src[srcIndex + 1];
-            }
-        }
-    }
-
-    private void downscale3xNV21(byte[] src, int srcWidth, int srcHeight, byte[] dest, int dstWidth, int dstHeight) {
-        int scaledW = srcWidth / 3;
-        int scaledH = srcHeight / 3;
-        int xOffset = (scaledW - dstWidth) / 2;
-        int yOffset = (scaledH - dstHeight) / 2;
-        if (xOffset < 0) xOffset = 0;
-        if (yOffset < 0) yOffset = 0;
-
-        // Y Plane
-        for (int y = 0; y < dstHeight; y++) {
-            int srcY = (y + yOffset) * 3;
-            if (srcY >= srcHeight) break;
-            for (int x = 0; x < dstWidth; x++) {
-                int srcX = (x + xOffset) * 3;
-                dest[y * dstWidth + x] = src[srcY * srcWidth + srcX];
-            }
-        }
-
-        // UV Plane
-        int uvSrcStart = srcWidth * srcHeight;
-        int uvDstStart = dstWidth * dstHeight;
-        for (int y = 0; y < dstHeight / 2; y++) {
-            int srcY = (y + yOffset / 2) * 3;
-            if (srcY >= srcHeight / 2) break;
-            for (int x = 0; x < dstWidth; x += 2) {
-                int srcX = (x + xOffset / 2) * 3;
-                int srcIndex = uvSrcStart + srcY * srcWidth + srcX;
-                int dstIndex = uvDstStart + y * dstWidth + x;
-                dest[dstIndex] = src[srcIndex];
-                dest[dstIndex + 1] = src[srcIndex + 1];
-            }
+        try {
+            int res = callback.handleSaveFeature(mProcessedBuffer, mTargetWidth, mTargetHeight, 90);
+            callback.handleSaveFeatureResult(res);
+        } catch (Exception e) {
+            Log.e(TAG, "Enroll processing error", e);
         }
     }
 
-    private void downscale2xNV21(byte[] src, int srcWidth, int srcHeight, byte[] dest, int dstWidth, int dstHeight) {
-        int scaledW = srcWidth / 2;
-        int scaledH = srcHeight / 2;
-        int xOffset = (scaledW - dstWidth) / 2;
-        int yOffset = (scaledH - dstHeight) / 2;
-        if (xOffset < 0) xOffset = 0;
-        if (yOffset < 0) yOffset = 0;
-
-        for (int y = 0; y < dstHeight; y++) {
-            int srcY = (y + yOffset) * 2;
-            if (srcY >= srcHeight) break;
-            for (int x = 0; x < dstWidth; x++) {
-                int srcX = (x + xOffset) * 2;
-                dest[y * dstWidth + x] = src[srcY * srcWidth + srcX];
-            }
-        }
-        int uvSrcStart = srcWidth * srcHeight;
-        int uvDstStart = dstWidth * dstHeight;
-        for (int y = 0; y < dstHeight / 2; y++) {
-            int srcY = (y + yOffset / 2) * 2;
-            if (srcY >= srcHeight / 2) break;
-            for (int x = 0; x < dstWidth; x += 2) {
-                int srcX = (x + xOffset / 2) * 2;
-                int srcIndex = uvSrcStart + srcY * srcWidth + srcX;
-                int dstIndex = uvDstStart + y * dstWidth + x;
-                dest[dstIndex] = src[srcIndex];
-                dest[dstIndex + 1] = src[srcIndex + 1];
-            }
-        }
-    }
-
-    private void cropNV21(byte[] src, int srcWidth, int srcHeight, byte[] dest, int dstWidth, int dstHeight) {
-        if (src.length < srcWidth * srcHeight * 3 / 2) return;
-        int xOffset = (srcWidth - dstWidth) / 2;
-        int yOffset = (srcHeight - dstHeight) / 2;
-        if (xOffset % 2 != 0) xOffset--;
-        if (yOffset % 2 != 0) yOffset--;
-
-        for (int i = 0; i < dstHeight; i++) {
-            System.arraycopy(src, (yOffset + i) * srcWidth + xOffset, dest, i * dstWidth, dstWidth);
+    /** Resamples the window the preview plan chose, or the full target-aspect frame without one. */
+    private NV21Resampler resamplerFor(FrameDescriptor descriptor) {
+        PreviewSizePlanner.Plan plan = mPipeline.getPlan();
+        if (plan == null || plan.size.width != descriptor.width || plan.size.height != descriptor.height) {
+            plan = new PreviewSizePlanner().plan(
+                    Collections.singletonList(new PreviewSizePlanner.Size(descriptor.width, descriptor.height)),
+                    new PreviewSizePlanner.Request(mTargetWidth, mTargetHeight, 1f, null));
         }
-        int uvSrcStart = srcWidth * srcHeight;
-        int uvDstStart = dstWidth * dstHeight;
-        for (int i = 0; i < dstHeight / 2; i++) {
-            System.arraycopy(src, uvSrcStart + (yOffset / 2 + i) * srcWidth + xOffset, dest, uvDstStart + i * dstWidth, dstWidth);
+        NV21Resampler.Geometry geometry = new NV21Resampler.Geometry(descriptor.width, descriptor.height,
+                plan.cropX, plan.cropY, plan.cropWidth, plan.cropHeight,
+                mTargetWidth, mTargetHeight, NV21Resampler.Filter.BOX);
+        int parallelism = plan.cropWidth >= 2 * mTargetWidth ? RESAMPLE_PARALLELISM : 1;
+        NV21Resampler resampler = mResampler;
+        if (resampler == null || !resampler.matches(geometry, parallelism)) {
+            resampler = new NV21Resampler(geometry, parallelism);
+            mResampler = resampler;
+            Log.i(TAG, "Resampling " + geometry + " on " + parallelism + " band(s)");
         }
+        return resampler;
     }
 
     public void stop(CameraCallback callback) {
         mIsEnrolling = false;
         mCallback = null;
-        CameraService.closeCamera(null);
-        if (mEnrollHandlerThread != null) {
-            mEnrollHandlerThread.quitSafely();
-            mEnrollHandlerThread = null;
+        if (mWorker != null) mWorker.endSession(mSession);
+        FrameMailbox mailbox = mMailbox;
+        if (mailbox != null) {
+            mailbox.clear();
+            Log.d(TAG, "Frames processed=" + mailbox.getProcessedCount() + " dropped=" + mailbox.getDroppedCount());
         }
-        mProcessedBuffer = null;
+        // The full-resolution buffers are not needed until the next enrollment.
+        mPipeline.stop().thenRun(mBufferPool::trim);
     }
 }
\ No newline at end of file
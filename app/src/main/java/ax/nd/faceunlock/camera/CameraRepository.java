@@ -5,6 +5,7 @@ import android.hardware.Camera;
 public class CameraRepository {
     private static CameraRepository sInstance;
     private final CameraData mCameraData = new CameraData();
+    private final CameraStateMachine mStateMachine = new CameraStateMachine();
 
     public static synchronized CameraRepository getInstance() {
         if (sInstance == null) {
@@ -17,10 +18,20 @@ public class CameraRepository {
         return mCameraData;
     }
 
+    public CameraStateMachine getStateMachine() {
+        return mStateMachine;
+    }
+
     public static class CameraData {
         public Camera mCamera;
         public int mCameraId;
         public Camera.CameraInfo mCameraInfo;
+        /** Read once per open and edited in place through ParameterDelta. */
         public Camera.Parameters mParameters;
+        public CameraCapabilities mCapabilities;
+        /** Geometry of the running preview; null while the camera is closed. */
+        public FrameDescriptor mFrameDescriptor;
+        /** Preview configuration chosen for the current session, if any. */
+        public PreviewSizePlanner.Plan mPreviewPlan;
     }
 }
\ No newline at end of file
@@ -13,6 +13,8 @@ import ax.nd.faceunlock.camera.CameraRepository;
 import ax.nd.faceunlock.camera.callables.*;
 import ax.nd.faceunlock.camera.listeners.*;
 
+import java.util.concurrent.CompletableFuture;
+
 public class CameraService {
     private static final int DEFAULT_MSG_TYPE = 1;
     private final Handler mServiceHandler;
@@ -41,15 +43,35 @@ public class CameraService {
         getInstance().addCallable(new OpenCameraCallable(i, errorCallbackListener, cameraListener));
     }
 
-    public static void closeCamera(CameraListener cameraListener) {
+    /**
+     * Queues a close behind nothing else: pending callables are dropped. Callables run in order on
+     * the service thread, so an open queued after this runs as soon as the release returns. The
+     * returned future completes on the transition to CLOSED.
+     */
+    public static CompletableFuture<CameraStateMachine.State> closeCamera(CameraListener cameraListener) {
+        CompletableFuture<CameraStateMachine.State> closed = awaitState(CameraStateMachine.State.CLOSED);
         getInstance().mServiceHandler.removeMessages(DEFAULT_MSG_TYPE);
         getInstance().addCallable(new CloseCameraCallable(cameraListener));
+        return closed;
+    }
+
+    public static CameraStateMachine.State getState() {
+        return CameraRepository.getInstance().getStateMachine().getState();
+    }
+
+    public static CompletableFuture<CameraStateMachine.State> awaitState(CameraStateMachine.State state) {
+        return CameraRepository.getInstance().getStateMachine().await(state);
     }
 
     public static void configureAndStartPreview(Surface surface, CameraListener cameraListener) {
         getInstance().addCallable(new ConfigureAndStartPreviewCallable(surface, cameraListener));
     }
 
+    public static void configureAndStartPreview(Surface surface, SurfaceTexture texture, boolean cropZoom,
+                                                CameraListener cameraListener) {
+        getInstance().addCallable(new ConfigureAndStartPreviewCallable(surface, texture, cropZoom, cameraListener));
+    }
+
     public static void startPreview(CameraListener cameraListener) {
         try {
             if (FaceAuthBridge.getInstance() != null) {
@@ -79,8 +101,8 @@ public class CameraService {
         getInstance().addCallable(new AddCallbackBufferCallable(bArr, cameraListener));
     }
 
-    public static void setPreviewCallback(ByteBufferCallbackListener byteBufferCallbackListener, boolean z, CameraListener cameraListener) {
-        getInstance().addCallable(new SetPreviewCallbackCallable(byteBufferCallbackListener, z, cameraListener));
+    public static void setPreviewCallback(PreviewFrameListener previewFrameListener, boolean z, CameraListener cameraListener) {
+        getInstance().addCallable(new SetPreviewCallbackCallable(previewFrameListener, z, cameraListener));
     }
 
     public static void setFaceDetectionCallback(Camera.FaceDetectionListener faceDetectionListener, CameraListener cameraListener) {
@@ -0,0 +1,79 @@
+package ax.nd.faceunlock.camera;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Lifecycle of the single Camera1 device. Transitions are driven by the callables on the
+ * CameraService thread; anyone waiting for a state gets a future that completes the moment the
+ * transition happens rather than after a guessed delay.
+ */
+public class CameraStateMachine {
+    private static final String TAG = "CameraStateMachine";
+
+    public enum State {
+        CLOSED,
+        OPENING,
+        OPEN,
+        PREVIEWING,
+        CLOSING
+    }
+
+    private State mState = State.CLOSED;
+    private final List<Waiter> mWaiters = new ArrayList<>();
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    public synchronized boolean isIn(State state) {
+        return mState == state;
+    }
+
+    public void moveTo(State state) {
+        List<CompletableFuture<State>> completed = null;
+        synchronized (this) {
+            if (mState == state) return;
+            Log.d(TAG, mState + " -> " + state);
+            mState = state;
+            Iterator<Waiter> it = mWaiters.iterator();
+            while (it.hasNext()) {
+                Waiter waiter = it.next();
+                if (waiter.target == state) {
+                    if (completed == null) completed = new ArrayList<>();
+                    completed.add(waiter.future);
+                    it.remove();
+                }
+            }
+        }
+        if (completed != null) {
+            for (CompletableFuture<State> future : completed) future.complete(state);
+        }
+    }
+
+    /** Completes immediately if already in {@code state}, otherwise on the next transition into it. */
+    public CompletableFuture<State> await(State state) {
+        synchronized (this) {
+            if (mState != state) {
+                CompletableFuture<State> future = new CompletableFuture<>();
+                mWaiters.add(new Waiter(state, future));
+                return future;
+            }
+        }
+        return CompletableFuture.completedFuture(state);
+    }
+
+    private static final class Waiter {
+        final State target;
+        final CompletableFuture<State> future;
+
+        Waiter(State target, CompletableFuture<State> future) {
+            this.target = target;
+            this.future = future;
+        }
+    }
+}
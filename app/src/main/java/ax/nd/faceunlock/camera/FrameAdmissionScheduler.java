@@ -0,0 +1,157 @@
+package ax.nd.faceunlock.camera;
+
+import android.os.PowerManager;
+
+import java.util.Locale;
+
+/**
+ * Decides which camera frames are worth handing to the engine. It keeps moving windows of compare
+ * latency and camera inter-frame time and admits a frame only if the engine will be free before
+ * the next one arrives, so the engine always works on the freshest frame and nothing queues behind
+ * it. A duty cap (from the thermal status) adds idle time after each compare. Only native compare
+ * time reported through {@link #recordCompare} feeds the latency window and the duty gap, so frames
+ * the quality gate or pre-screen reject cheaply do not skew either.
+ * All times are {@link System#nanoTime} nanoseconds passed in by the caller.
+ */
+public class FrameAdmissionScheduler {
+    private static final int WINDOW = 16;
+
+    private final long[] mLatencies = new long[WINDOW];
+    private final long[] mIntervals = new long[WINDOW];
+    private int mLatencyCount;
+    private int mIntervalCount;
+    private long mLatencySum;
+    private long mIntervalSum;
+
+    private float mDutyCap = 1f;
+    private boolean mBusy;
+    private long mComputeStart;
+    private long mComputeCompareNanos;
+    private long mNextAllowed;
+    private long mLastArrival;
+    private long mFirstArrival;
+    private long mLastFinish;
+
+    private long mArrived;
+    private long mAdmitted;
+    private long mDeferredBusy;
+    private long mDeferredDuty;
+    private long mCompleted;
+
+    /** Called for every camera frame; false means recycle it without queueing. */
+    public synchronized boolean admit(long now) {
+        mArrived++;
+        if (mLastArrival != 0) push(mIntervals, mIntervalCount++, now - mLastArrival, true);
+        else mFirstArrival = now;
+        mLastArrival = now;
+
+        if (mBusy) {
+            long latency = getLatencyEstimateNanos();
+            long interval = getFrameIntervalNanos();
+            // With a duty gap pending the frame would start too early; if the engine will still be
+            // busy when the next frame lands, that one is fresher.
+            if (mDutyCap < 1f || (latency > 0 && interval > 0 && mComputeStart + latency - now > interval)) {
+                mDeferredBusy++;
+                return false;
+            }
+        } else if (now < mNextAllowed) {
+            mDeferredDuty++;
+            return false;
+        }
+        mAdmitted++;
+        return true;
+    }
+
+    public synchronized void onComputeStarted(long now) {
+        mBusy = true;
+        mComputeStart = now;
+        mComputeCompareNanos = 0;
+    }
+
+    /** Time the engine spent in a native compare for the frame being processed. */
+    public synchronized void recordCompare(long latencyNanos) {
+        push(mLatencies, mLatencyCount++, latencyNanos, false);
+        mCompleted++;
+        mComputeCompareNanos += latencyNanos;
+    }
+
+    public synchronized void onComputeFinished(long now) {
+        mBusy = false;
+        if (mComputeCompareNanos == 0) return;
+        mLastFinish = now;
+        mNextAllowed = mDutyCap >= 1f ? now : now + (long) (mComputeCompareNanos * (1f / mDutyCap - 1f));
+    }
+
+    private void push(long[] window, int count, long value, boolean interval) {
+        int slot = count % WINDOW;
+        long evicted = count >= WINDOW ? window[slot] : 0;
+        window[slot] = value;
+        if (interval) mIntervalSum += value - evicted;
+        else mLatencySum += value - evicted;
+    }
+
+    /** Fraction of wall time the engine may be kept busy, in (0, 1]. */
+    public synchronized void setDutyCap(float dutyCap) {
+        mDutyCap = Math.max(0.05f, Math.min(1f, dutyCap));
+    }
+
+    public synchronized float getDutyCap() {
+        return mDutyCap;
+    }
+
+    /** Duty cap for a {@link PowerManager} thermal status. */
+    public static float dutyCapForThermalStatus(int status) {
+        switch (status) {
+            case PowerManager.THERMAL_STATUS_NONE:
+            case PowerManager.THERMAL_STATUS_LIGHT:
+                return 1f;
+            case PowerManager.THERMAL_STATUS_MODERATE:
+                return 0.6f;
+            case PowerManager.THERMAL_STATUS_SEVERE:
+                return 0.4f;
+            default:
+                return 0.25f;
+        }
+    }
+
+    public synchronized long getLatencyEstimateNanos() {
+        int n = Math.min(mLatencyCount, WINDOW);
+        return n == 0 ? 0 : mLatencySum / n;
+    }
+
+    public synchronized long getFrameIntervalNanos() {
+        int n = Math.min(mIntervalCount, WINDOW);
+        return n == 0 ? 0 : mIntervalSum / n;
+    }
+
+    /** Completed compares per second since the first frame. */
+    public synchronized float getThroughput() {
+        long span = mLastFinish - mFirstArrival;
+        return mCompleted == 0 || span <= 0 ? 0f : mCompleted * 1e9f / span;
+    }
+
+    public synchronized long getArrivedCount() {
+        return mArrived;
+    }
+
+    public synchronized long getAdmittedCount() {
+        return mAdmitted;
+    }
+
+    public synchronized long getDeferredCount() {
+        return mDeferredBusy + mDeferredDuty;
+    }
+
+    public synchronized long getCompletedCount() {
+        return mCompleted;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "arrived=" + mArrived + " admitted=" + mAdmitted + " deferred(busy=" + mDeferredBusy
+                + " duty=" + mDeferredDuty + ") completed=" + mCompleted
+                + " latency=" + getLatencyEstimateNanos() / 1000000 + "ms interval="
+                + getFrameIntervalNanos() / 1000000 + "ms duty=" + mDutyCap
+                + " throughput=" + String.format(Locale.US, "%.1f", getThroughput()) + "/s";
+    }
+}
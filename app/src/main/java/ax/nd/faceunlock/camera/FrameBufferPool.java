@@ -0,0 +1,134 @@
+package ax.nd.faceunlock.camera;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Preview callback buffers keyed by byte size and kept across sessions, so a full-resolution
+ * enrollment preview is allocated once per process instead of once per frame. Every buffer is
+ * either free, queued in the camera or held by a receiver; buffers still queued in the camera are
+ * reclaimed in bulk once it is closed, held ones only come back through {@link #release}.
+ */
+public class FrameBufferPool {
+    private static final int MAX_BUFFERS_PER_SIZE = 4;
+    private static final int FREE = 0;
+    private static final int QUEUED = 1;
+    private static final int HELD = 2;
+    private static FrameBufferPool sInstance;
+
+    private final List<Slab> mSlabs = new ArrayList<>();
+    private long mAllocations = 0;
+
+    public static synchronized FrameBufferPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new FrameBufferPool();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns a free buffer of exactly {@code size} bytes, held by the caller, or null once the
+     * per-size cap is hit.
+     */
+    public synchronized byte[] acquire(int size) {
+        Slab slab = slabFor(size);
+        byte[] buffer = slab.free.poll();
+        if (buffer == null && slab.all.size() < MAX_BUFFERS_PER_SIZE) {
+            buffer = new byte[size];
+            slab.all.add(buffer);
+            mAllocations++;
+        }
+        if (buffer != null) slab.state[slab.indexOf(buffer)] = HELD;
+        return buffer;
+    }
+
+    /** {@code buffer} was handed to the camera; it is reclaimed when the camera closes. */
+    public synchronized void queued(byte[] buffer) {
+        move(buffer, HELD, QUEUED);
+    }
+
+    /** The camera delivered {@code buffer}; it stays lent out until {@link #release}. */
+    public synchronized void delivered(byte[] buffer) {
+        move(buffer, QUEUED, HELD);
+    }
+
+    /** Returns a held buffer; foreign, free or camera-queued buffers are ignored. */
+    public synchronized void release(byte[] buffer) {
+        if (move(buffer, HELD, FREE)) slabFor(buffer.length).free.add(buffer);
+    }
+
+    /**
+     * Frees every buffer of {@code size} still queued in the camera. Only call once the camera has
+     * been released; buffers a receiver holds stay lent until they are released.
+     */
+    public synchronized void reclaim(int size) {
+        Slab slab = slabFor(size);
+        for (int i = 0; i < slab.all.size(); i++) {
+            if (slab.state[i] == QUEUED) {
+                slab.state[i] = FREE;
+                slab.free.add(slab.all.get(i));
+            }
+        }
+    }
+
+    /**
+     * Drops every free buffer, e.g. once enrollment's full-resolution preview is closed. Lent
+     * buffers stay tracked and return to the pool as usual.
+     */
+    public synchronized void trim() {
+        for (int s = mSlabs.size() - 1; s >= 0; s--) {
+            Slab slab = mSlabs.get(s);
+            int kept = 0;
+            for (int i = 0; i < slab.all.size(); i++) {
+                if (slab.state[i] == FREE) continue;
+                slab.all.set(kept, slab.all.get(i));
+                slab.state[kept++] = slab.state[i];
+            }
+            while (slab.all.size() > kept) slab.all.remove(slab.all.size() - 1);
+            slab.free.clear();
+            if (kept == 0) mSlabs.remove(s);
+        }
+    }
+
+    public synchronized long getAllocationCount() {
+        return mAllocations;
+    }
+
+    private boolean move(byte[] buffer, int from, int to) {
+        if (buffer == null) return false;
+        Slab slab = slabFor(buffer.length);
+        int index = slab.indexOf(buffer);
+        if (index < 0 || slab.state[index] != from) return false;
+        slab.state[index] = to;
+        return true;
+    }
+
+    private Slab slabFor(int size) {
+        for (int i = 0; i < mSlabs.size(); i++) {
+            Slab slab = mSlabs.get(i);
+            if (slab.size == size) return slab;
+        }
+        Slab slab = new Slab(size);
+        mSlabs.add(slab);
+        return slab;
+    }
+
+    private static final class Slab {
+        final int size;
+        final List<byte[]> all = new ArrayList<>();
+        final int[] state = new int[MAX_BUFFERS_PER_SIZE];
+        final ArrayDeque<byte[]> free = new ArrayDeque<>();
+
+        Slab(int size) {
+            this.size = size;
+        }
+
+        int indexOf(byte[] buffer) {
+            for (int i = 0; i < all.size(); i++) {
+                if (all.get(i) == buffer) return i;
+            }
+            return -1;
+        }
+    }
+}
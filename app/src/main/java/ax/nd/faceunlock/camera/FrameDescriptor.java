@@ -0,0 +1,82 @@
+package ax.nd.faceunlock.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.util.Log;
+
+/**
+ * Geometry of the preview frames a camera actually delivers, as confirmed by Camera.Parameters
+ * after the preview is configured. Frames are interpreted with this rather than guessed from
+ * their byte length.
+ */
+public class FrameDescriptor {
+    private static final String TAG = "FrameDescriptor";
+
+    public final int cameraId;
+    public final int width;
+    public final int height;
+    public final int format;
+    public final int byteSize;
+
+    public FrameDescriptor(int cameraId, int width, int height, int format) {
+        this.cameraId = cameraId;
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        int bits = ImageFormat.getBitsPerPixel(format);
+        this.byteSize = bits > 0 ? width * height * bits / 8 : width * height * 3 / 2;
+    }
+
+    /** Reads the negotiated preview size and format, or returns null if they cannot be read. */
+    public static FrameDescriptor from(int cameraId, Camera.Parameters params) {
+        if (params == null) return null;
+        try {
+            Camera.Size size = params.getPreviewSize();
+            if (size == null || size.width <= 0 || size.height <= 0) return null;
+            return new FrameDescriptor(cameraId, size.width, size.height, params.getPreviewFormat());
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to read preview geometry", e);
+            return null;
+        }
+    }
+
+    /** True if {@code data} holds a whole frame of this geometry. */
+    public boolean fits(byte[] data) {
+        return data != null && data.length >= byteSize;
+    }
+
+    public String encode() {
+        return width + "x" + height + ":" + format;
+    }
+
+    public static FrameDescriptor decode(int cameraId, String value) {
+        if (value == null) return null;
+        try {
+            int x = value.indexOf('x');
+            int colon = value.indexOf(':');
+            return new FrameDescriptor(cameraId, Integer.parseInt(value.substring(0, x)),
+                    Integer.parseInt(value.substring(x + 1, colon)), Integer.parseInt(value.substring(colon + 1)));
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Discarding malformed frame profile: " + value);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FrameDescriptor)) return false;
+        FrameDescriptor d = (FrameDescriptor) o;
+        return cameraId == d.cameraId && width == d.width && height == d.height && format == d.format;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((cameraId * 31 + width) * 31 + height) * 31 + format;
+    }
+
+    @Override
+    public String toString() {
+        return "camera" + cameraId + " " + width + "x" + height + " fmt=" + format;
+    }
+}
@@ -0,0 +1,83 @@
+package ax.nd.faceunlock.camera;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Single-slot, latest-frame-wins handoff from the preview callback to the FrameWorker. A frame
+ * that is replaced before the engine gets to it is handed straight back to the recycler, so at
+ * most one frame waits while another is being processed and the frame-to-result latency is
+ * bounded by one engine call.
+ */
+public class FrameMailbox {
+    /** Takes ownership of {@code frame} and must hand it to the recycler once done with it. */
+    public interface Consumer {
+        void onFrame(byte[] frame);
+    }
+
+    public interface Recycler {
+        void recycle(byte[] frame);
+    }
+
+    private final AtomicReference<byte[]> mSlot = new AtomicReference<>();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mProcessed = new AtomicLong();
+    private final FrameWorker mWorker;
+    private final int mSession;
+    private final Consumer mConsumer;
+    private final Recycler mRecycler;
+    private final Runnable mDrainTask = this::drain;
+
+    public FrameMailbox(FrameWorker worker, int session, Consumer consumer, Recycler recycler) {
+        mWorker = worker;
+        mSession = session;
+        mConsumer = consumer;
+        mRecycler = recycler;
+    }
+
+    /** Called from the camera thread. Never blocks. */
+    public void offer(byte[] frame) {
+        if (!mWorker.isActive(mSession)) {
+            mDropped.incrementAndGet();
+            mRecycler.recycle(frame);
+            return;
+        }
+        byte[] stale = mSlot.getAndSet(frame);
+        if (stale != null) {
+            // A drain is already queued and will pick up the new frame.
+            mDropped.incrementAndGet();
+            mRecycler.recycle(stale);
+        } else {
+            mWorker.execute(mDrainTask);
+        }
+    }
+
+    /** Drops whatever is waiting in the slot, e.g. on cancellation. */
+    public void clear() {
+        byte[] pending = mSlot.getAndSet(null);
+        if (pending != null) {
+            mDropped.incrementAndGet();
+            mRecycler.recycle(pending);
+        }
+    }
+
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    public long getProcessedCount() {
+        return mProcessed.get();
+    }
+
+    private void drain() {
+        byte[] frame = mSlot.getAndSet(null);
+        if (frame == null) return;
+        if (!mWorker.isActive(mSession)) {
+            mDropped.incrementAndGet();
+            mRecycler.recycle(frame);
+            return;
+        }
+        mProcessed.incrementAndGet();
+        mConsumer.onFrame(frame);
+    }
+}
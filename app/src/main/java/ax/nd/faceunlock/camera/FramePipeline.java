@@ -0,0 +1,145 @@
+package ax.nd.faceunlock.camera;
+
+import android.util.Log;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Common path from any {@link CameraBackend} to a frame sink: frames that do not match the
+ * negotiated geometry or arrive after stop are handed straight back, and open-to-first-frame
+ * latency and frame liveness are tracked the same way for every backend.
+ */
+public class FramePipeline implements CameraBackend.Callback {
+    private static final String TAG = "FramePipeline";
+
+    /** Takes ownership of {@code frame}; it must come back through {@link #recycle}. */
+    public interface Sink {
+        void offer(byte[] frame);
+    }
+
+    public interface Listener {
+        void onStarted(FrameDescriptor descriptor, PreviewSizePlanner.Plan plan);
+
+        void onError(Exception e);
+    }
+
+    private final CameraBackend mBackend;
+    private final AtomicLong mFrames = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+    private volatile Sink mSink;
+    private volatile Listener mListener;
+    private volatile FrameDescriptor mDescriptor;
+    private volatile PreviewSizePlanner.Plan mPlan;
+    private volatile boolean mRunning;
+    private volatile long mOpenNanos;
+    private volatile long mFirstFrameNanos;
+    private volatile long mLastFrameNanos;
+    private volatile long mLastTimestampNanos;
+
+    public FramePipeline(CameraBackend backend) {
+        mBackend = backend;
+    }
+
+    public void start(CameraBackend.SessionConfig config, Sink sink, Listener listener) {
+        mSink = sink;
+        mListener = listener;
+        mDescriptor = null;
+        mPlan = null;
+        mFirstFrameNanos = 0;
+        mLastFrameNanos = 0;
+        mOpenNanos = System.nanoTime();
+        mRunning = true;
+        mBackend.open(config, this);
+    }
+
+    public CompletableFuture<Void> stop() {
+        mRunning = false;
+        return mBackend.close();
+    }
+
+    public void recycle(byte[] frame) {
+        mBackend.recycle(frame);
+    }
+
+    @Override
+    public void onStarted(FrameDescriptor descriptor, PreviewSizePlanner.Plan plan) {
+        mDescriptor = descriptor;
+        mPlan = plan;
+        Log.i(TAG, "Streaming " + descriptor + " after " + (System.nanoTime() - mOpenNanos) / 1000000 + "ms");
+        Listener listener = mListener;
+        if (listener != null) listener.onStarted(descriptor, plan);
+    }
+
+    @Override
+    public void onFrame(byte[] frame, long timestampNanos) {
+        FrameDescriptor descriptor = mDescriptor;
+        Sink sink = mSink;
+        if (!mRunning || sink == null) {
+            mBackend.recycle(frame);
+            return;
+        }
+        if (descriptor == null || !descriptor.fits(frame)) {
+            if (mRejected.incrementAndGet() == 1) {
+                Log.w(TAG, "Dropping frame of " + frame.length + " bytes, expected " + descriptor);
+            }
+            mBackend.recycle(frame);
+            return;
+        }
+        long now = System.nanoTime();
+        if (mFirstFrameNanos == 0) {
+            mFirstFrameNanos = now;
+            Log.i(TAG, "First frame " + (now - mOpenNanos) / 1000000 + "ms after open");
+        }
+        mLastFrameNanos = now;
+        mLastTimestampNanos = timestampNanos;
+        mFrames.incrementAndGet();
+        sink.offer(frame);
+    }
+
+    @Override
+    public void onError(Exception e) {
+        Listener listener = mListener;
+        if (mRunning && listener != null) listener.onError(e);
+    }
+
+    public boolean isStreaming() {
+        return mRunning && mBackend.isStreaming();
+    }
+
+    public FrameDescriptor getDescriptor() {
+        return mDescriptor;
+    }
+
+    public PreviewSizePlanner.Plan getPlan() {
+        return mPlan;
+    }
+
+    /** Milliseconds from open to the first accepted frame, or -1 before it arrives. */
+    public long getFirstFrameLatencyMs() {
+        long first = mFirstFrameNanos;
+        return first == 0 ? -1 : (first - mOpenNanos) / 1000000;
+    }
+
+    /** Milliseconds since the last accepted frame, or -1 if none arrived yet. */
+    public long getMillisSinceLastFrame() {
+        long last = mLastFrameNanos;
+        return last == 0 ? -1 : (System.nanoTime() - last) / 1000000;
+    }
+
+    public long getMillisSinceStart() {
+        return (System.nanoTime() - mOpenNanos) / 1000000;
+    }
+
+    public long getLastTimestampNanos() {
+        return mLastTimestampNanos;
+    }
+
+    public long getFrameCount() {
+        return mFrames.get();
+    }
+
+    public long getRejectedCount() {
+        return mRejected.get();
+    }
+}
@@ -0,0 +1,36 @@
+package ax.nd.faceunlock.camera;
+
+import android.content.Context;
+import android.util.Log;
+
+import ax.nd.faceunlock.util.SharedUtil;
+
+/** Last negotiated preview geometry per camera id, so buffers can be sized before the camera opens. */
+public class FrameProfileStore {
+    private static final String TAG = "FrameProfileStore";
+    private static final String KEY_PREFIX = "frame_profile_";
+
+    private final SharedUtil mSharedUtil;
+
+    public FrameProfileStore(Context context) {
+        mSharedUtil = new SharedUtil(context);
+    }
+
+    public FrameDescriptor load(int cameraId) {
+        try {
+            return FrameDescriptor.decode(cameraId, mSharedUtil.getStringValueByKey(KEY_PREFIX + cameraId));
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to load frame profile for camera " + cameraId, e);
+            return null;
+        }
+    }
+
+    public void save(FrameDescriptor descriptor) {
+        try {
+            mSharedUtil.saveStringValue(KEY_PREFIX + descriptor.cameraId, descriptor.encode());
+            Log.i(TAG, "Learned frame profile " + descriptor);
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to persist frame profile " + descriptor, e);
+        }
+    }
+}
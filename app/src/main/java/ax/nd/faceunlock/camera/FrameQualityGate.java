@@ -0,0 +1,182 @@
+package ax.nd.faceunlock.camera;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cheap exposure and sharpness check on a subsampled Y plane, run before the native compare so
+ * frames the engine would only answer with DARKLIGHT/HIGHLIGHT/FACE_BLUR never reach it.
+ * Not thread-safe apart from the counters; call {@link #evaluate} from the frame thread.
+ */
+public class FrameQualityGate {
+    private static final String TAG = "FrameQualityGate";
+    private static final int CLIP_LOW = 8;
+    private static final int CLIP_HIGH = 247;
+
+    public static final int PASS = 0;
+    public static final int TOO_DARK = 1;
+    public static final int TOO_BRIGHT = 2;
+    public static final int BLURRY = 3;
+
+    public static final class Thresholds {
+        public static final Thresholds DEFAULT = new Thresholds(40, 225, 0.6f, 12f, 4);
+
+        public final int minMeanLuma;
+        public final int maxMeanLuma;
+        /** Largest share of samples allowed at either end of the range. */
+        public final float maxClippedRatio;
+        /** Minimum variance of the 4-neighbour Laplacian; 0 disables the blur check. */
+        public final float minSharpness;
+        /** Sample every {@code step}-th pixel in both directions. */
+        public final int step;
+
+        public Thresholds(int minMeanLuma, int maxMeanLuma, float maxClippedRatio, float minSharpness, int step) {
+            this.minMeanLuma = minMeanLuma;
+            this.maxMeanLuma = maxMeanLuma;
+            this.maxClippedRatio = maxClippedRatio;
+            this.minSharpness = minSharpness;
+            this.step = Math.max(1, step);
+        }
+
+        public String encode() {
+            return minMeanLuma + "," + maxMeanLuma + "," + maxClippedRatio + "," + minSharpness + "," + step;
+        }
+
+        /** Falls back to {@link #DEFAULT} for a missing or malformed value. */
+        public static Thresholds decode(String value) {
+            if (value == null || value.isEmpty()) return DEFAULT;
+            try {
+                String[] parts = value.split(",");
+                return new Thresholds(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                        Float.parseFloat(parts[2].trim()), Float.parseFloat(parts[3].trim()),
+                        Integer.parseInt(parts[4].trim()));
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Discarding malformed thresholds: " + value);
+                return DEFAULT;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "luma=[" + minMeanLuma + "," + maxMeanLuma + "] clipped<=" + maxClippedRatio
+                    + " sharpness>=" + minSharpness + " step=" + step;
+        }
+    }
+
+    private final Thresholds mThresholds;
+    private final AtomicLong mEvaluated = new AtomicLong();
+    private final AtomicLong mTooDark = new AtomicLong();
+    private final AtomicLong mTooBright = new AtomicLong();
+    private final AtomicLong mBlurry = new AtomicLong();
+    private float mMeanLuma;
+    private float mClippedRatio;
+    private float mSharpness;
+    private float mCentreOffset;
+
+    public FrameQualityGate(Thresholds thresholds) {
+        mThresholds = thresholds != null ? thresholds : Thresholds.DEFAULT;
+    }
+
+    /** Returns {@link #PASS} or the reason the frame is not worth a native compare. */
+    public int evaluate(byte[] nv21, int width, int height) {
+        mEvaluated.incrementAndGet();
+        Thresholds t = mThresholds;
+        int step = t.step;
+        long sum = 0;
+        int dark = 0;
+        int bright = 0;
+        long lapSum = 0;
+        long lapSq = 0;
+        long energy = 0;
+        long energyX = 0;
+        long energyY = 0;
+        int samples = 0;
+        for (int y = 1; y < height - 1; y += step) {
+            int row = y * width;
+            for (int x = 1; x < width - 1; x += step) {
+                int i = row + x;
+                int c = nv21[i] & 0xff;
+                sum += c;
+                if (c <= CLIP_LOW) dark++;
+                else if (c >= CLIP_HIGH) bright++;
+                int lap = 4 * c - (nv21[i - 1] & 0xff) - (nv21[i + 1] & 0xff)
+                        - (nv21[i - width] & 0xff) - (nv21[i + width] & 0xff);
+                lapSum += lap;
+                lapSq += lap * lap;
+                int e = lap < 0 ? -lap : lap;
+                energy += e;
+                energyX += (long) e * x;
+                energyY += (long) e * y;
+                samples++;
+            }
+        }
+        if (samples == 0) return PASS;
+
+        float mean = (float) sum / samples;
+        float lapMean = (float) lapSum / samples;
+        mMeanLuma = mean;
+        mClippedRatio = (float) (dark + bright) / samples;
+        mSharpness = (float) lapSq / samples - lapMean * lapMean;
+        if (energy > 0) {
+            float dx = Math.abs((float) energyX / energy - width / 2f) / (width / 2f);
+            float dy = Math.abs((float) energyY / energy - height / 2f) / (height / 2f);
+            mCentreOffset = Math.max(dx, dy);
+        } else {
+            mCentreOffset = 1f;
+        }
+
+        if (mean < t.minMeanLuma || (float) dark / samples > t.maxClippedRatio) {
+            mTooDark.incrementAndGet();
+            return TOO_DARK;
+        }
+        if (mean > t.maxMeanLuma || (float) bright / samples > t.maxClippedRatio) {
+            mTooBright.incrementAndGet();
+            return TOO_BRIGHT;
+        }
+        if (mSharpness < t.minSharpness) {
+            mBlurry.incrementAndGet();
+            return BLURRY;
+        }
+        return PASS;
+    }
+
+    public Thresholds getThresholds() {
+        return mThresholds;
+    }
+
+    public float getLastMeanLuma() {
+        return mMeanLuma;
+    }
+
+    public float getLastClippedRatio() {
+        return mClippedRatio;
+    }
+
+    public float getLastSharpness() {
+        return mSharpness;
+    }
+
+    /**
+     * How far the centroid of edge energy, a stand-in for where the face is, sits from the frame
+     * centre: 0 when centred, 1 at the border.
+     */
+    public float getLastCentreOffset() {
+        return mCentreOffset;
+    }
+
+    public long getEvaluatedCount() {
+        return mEvaluated.get();
+    }
+
+    /** Native compares skipped because the frame failed the gate. */
+    public long getAvoidedCount() {
+        return mTooDark.get() + mTooBright.get() + mBlurry.get();
+    }
+
+    @Override
+    public String toString() {
+        return "evaluated=" + mEvaluated.get() + " avoided=" + getAvoidedCount() + " (dark=" + mTooDark.get()
+                + " bright=" + mTooBright.get() + " blurry=" + mBlurry.get() + ")";
+    }
+}
@@ -0,0 +1,189 @@
+package ax.nd.faceunlock.camera;
+
+import android.content.Context;
+import android.os.PerformanceHintManager;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.function.IntSupplier;
+
+/**
+ * Raises the frame thread's priority by a bounded step and opens an ADPF hint session for the
+ * length of one auth session, reporting each compare's duration against a per-frame target so the
+ * governor, not the scheduler priority, ramps the cores that run it. Compare latency is tracked separately for boosted and plain sessions,
+ * including the first compare of each session, so the two can be compared in diagnostics.
+ */
+public class FrameThreadBoost {
+    private static final String TAG = "FrameThreadBoost";
+    public static final long DEFAULT_TARGET_NANOS = 33333333L;
+    /** Display priority, below the UI's render and input threads, which run at urgent display. */
+    private static final int BOOST_PRIORITY = Process.THREAD_PRIORITY_DISPLAY;
+
+    /** Thread priority and ADPF calls; tests supply one without the framework. */
+    interface Platform {
+        int getThreadPriority(int tid);
+
+        void setThreadPriority(int tid, int priority);
+
+        /** A hint session for {@code tid}, or null if the device has none. */
+        HintSession createHintSession(int tid, long targetNanos);
+    }
+
+    interface HintSession {
+        void reportActualWorkDuration(long nanos);
+
+        void close();
+    }
+
+    private static final class SystemPlatform implements Platform {
+        private final Context mContext;
+
+        SystemPlatform(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        public int getThreadPriority(int tid) {
+            return Process.getThreadPriority(tid);
+        }
+
+        @Override
+        public void setThreadPriority(int tid, int priority) {
+            Process.setThreadPriority(tid, priority);
+        }
+
+        @Override
+        public HintSession createHintSession(int tid, long targetNanos) {
+            PerformanceHintManager manager = mContext.getSystemService(PerformanceHintManager.class);
+            if (manager == null) return null;
+            PerformanceHintManager.Session session = manager.createHintSession(new int[]{tid}, targetNanos);
+            if (session == null) return null;
+            return new HintSession() {
+                @Override
+                public void reportActualWorkDuration(long nanos) {
+                    session.reportActualWorkDuration(nanos);
+                }
+
+                @Override
+                public void close() {
+                    session.close();
+                }
+            };
+        }
+    }
+
+    private static final class Stats {
+        long sessions;
+        long frames;
+        long totalNanos;
+        long firstFrames;
+        long firstTotalNanos;
+
+        String describe(String label) {
+            if (sessions == 0) return label + ": no sessions";
+            return String.format(Locale.US, "%s: sessions=%d frames=%d mean=%.1fms first=%.1fms", label, sessions,
+                    frames, frames == 0 ? 0 : totalNanos / 1e6 / frames,
+                    firstFrames == 0 ? 0 : firstTotalNanos / 1e6 / firstFrames);
+        }
+    }
+
+    private final IntSupplier mThreadId;
+    private final Platform mPlatform;
+    private final long mTargetNanos;
+    private final Stats mPlain = new Stats();
+    private final Stats mBoosted = new Stats();
+    private HintSession mHintSession;
+    private int mBoostedTid;
+    private int mSavedPriority;
+    private boolean mActive;
+    private boolean mBoost;
+    private boolean mFirstFrame;
+
+    public FrameThreadBoost(Context context, FrameWorker worker, long targetNanos) {
+        this(worker::getThreadId, new SystemPlatform(context), targetNanos);
+    }
+
+    FrameThreadBoost(IntSupplier threadId, Platform platform, long targetNanos) {
+        mThreadId = threadId;
+        mPlatform = platform;
+        mTargetNanos = targetNanos;
+    }
+
+    /** Starts an auth session; {@code boost} false only records plain latency. */
+    public synchronized void begin(boolean boost) {
+        if (mActive) end();
+        mActive = true;
+        mBoost = boost;
+        mFirstFrame = true;
+        (boost ? mBoosted : mPlain).sessions++;
+        if (!boost) return;
+        int tid = mThreadId.getAsInt();
+        if (tid <= 0) return;
+        try {
+            mSavedPriority = mPlatform.getThreadPriority(tid);
+            // Never lowers a thread that already runs above the boost.
+            mPlatform.setThreadPriority(tid, Math.min(mSavedPriority, BOOST_PRIORITY));
+            mBoostedTid = tid;
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to raise frame thread priority", e);
+        }
+        try {
+            mHintSession = mPlatform.createHintSession(tid, mTargetNanos);
+        } catch (Exception e) {
+            Log.w(TAG, "Hint session unavailable", e);
+        }
+    }
+
+    /** Engine time of one compare in the current session. Frame thread. */
+    public synchronized void reportWork(long nanos) {
+        if (!mActive || nanos <= 0) return;
+        Stats stats = mBoost ? mBoosted : mPlain;
+        stats.frames++;
+        stats.totalNanos += nanos;
+        if (mFirstFrame) {
+            mFirstFrame = false;
+            stats.firstFrames++;
+            stats.firstTotalNanos += nanos;
+        }
+        HintSession session = mHintSession;
+        if (session != null) {
+            try {
+                session.reportActualWorkDuration(nanos);
+            } catch (Exception e) {
+                Log.w(TAG, "Dropping hint session", e);
+                closeHintSession();
+            }
+        }
+    }
+
+    /** Ends the session: restores the thread priority and closes the hint session. */
+    public synchronized void end() {
+        if (!mActive) return;
+        mActive = false;
+        if (mBoostedTid > 0) {
+            try {
+                mPlatform.setThreadPriority(mBoostedTid, mSavedPriority);
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to restore frame thread priority", e);
+            }
+            mBoostedTid = 0;
+        }
+        closeHintSession();
+    }
+
+    private void closeHintSession() {
+        HintSession session = mHintSession;
+        mHintSession = null;
+        if (session != null) session.close();
+    }
+
+    public synchronized boolean isBoosting() {
+        return mActive && mBoost;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mPlain.describe("plain") + ", " + mBoosted.describe("boosted");
+    }
+}
@@ -0,0 +1,90 @@
+package ax.nd.faceunlock.camera;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived thread that runs engine work for auth and enroll sessions. Each session gets a
+ * token; work posted under a token that is no longer active is dropped before it reaches the
+ * native engine, so nothing from a stopped session runs after stop.
+ */
+public class FrameWorker {
+    private static final String TAG = "FrameWorker";
+    private static final int NO_SESSION = 0;
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Executor mExecutor;
+    private final AtomicInteger mSessionSeq = new AtomicInteger();
+    private final AtomicInteger mActiveSession = new AtomicInteger(NO_SESSION);
+    private final AtomicLong mRejected = new AtomicLong();
+
+    public FrameWorker(String name) {
+        mThread = new HandlerThread(name);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mExecutor = mHandler::post;
+    }
+
+    /** Runs work on {@code executor} instead of a thread of its own; for tests. */
+    FrameWorker(Executor executor) {
+        mThread = null;
+        mHandler = null;
+        mExecutor = executor;
+    }
+
+    public int beginSession() {
+        int session = mSessionSeq.incrementAndGet();
+        if (session == NO_SESSION) session = mSessionSeq.incrementAndGet();
+        int previous = mActiveSession.getAndSet(session);
+        if (previous != NO_SESSION) Log.d(TAG, "Session " + previous + " superseded by " + session);
+        return session;
+    }
+
+    public void endSession(int session) {
+        mActiveSession.compareAndSet(session, NO_SESSION);
+    }
+
+    public boolean isActive(int session) {
+        return session != NO_SESSION && mActiveSession.get() == session;
+    }
+
+    /** Runs {@code work} on the worker thread if {@code session} is still active by then. */
+    public boolean post(final int session, final Runnable work) {
+        if (!isActive(session)) {
+            mRejected.incrementAndGet();
+            return false;
+        }
+        mExecutor.execute(() -> {
+            if (isActive(session)) {
+                work.run();
+            } else {
+                mRejected.incrementAndGet();
+            }
+        });
+        return true;
+    }
+
+    /** Runs {@code task} on the worker thread without a session check; the caller checks. */
+    void execute(Runnable task) {
+        mExecutor.execute(task);
+    }
+
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    /** Kernel tid of the worker thread, or 0 without one. */
+    public int getThreadId() {
+        return mThread != null ? mThread.getThreadId() : 0;
+    }
+
+    public long getRejectedCount() {
+        return mRejected.get();
+    }
+}
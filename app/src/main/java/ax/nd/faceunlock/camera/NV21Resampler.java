@@ -0,0 +1,338 @@
+package ax.nd.faceunlock.camera;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Crops and resamples an NV21 frame to an arbitrary destination size. Per-axis source indices and
+ * 8.8 fixed-point weights are computed once per geometry and shared between instances; an
+ * instance only owns its row scratch, so keep one per thread. Y and the interleaved VU plane are
+ * filtered separably: source rows are first summed vertically across the crop width (a straight
+ * streaming loop), then each output row is filtered horizontally from that column buffer.
+ */
+public class NV21Resampler {
+    public enum Filter {
+        /** Top-left sample of each source cell; matches the old integer-ratio kernels, with VU kept on the luma grid. */
+        NEAREST,
+        /** Area average over the exact (possibly fractional) source footprint. */
+        BOX,
+        BILINEAR
+    }
+
+    private static final int WEIGHT_BITS = 8;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+    private static final int ROUND = 1 << (2 * WEIGHT_BITS - 1);
+    private static final ConcurrentHashMap<Geometry, Tables> sTables = new ConcurrentHashMap<>();
+    private static ExecutorService sExecutor;
+
+    private final Geometry mGeometry;
+    private final Tables mTables;
+    private final Band[] mBands;
+
+    public NV21Resampler(int srcWidth, int srcHeight, int cropX, int cropY, int cropWidth, int cropHeight,
+                         int dstWidth, int dstHeight, Filter filter) {
+        this(new Geometry(srcWidth, srcHeight, cropX, cropY, cropWidth, cropHeight, dstWidth, dstHeight, filter), 1);
+    }
+
+    public NV21Resampler(Geometry geometry, int parallelism) {
+        mGeometry = geometry;
+        mTables = sTables.computeIfAbsent(geometry, Tables::new);
+        int bands = Math.max(1, Math.min(parallelism, geometry.dstHeight / 2));
+        mBands = new Band[bands];
+        int chromaRows = geometry.dstHeight / 2;
+        for (int b = 0; b < bands; b++) {
+            mBands[b] = new Band(this,
+                    b * geometry.dstHeight / bands, (b + 1) * geometry.dstHeight / bands,
+                    b * chromaRows / bands, (b + 1) * chromaRows / bands);
+        }
+    }
+
+    /** Centered crop of {@code cropWidth x cropHeight} (clamped to the source, aligned to 2). */
+    public static Geometry centerCrop(int srcWidth, int srcHeight, int cropWidth, int cropHeight,
+                                      int dstWidth, int dstHeight, Filter filter) {
+        int w = Math.min(cropWidth, srcWidth) & ~1;
+        int h = Math.min(cropHeight, srcHeight) & ~1;
+        int x = ((srcWidth - w) / 2) & ~1;
+        int y = ((srcHeight - h) / 2) & ~1;
+        return new Geometry(srcWidth, srcHeight, x, y, w, h, dstWidth, dstHeight, filter);
+    }
+
+    public boolean matches(Geometry geometry, int parallelism) {
+        return mGeometry.equals(geometry) && mBands.length == Math.max(1, Math.min(parallelism, geometry.dstHeight / 2));
+    }
+
+    public Geometry getGeometry() {
+        return mGeometry;
+    }
+
+    public void resample(byte[] src, byte[] dst) {
+        if (mBands.length == 1) {
+            mBands[0].run(src, dst);
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(mBands.length - 1);
+        ExecutorService executor = executor(mBands.length - 1);
+        for (int b = 1; b < mBands.length; b++) {
+            final Band band = mBands[b];
+            executor.execute(() -> {
+                try {
+                    band.run(src, dst);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        mBands[0].run(src, dst);
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static synchronized ExecutorService executor(int threads) {
+        if (sExecutor == null) {
+            int n = Math.max(threads, Runtime.getRuntime().availableProcessors() - 1);
+            sExecutor = Executors.newFixedThreadPool(Math.max(1, n), r -> {
+                Thread t = new Thread(r, "nv21_resample");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return sExecutor;
+    }
+
+    private static final class Band {
+        private final NV21Resampler mOwner;
+        private final int mRowStart;
+        private final int mRowEnd;
+        private final int mChromaRowStart;
+        private final int mChromaRowEnd;
+        /** Vertically weighted sums of the crop window's columns for the current output row. */
+        private final int[] mColumns;
+
+        Band(NV21Resampler owner, int rowStart, int rowEnd, int chromaRowStart, int chromaRowEnd) {
+            mOwner = owner;
+            mRowStart = rowStart;
+            mRowEnd = rowEnd;
+            mChromaRowStart = chromaRowStart;
+            mChromaRowEnd = chromaRowEnd;
+            mColumns = new int[owner.mGeometry.cropWidth];
+        }
+
+        void run(byte[] src, byte[] dst) {
+            Geometry g = mOwner.mGeometry;
+            Tables t = mOwner.mTables;
+            int dstW = g.dstWidth;
+
+            for (int y = mRowStart; y < mRowEnd; y++) {
+                accumulateRows(src, g.cropX, g.srcWidth, t.yV, y);
+                filterLuma(t.yH, dst, y * dstW, dstW);
+            }
+
+            int srcChroma = g.srcWidth * g.srcHeight + g.cropX;
+            int dstChroma = dstW * g.dstHeight;
+            for (int y = mChromaRowStart; y < mChromaRowEnd; y++) {
+                accumulateRows(src, srcChroma, g.srcWidth, t.cV, y);
+                filterChroma(t.cH, dst, dstChroma + y * dstW, dstW);
+            }
+        }
+
+        /** Weighted sum of the source rows feeding output row {@code y}, over the crop columns. */
+        private void accumulateRows(byte[] src, int base, int stride, Axis v, int y) {
+            int[] cols = mColumns;
+            int n = cols.length;
+            int w = y * v.taps;
+            int off = base + v.start[y] * stride;
+            int wy = v.weight[w];
+            for (int x = 0; x < n; x++) cols[x] = wy * (src[off + x] & 0xFF);
+            for (int k = 1; k < v.count[y]; k++) {
+                off += stride;
+                wy = v.weight[w + k];
+                for (int x = 0; x < n; x++) cols[x] += wy * (src[off + x] & 0xFF);
+            }
+        }
+
+        private void filterLuma(Axis h, byte[] dst, int out, int dstW) {
+            int[] cols = mColumns;
+            int[] start = h.start;
+            int[] count = h.count;
+            int[] weight = h.weight;
+            int taps = h.taps;
+            for (int x = 0, w = 0; x < dstW; x++, w += taps) {
+                int s = start[x];
+                int sum = ROUND;
+                for (int k = 0; k < count[x]; k++) sum += weight[w + k] * cols[s + k];
+                dst[out + x] = (byte) (sum >> (2 * WEIGHT_BITS));
+            }
+        }
+
+        private void filterChroma(Axis h, byte[] dst, int out, int dstW) {
+            int[] cols = mColumns;
+            int[] start = h.start;
+            int[] count = h.count;
+            int[] weight = h.weight;
+            int taps = h.taps;
+            for (int x = 0, w = 0; x < dstW; x += 2, w += taps) {
+                int s = 2 * start[x >> 1];
+                int v = ROUND;
+                int u = ROUND;
+                for (int k = 0; k < count[x >> 1]; k++) {
+                    int wk = weight[w + k];
+                    v += wk * cols[s + 2 * k];
+                    u += wk * cols[s + 2 * k + 1];
+                }
+                dst[out + x] = (byte) (v >> (2 * WEIGHT_BITS));
+                dst[out + x + 1] = (byte) (u >> (2 * WEIGHT_BITS));
+            }
+        }
+    }
+
+    /** Immutable per-geometry index/weight tables. */
+    private static final class Tables {
+        final Axis yH;
+        final Axis yV;
+        final Axis cH;
+        final Axis cV;
+
+        Tables(Geometry g) {
+            // Horizontal indices are relative to the crop window, vertical ones are absolute rows.
+            yH = new Axis(0, g.cropWidth, g.dstWidth, g.filter);
+            yV = new Axis(g.cropY, g.cropHeight, g.dstHeight, g.filter);
+            cH = new Axis(0, g.cropWidth / 2, g.dstWidth / 2, g.filter);
+            cV = new Axis(g.cropY / 2, g.cropHeight / 2, g.dstHeight / 2, g.filter);
+        }
+    }
+
+    private static final class Axis {
+        final int taps;
+        final int[] start;
+        final int[] count;
+        final int[] weight;
+
+        Axis(int srcStart, int srcLength, int dstLength, Filter filter) {
+            double scale = (double) srcLength / dstLength;
+            switch (filter) {
+                case NEAREST: taps = 1; break;
+                case BILINEAR: taps = 2; break;
+                default: taps = (int) Math.ceil(scale) + 1; break;
+            }
+            start = new int[dstLength];
+            count = new int[dstLength];
+            weight = new int[dstLength * taps];
+            double[] w = new double[taps];
+
+            for (int i = 0; i < dstLength; i++) {
+                int first;
+                int n;
+                if (filter == Filter.NEAREST) {
+                    first = (int) ((long) i * srcLength / dstLength);
+                    n = 1;
+                    w[0] = 1.0;
+                } else if (filter == Filter.BILINEAR) {
+                    double center = (i + 0.5) * scale - 0.5;
+                    first = (int) Math.floor(center);
+                    double frac = center - first;
+                    if (first < 0) {
+                        first = 0;
+                        frac = 0;
+                    }
+                    if (first >= srcLength - 1) {
+                        first = srcLength - 1;
+                        frac = 0;
+                    }
+                    n = frac > 0 ? 2 : 1;
+                    w[0] = 1.0 - frac;
+                    w[1] = frac;
+                } else {
+                    double a = i * scale;
+                    double b = Math.min((i + 1) * scale, srcLength);
+                    first = (int) Math.floor(a);
+                    int last = Math.max(first, (int) Math.ceil(b) - 1);
+                    n = Math.min(taps, last - first + 1);
+                    for (int k = 0; k < n; k++) {
+                        int p = first + k;
+                        w[k] = (Math.min(b, p + 1) - Math.max(a, p)) / (b - a);
+                    }
+                }
+                start[i] = srcStart + first;
+                count[i] = n;
+                quantize(w, n, weight, i * taps);
+            }
+        }
+
+        /** Rounds weights to 8.8 fixed point, forcing them to sum to exactly one. */
+        private static void quantize(double[] w, int n, int[] out, int offset) {
+            int sum = 0;
+            int largest = 0;
+            for (int k = 0; k < n; k++) {
+                out[offset + k] = (int) Math.round(w[k] * WEIGHT_ONE);
+                sum += out[offset + k];
+                if (out[offset + k] > out[offset + largest]) largest = k;
+            }
+            out[offset + largest] += WEIGHT_ONE - sum;
+        }
+    }
+
+    public static final class Geometry {
+        public final int srcWidth;
+        public final int srcHeight;
+        public final int cropX;
+        public final int cropY;
+        public final int cropWidth;
+        public final int cropHeight;
+        public final int dstWidth;
+        public final int dstHeight;
+        public final Filter filter;
+
+        public Geometry(int srcWidth, int srcHeight, int cropX, int cropY, int cropWidth, int cropHeight,
+                        int dstWidth, int dstHeight, Filter filter) {
+            if (cropX < 0 || cropY < 0 || cropX + cropWidth > srcWidth || cropY + cropHeight > srcHeight) {
+                throw new IllegalArgumentException("Crop window outside source frame");
+            }
+            if (((cropX | cropY | cropWidth | cropHeight | dstWidth | dstHeight) & 1) != 0 || dstWidth <= 0 || dstHeight <= 0) {
+                throw new IllegalArgumentException("NV21 geometry must be even and non-empty");
+            }
+            this.srcWidth = srcWidth;
+            this.srcHeight = srcHeight;
+            this.cropX = cropX;
+            this.cropY = cropY;
+            this.cropWidth = cropWidth;
+            this.cropHeight = cropHeight;
+            this.dstWidth = dstWidth;
+            this.dstHeight = dstHeight;
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Geometry)) return false;
+            Geometry g = (Geometry) o;
+            return srcWidth == g.srcWidth && srcHeight == g.srcHeight && cropX == g.cropX && cropY == g.cropY
+                    && cropWidth == g.cropWidth && cropHeight == g.cropHeight && dstWidth == g.dstWidth
+                    && dstHeight == g.dstHeight && filter == g.filter;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = srcWidth;
+            h = 31 * h + srcHeight;
+            h = 31 * h + cropX;
+            h = 31 * h + cropY;
+            h = 31 * h + cropWidth;
+            h = 31 * h + cropHeight;
+            h = 31 * h + dstWidth;
+            h = 31 * h + dstHeight;
+            return 31 * h + filter.ordinal();
+        }
+
+        @Override
+        public String toString() {
+            return srcWidth + "x" + srcHeight + " [" + cropX + "," + cropY + " " + cropWidth + "x" + cropHeight
+                    + "] -> " + dstWidth + "x" + dstHeight + " " + filter;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ax.nd.faceunlock.camera;
+
+import android.hardware.Camera;
+import android.util.Log;
+
+/**
+ * Edits the session's cached Camera.Parameters and only pushes them to the camera when a value
+ * actually changed. The cached object stays the source of truth afterwards, so nothing has to be
+ * read back from the camera.
+ */
+public class ParameterDelta {
+    private static final String TAG = "ParameterDelta";
+
+    private final Camera.Parameters mParams;
+    private final StringBuilder mChanges = new StringBuilder();
+
+    public ParameterDelta(Camera.Parameters params) {
+        mParams = params;
+    }
+
+    public ParameterDelta previewSize(int width, int height) {
+        Camera.Size current = mParams.getPreviewSize();
+        if (current == null || current.width != width || current.height != height) {
+            mParams.setPreviewSize(width, height);
+            mChanges.append(" size=").append(width).append('x').append(height);
+        }
+        return this;
+    }
+
+    public ParameterDelta previewFormat(int format) {
+        if (mParams.getPreviewFormat() != format) {
+            mParams.setPreviewFormat(format);
+            mChanges.append(" format=").append(format);
+        }
+        return this;
+    }
+
+    public ParameterDelta zoom(CameraCapabilities caps, int zoom) {
+        if (caps != null && caps.zoomSupported && mParams.getZoom() != zoom) {
+            mParams.setZoom(zoom);
+            mChanges.append(" zoom=").append(zoom);
+        }
+        return this;
+    }
+
+    public ParameterDelta plan(CameraCapabilities caps, PreviewSizePlanner.Plan plan) {
+        if (plan == null) return this;
+        return previewSize(plan.size.width, plan.size.height).zoom(caps, plan.zoomIndex);
+    }
+
+    /** Calls setParameters if anything changed; returns whether it did. */
+    public boolean commit(Camera camera) {
+        if (mChanges.length() == 0) return false;
+        camera.setParameters(mParams);
+        Log.d(TAG, "setParameters:" + mChanges);
+        return true;
+    }
+}
@@ -0,0 +1,225 @@
+package ax.nd.faceunlock.camera;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Picks the preview size and zoom for both auth and enroll. Every supported size is scored with
+ * an explicit cost model: bytes the camera pushes per frame, pixels lost to an aspect-ratio crop,
+ * software resampling work down to the engine size, field of view that has to be cropped in
+ * software because the hardware zoom cannot reach it, and a steep penalty for upscaling. The
+ * cheapest plan wins; {@link #evaluate} returns all of them for inspection.
+ */
+public class PreviewSizePlanner {
+    private static final String TAG = "PreviewSizePlanner";
+
+    public static final int ENGINE_WIDTH = 640;
+    public static final int ENGINE_HEIGHT = 480;
+
+    private final CostModel mModel;
+
+    public PreviewSizePlanner() {
+        this(CostModel.DEFAULT);
+    }
+
+    public PreviewSizePlanner(CostModel model) {
+        mModel = model;
+    }
+
+    public static class CostModel {
+        public static final CostModel DEFAULT = new CostModel(1.0, 2.0, 0.5, 1.0, 8.0);
+
+        /** Per unit of frame size, relative to the engine frame. */
+        public final double bandwidthWeight;
+        /** Per fraction of the frame discarded to reach the target aspect ratio. */
+        public final double aspectWeight;
+        /** Per extra engine-sized frame of pixels the resampler has to read. */
+        public final double downscaleWeight;
+        /** Per fraction of the frame discarded to emulate zoom in software. */
+        public final double zoomCropWeight;
+        /** Per unit of upscaling needed to reach the engine size. */
+        public final double upscaleWeight;
+
+        public CostModel(double bandwidthWeight, double aspectWeight, double downscaleWeight,
+                         double zoomCropWeight, double upscaleWeight) {
+            this.bandwidthWeight = bandwidthWeight;
+            this.aspectWeight = aspectWeight;
+            this.downscaleWeight = downscaleWeight;
+            this.zoomCropWeight = zoomCropWeight;
+            this.upscaleWeight = upscaleWeight;
+        }
+    }
+
+    public static class Size {
+        public final int width;
+        public final int height;
+
+        public Size(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height;
+        }
+    }
+
+    public static class Request {
+        public final int targetWidth;
+        public final int targetHeight;
+        /** Field-of-view reduction wanted, 1.0 for none. */
+        public final float zoom;
+        /** Hardware zoom ratios in percent, as reported by Camera.Parameters; null if unsupported. */
+        public final List<Integer> zoomRatios;
+
+        public Request(int targetWidth, int targetHeight, float zoom, List<Integer> zoomRatios) {
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+            this.zoom = Math.max(1f, zoom);
+            this.zoomRatios = zoomRatios;
+        }
+    }
+
+    public static class Cost {
+        public final double bandwidth;
+        public final double aspect;
+        public final double downscale;
+        public final double zoomCrop;
+        public final double upscale;
+        public final double total;
+
+        Cost(CostModel m, double bandwidth, double aspect, double downscale, double zoomCrop, double upscale) {
+            this.bandwidth = bandwidth;
+            this.aspect = aspect;
+            this.downscale = downscale;
+            this.zoomCrop = zoomCrop;
+            this.upscale = upscale;
+            this.total = m.bandwidthWeight * bandwidth + m.aspectWeight * aspect + m.downscaleWeight * downscale
+                    + m.zoomCropWeight * zoomCrop + m.upscaleWeight * upscale;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(java.util.Locale.US, "total=%.3f bw=%.3f aspect=%.3f downscale=%.3f zoomCrop=%.3f upscale=%.3f",
+                    total, bandwidth, aspect, downscale, zoomCrop, upscale);
+        }
+    }
+
+    public static class Plan {
+        public final Size size;
+        /** Index into the zoom ratio table, or 0 when zoom is unsupported. */
+        public final int zoomIndex;
+        /** Zoom the ISP applies, 1.0 for none. */
+        public final float hardwareZoom;
+        /** Remaining zoom the resampler has to emulate by cropping, 1.0 for none. */
+        public final float softwareZoom;
+        /** Window of the preview frame that is resampled down to the target. */
+        public final int cropX;
+        public final int cropY;
+        public final int cropWidth;
+        public final int cropHeight;
+        public final Cost cost;
+
+        Plan(Size size, int zoomIndex, float hardwareZoom, float softwareZoom,
+             int cropX, int cropY, int cropWidth, int cropHeight, Cost cost) {
+            this.size = size;
+            this.zoomIndex = zoomIndex;
+            this.hardwareZoom = hardwareZoom;
+            this.softwareZoom = softwareZoom;
+            this.cropX = cropX;
+            this.cropY = cropY;
+            this.cropWidth = cropWidth;
+            this.cropHeight = cropHeight;
+            this.cost = cost;
+        }
+
+        @Override
+        public String toString() {
+            return size + " zoom=" + hardwareZoom + "(#" + zoomIndex + ")*" + softwareZoom
+                    + " crop=" + cropWidth + "x" + cropHeight + "@" + cropX + "," + cropY + " " + cost;
+        }
+    }
+
+    /** All candidates, cheapest first. */
+    public List<Plan> evaluate(List<Size> sizes, Request request) {
+        List<Plan> plans = new ArrayList<>();
+        if (sizes == null) return plans;
+        int zoomIndex = hardwareZoomIndex(request);
+        float hardwareZoom = request.zoomRatios != null && !request.zoomRatios.isEmpty()
+                ? request.zoomRatios.get(zoomIndex) / 100f : 1f;
+        float softwareZoom = Math.max(1f, request.zoom / hardwareZoom);
+        for (Size size : sizes) {
+            if (size.width <= 0 || size.height <= 0) continue;
+            plans.add(score(size, zoomIndex, hardwareZoom, softwareZoom, request));
+        }
+        Collections.sort(plans, (a, b) -> Double.compare(a.cost.total, b.cost.total));
+        return plans;
+    }
+
+    public Plan plan(List<Size> sizes, Request request) {
+        List<Plan> plans = evaluate(sizes, request);
+        return plans.isEmpty() ? null : plans.get(0);
+    }
+
+    /**
+     * Plans for the engine target. With {@code cropZoom} the enroll path's crop-zoom of a tenth of
+     * the zoom range is requested; auth streams the full field of view.
+     */
+    public Plan plan(CameraCapabilities caps, boolean cropZoom) {
+        List<Integer> ratios = null;
+        float zoom = 1f;
+        if (caps.zoomSupported && !caps.zoomRatios.isEmpty()) {
+            ratios = caps.zoomRatios;
+            if (cropZoom) zoom = ratios.get(Math.min(caps.maxZoom / 10, ratios.size() - 1)) / 100f;
+        }
+        Plan plan = plan(caps.previewSizes, new Request(ENGINE_WIDTH, ENGINE_HEIGHT, zoom, ratios));
+        if (plan != null) Log.i(TAG, "Preview plan: " + plan);
+        return plan;
+    }
+
+    private Plan score(Size size, int zoomIndex, float hardwareZoom, float softwareZoom, Request request) {
+        int tw = request.targetWidth;
+        int th = request.targetHeight;
+        long targetPixels = (long) tw * th;
+
+        // Largest window with the target aspect ratio, then shrunk by the software zoom.
+        int aw = size.width;
+        int ah = size.height;
+        if ((long) size.width * th > (long) size.height * tw) {
+            aw = (int) ((long) size.height * tw / th);
+        } else {
+            ah = (int) ((long) size.width * th / tw);
+        }
+        int cw = Math.max(2, (int) (aw / softwareZoom) & ~1);
+        int ch = Math.max(2, (int) (ah / softwareZoom) & ~1);
+        int cx = ((size.width - cw) / 2) & ~1;
+        int cy = ((size.height - ch) / 2) & ~1;
+
+        double framePixels = (double) size.width * size.height;
+        double bandwidth = framePixels / targetPixels;
+        double aspect = 1.0 - (double) aw * ah / framePixels;
+        double zoomCrop = 1.0 - 1.0 / (softwareZoom * softwareZoom);
+        double cropRatio = Math.min((double) cw / tw, (double) ch / th);
+        double downscale = cropRatio >= 1 ? (double) cw * ch / targetPixels - 1.0 : 0;
+        double upscale = cropRatio < 1 ? 1.0 / cropRatio - 1.0 : 0;
+
+        Cost cost = new Cost(mModel, bandwidth, aspect, downscale, zoomCrop, upscale);
+        return new Plan(size, zoomIndex, hardwareZoom, softwareZoom, cx, cy, cw, ch, cost);
+    }
+
+    /** Largest hardware zoom step that does not exceed the requested zoom. */
+    private static int hardwareZoomIndex(Request request) {
+        List<Integer> ratios = request.zoomRatios;
+        if (ratios == null || ratios.isEmpty()) return 0;
+        int wanted = Math.round(request.zoom * 100);
+        int best = 0;
+        for (int i = 0; i < ratios.size(); i++) {
+            if (ratios.get(i) <= wanted) best = i;
+        }
+        return best;
+    }
+}
@@ -1,10 +1,15 @@
 package ax.nd.faceunlock.camera.callables;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.ref.WeakReference;
+import android.hardware.Camera;
 import android.os.Handler;
 import android.os.Looper;
+import android.view.Surface;
 import ax.nd.faceunlock.camera.CameraRepository;
+import ax.nd.faceunlock.camera.CameraStateMachine;
 import ax.nd.faceunlock.camera.listeners.CameraListener;
+import ax.nd.faceunlock.util.MethodHandleCache;
 
 public abstract class CameraCallable implements Runnable {
     protected WeakReference<CameraListener> mCameraListener;
@@ -17,6 +22,10 @@ public abstract class CameraCallable implements Runnable {
         return CameraRepository.getInstance().getCameraData();
     }
 
+    public void moveTo(CameraStateMachine.State state) {
+        CameraRepository.getInstance().getStateMachine().moveTo(state);
+    }
+
     public CameraListener getCameraListener() {
         return this.mCameraListener.get();
     }
@@ -25,6 +34,20 @@ public abstract class CameraCallable implements Runnable {
         new Handler(Looper.getMainLooper()).post(runnable);
     }
     
+    protected static void setPreviewSurface(Camera camera, Surface surface) throws Exception {
+        MethodHandle setPreviewSurface = MethodHandleCache.findVirtual(Camera.class, "setPreviewSurface", Surface.class);
+        if (setPreviewSurface == null) {
+            throw new NoSuchMethodException("Camera.setPreviewSurface(Surface)");
+        }
+        try {
+            setPreviewSurface.invokeExact(camera, surface);
+        } catch (Exception e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
     @Override
     public abstract void run();
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package ax.nd.faceunlock.camera.callables;
 
 import ax.nd.faceunlock.camera.CameraRepository;
+import ax.nd.faceunlock.camera.CameraStateMachine;
 import ax.nd.faceunlock.camera.listeners.CameraListener;
 import android.hardware.Camera;
 
@@ -14,6 +15,7 @@ public class CloseCameraCallable extends CameraCallable {
     public void run() {
         CameraRepository.CameraData cameraData = getCameraData();
         if (cameraData.mCamera != null) {
+            moveTo(CameraStateMachine.State.CLOSING);
             try {
                 cameraData.mCamera.setPreviewCallback(null);
                 cameraData.mCamera.stopPreview();
@@ -24,6 +26,9 @@ public class CloseCameraCallable extends CameraCallable {
                 cameraData.mCamera = null;
             }
         }
+        cameraData.mFrameDescriptor = null;
+        cameraData.mParameters = null;
+        moveTo(CameraStateMachine.State.CLOSED);
         
         if (getCameraListener() != null) {
             CameraCallable.runOnUiThread(() -> getCameraListener().onComplete(null));
@@ -1,22 +1,33 @@
 package ax.nd.faceunlock.camera.callables;
 
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.view.Surface;
 import android.util.Log;
-import java.lang.reflect.Method;
-import java.util.Collections;
-import java.util.List;
-import java.util.Comparator;
 import ax.nd.faceunlock.camera.CameraRepository;
+import ax.nd.faceunlock.camera.CameraStateMachine;
+import ax.nd.faceunlock.camera.FrameDescriptor;
+import ax.nd.faceunlock.camera.ParameterDelta;
+import ax.nd.faceunlock.camera.PreviewSizePlanner;
 import ax.nd.faceunlock.camera.listeners.CameraListener;
 
 public class ConfigureAndStartPreviewCallable extends CameraCallable {
     private static final String TAG = "ConfigStartCallable";
     private final Surface mSurface;
+    private final SurfaceTexture mTexture;
+    private final boolean mCropZoom;
 
     public ConfigureAndStartPreviewCallable(Surface surface, CameraListener cameraListener) {
+        this(surface, null, true, cameraListener);
+    }
+
+    public ConfigureAndStartPreviewCallable(Surface surface, SurfaceTexture texture, boolean cropZoom,
+                                            CameraListener cameraListener) {
         super(cameraListener);
         mSurface = surface;
+        mTexture = texture;
+        mCropZoom = cropZoom;
     }
 
     @Override
@@ -39,37 +50,39 @@ public class ConfigureAndStartPreviewCallable extends CameraCallable {
             }
 
             try {
-                Camera.Parameters params = camera.getParameters();
-                Camera.Size bestSize = findBestSize(params);
-                if (bestSize != null) {
-                    Log.d(TAG, "Setting Preview Size (Native): " + bestSize.width + "x" + bestSize.height);
-                    params.setPreviewSize(bestSize.width, bestSize.height);
-                }
-
-                if (params.isZoomSupported()) {
-                    int maxZoom = params.getMaxZoom();
-                    int targetZoom = maxZoom / 10;
-                    params.setZoom(targetZoom);
-                    Log.i(TAG, "Applying Crop-Zoom: " + targetZoom + "/" + maxZoom);
+                CameraRepository.CameraData data = getCameraData();
+                if (data.mParameters == null) data.mParameters = camera.getParameters();
+                PreviewSizePlanner.Plan plan = data.mCapabilities != null
+                        ? new PreviewSizePlanner().plan(data.mCapabilities, mCropZoom) : null;
+                data.mPreviewPlan = plan;
+                try {
+                    new ParameterDelta(data.mParameters)
+                            .plan(data.mCapabilities, plan)
+                            .previewFormat(ImageFormat.NV21)
+                            .commit(camera);
+                } catch (RuntimeException e) {
+                    // The cached copy no longer matches the camera; resync it.
+                    data.mParameters = camera.getParameters();
+                    throw e;
                 }
-
-                camera.setParameters(params);
-                getCameraData().mParameters = camera.getParameters();
+                data.mFrameDescriptor = FrameDescriptor.from(data.mCameraId, data.mParameters);
             } catch (Exception e) {
                 Log.e(TAG, "Failed to configure parameters", e);
             }
 
             if (mSurface != null) {
                 try {
-                    Method setPreviewSurface = camera.getClass().getMethod("setPreviewSurface", Surface.class);
-                    setPreviewSurface.invoke(camera, mSurface);
+                    setPreviewSurface(camera, mSurface);
                     Log.d(TAG, "setPreviewSurface(Surface) called successfully");
                 } catch (Exception e) {
                     Log.e(TAG, "Failed to call setPreviewSurface (Reflection)", e);
                 }
+            } else if (mTexture != null) {
+                camera.setPreviewTexture(mTexture);
             }
 
             camera.startPreview();
+            moveTo(CameraStateMachine.State.PREVIEWING);
             Log.d(TAG, "startPreview() called");
 
             if (getCameraListener() != null) {
@@ -84,18 +97,4 @@ public class ConfigureAndStartPreviewCallable extends CameraCallable {
             }
         }
     }
-
-    private Camera.Size findBestSize(Camera.Parameters params) {
-        List<Camera.Size> sizes = params.getSupportedPreviewSizes();
-        if (sizes == null) return null;
-
-        Collections.sort(sizes, new Comparator<Camera.Size>() {
-            @Override
-            public int compare(Camera.Size a, Camera.Size b) {
-                return (b.width * b.height) - (a.width * a.height);
-            }
-        });
-
-        return sizes.get(0);
-    }
 }
\ No newline at end of file
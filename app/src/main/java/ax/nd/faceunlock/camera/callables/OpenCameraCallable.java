@@ -3,7 +3,10 @@ package ax.nd.faceunlock.camera.callables;
 import android.hardware.Camera;
 import android.util.Log;
 
+import ax.nd.faceunlock.camera.CameraCapabilities;
+import ax.nd.faceunlock.camera.CameraCapabilityStore;
 import ax.nd.faceunlock.camera.CameraRepository;
+import ax.nd.faceunlock.camera.CameraStateMachine;
 import ax.nd.faceunlock.camera.listeners.CameraListener;
 import ax.nd.faceunlock.camera.listeners.ErrorCallbackListener;
 
@@ -23,23 +26,42 @@ public class OpenCameraCallable extends CameraCallable {
             CameraRepository.CameraData cameraData = getCameraData();
             
             if (cameraData.mCamera != null) {
+                Log.w("OpenCameraCallable", "Camera still held on open, releasing it first");
+                moveTo(CameraStateMachine.State.CLOSING);
                 cameraData.mCamera.release();
                 cameraData.mCamera = null;
             }
 
+            cameraData.mFrameDescriptor = null;
+            cameraData.mPreviewPlan = null;
+            moveTo(CameraStateMachine.State.OPENING);
             cameraData.mCamera = Camera.open(mCameraId);
             cameraData.mCameraId = mCameraId;
+            moveTo(CameraStateMachine.State.OPEN);
             
             if (cameraData.mCameraInfo == null) {
                 cameraData.mCameraInfo = new Camera.CameraInfo();
             }
-            Camera.getCameraInfo(mCameraId, cameraData.mCameraInfo);
+            CameraCapabilities caps = CameraCapabilityStore.getInstance().get(mCameraId);
+            if (caps != null) {
+                caps.fillCameraInfo(cameraData.mCameraInfo);
+            } else {
+                Camera.getCameraInfo(mCameraId, cameraData.mCameraInfo);
+            }
+            // The only getParameters() of the session; everything after edits this copy.
+            cameraData.mParameters = cameraData.mCamera.getParameters();
+            if (caps == null) {
+                caps = CameraCapabilities.from(mCameraId, cameraData.mParameters, cameraData.mCameraInfo);
+                CameraCapabilityStore.getInstance().put(caps);
+            }
+            cameraData.mCapabilities = caps;
 
             if (getCameraListener() != null) {
                 getCameraListener().onComplete(cameraData.mCamera);
             }
         } catch (Exception e) {
             Log.e("OpenCameraCallable", "Failed to open camera", e);
+            moveTo(CameraStateMachine.State.CLOSED);
             if (getCameraListener() != null) {
                 getCameraListener().onError(e);
             }
@@ -1,14 +1,15 @@
 package ax.nd.faceunlock.camera.callables;
 
 import android.hardware.Camera;
-import ax.nd.faceunlock.camera.listeners.ByteBufferCallbackListener;
+import ax.nd.faceunlock.camera.FrameDescriptor;
 import ax.nd.faceunlock.camera.listeners.CameraListener;
+import ax.nd.faceunlock.camera.listeners.PreviewFrameListener;
 
 public class SetPreviewCallbackCallable extends CameraCallable {
-    private final ByteBufferCallbackListener mCallback;
+    private final PreviewFrameListener mCallback;
     private final boolean mWithBuffer;
 
-    public SetPreviewCallbackCallable(ByteBufferCallbackListener callback, boolean withBuffer, CameraListener cameraListener) {
+    public SetPreviewCallbackCallable(PreviewFrameListener callback, boolean withBuffer, CameraListener cameraListener) {
         super(cameraListener);
         mCallback = callback;
         mWithBuffer = withBuffer;
@@ -19,17 +20,26 @@ public class SetPreviewCallbackCallable extends CameraCallable {
         try {
             Camera camera = getCameraData().mCamera;
             if (camera != null) {
+                // Geometry is fixed once the preview is running, so resolve it once per callback.
+                FrameDescriptor descriptor = getCameraData().mFrameDescriptor;
+                if (descriptor == null) {
+                    Camera.Parameters params = getCameraData().mParameters;
+                    if (params == null) params = camera.getParameters();
+                    descriptor = FrameDescriptor.from(getCameraData().mCameraId, params);
+                    getCameraData().mFrameDescriptor = descriptor;
+                }
+                final FrameDescriptor frameDescriptor = descriptor;
                 if (mWithBuffer) {
                     camera.setPreviewCallbackWithBuffer((data, cam) -> {
-                        if (mCallback != null) mCallback.onEventCallback(0, data);
+                        if (mCallback != null) mCallback.onPreviewFrame(data, frameDescriptor);
                     });
                 } else {
                     camera.setPreviewCallback((data, cam) -> {
-                        if (mCallback != null) mCallback.onEventCallback(0, data);
+                        if (mCallback != null) mCallback.onPreviewFrame(data, frameDescriptor);
                     });
                 }
                 if (getCameraListener() != null) {
-                    getCameraListener().onComplete(null);
+                    getCameraListener().onComplete(frameDescriptor);
                 }
             }
         } catch (Exception e) {
@@ -38,4 +48,4 @@ public class SetPreviewCallbackCallable extends CameraCallable {
             }
         }
     }
-}
\ No newline at end of file
+}
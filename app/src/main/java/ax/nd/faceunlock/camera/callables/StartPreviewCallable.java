@@ -5,7 +5,7 @@ import android.hardware.Camera;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.util.Log;
-import java.lang.reflect.Method;
+import ax.nd.faceunlock.camera.CameraStateMachine;
 import ax.nd.faceunlock.camera.listeners.CameraListener;
 
 public class StartPreviewCallable extends CameraCallable {
@@ -39,8 +39,7 @@ public class StartPreviewCallable extends CameraCallable {
             if (camera != null) {
                 if (mSurface != null) {
                     try {
-                        Method setPreviewSurface = camera.getClass().getMethod("setPreviewSurface", Surface.class);
-                        setPreviewSurface.invoke(camera, mSurface);
+                        setPreviewSurface(camera, mSurface);
                         Log.d("StartPreviewCallable", "setPreviewSurface(Surface) called successfully");
                     } catch (Exception e) {
                         Log.e("StartPreviewCallable", "Failed to call setPreviewSurface", e);
@@ -53,7 +52,8 @@ public class StartPreviewCallable extends CameraCallable {
                 }
                 
                 camera.startPreview();
-                
+                moveTo(CameraStateMachine.State.PREVIEWING);
+
                 if (getCameraListener() != null) {
                     getCameraListener().onComplete(null);
                 }
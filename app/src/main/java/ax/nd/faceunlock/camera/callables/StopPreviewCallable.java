@@ -1,6 +1,7 @@
 package ax.nd.faceunlock.camera.callables;
 
 import android.hardware.Camera;
+import ax.nd.faceunlock.camera.CameraStateMachine;
 import ax.nd.faceunlock.camera.listeners.CameraListener;
 
 public class StopPreviewCallable extends CameraCallable {
@@ -15,6 +16,7 @@ public class StopPreviewCallable extends CameraCallable {
             Camera camera = getCameraData().mCamera;
             if (camera != null) {
                 camera.stopPreview();
+                moveTo(CameraStateMachine.State.OPEN);
                 if (getCameraListener() != null) {
                     getCameraListener().onComplete(null);
                 }
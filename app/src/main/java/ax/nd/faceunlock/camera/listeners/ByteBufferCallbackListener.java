@@ -1,4 +0,0 @@
-package ax.nd.faceunlock.camera.listeners;
-
-public interface ByteBufferCallbackListener extends CallableEventListener {
-}
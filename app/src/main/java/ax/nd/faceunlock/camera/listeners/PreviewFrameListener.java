@@ -0,0 +1,7 @@
+package ax.nd.faceunlock.camera.listeners;
+
+import ax.nd.faceunlock.camera.FrameDescriptor;
+
+public interface PreviewFrameListener {
+    void onPreviewFrame(byte[] data, FrameDescriptor descriptor);
+}
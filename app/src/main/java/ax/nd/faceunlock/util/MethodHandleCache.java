@@ -0,0 +1,126 @@
+package ax.nd.faceunlock.util;
+
+import android.util.Log;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves hidden-API members to {@link MethodHandle}s once and keeps them for the lifetime of
+ * system_server. Misses are cached too, so probing for an overload that does not exist on this
+ * ROM costs a single map lookup after the first attempt.
+ */
+public final class MethodHandleCache {
+    private static final String TAG = "MethodHandleCache";
+    private static final Object MISSING = new Object();
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final ConcurrentHashMap<String, Object> sClasses = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Key, Object> sHandles = new ConcurrentHashMap<>();
+
+    private MethodHandleCache() {
+    }
+
+    public static Class<?> findClass(String className) {
+        Object cached = sClasses.computeIfAbsent(className, name -> {
+            try {
+                return Class.forName(name);
+            } catch (ClassNotFoundException e) {
+                Log.w(TAG, "Class not found: " + name);
+                return MISSING;
+            }
+        });
+        return cached == MISSING ? null : (Class<?>) cached;
+    }
+
+    public static MethodHandle findVirtual(Class<?> owner, String name, Class<?>... params) {
+        return resolve(new Key(owner, name, params, Key.VIRTUAL));
+    }
+
+    public static MethodHandle findStatic(String className, String name, Class<?>... params) {
+        Class<?> owner = findClass(className);
+        return owner == null ? null : resolve(new Key(owner, name, params, Key.STATIC));
+    }
+
+    public static MethodHandle findConstructor(Class<?> owner, Class<?>... params) {
+        return owner == null ? null : resolve(new Key(owner, "<init>", params, Key.CONSTRUCTOR));
+    }
+
+    public static MethodHandle findGetter(Field field) {
+        return resolve(new Key(field.getDeclaringClass(), field.getName(), new Class<?>[0], Key.GETTER));
+    }
+
+    private static MethodHandle resolve(Key key) {
+        Object cached = sHandles.get(key);
+        if (cached == null) {
+            cached = sHandles.computeIfAbsent(key, MethodHandleCache::unreflect);
+        }
+        return cached == MISSING ? null : (MethodHandle) cached;
+    }
+
+    private static Object unreflect(Key key) {
+        try {
+            switch (key.kind) {
+                case Key.CONSTRUCTOR: {
+                    Constructor<?> ctor = key.owner.getConstructor(key.params);
+                    ctor.setAccessible(true);
+                    return LOOKUP.unreflectConstructor(ctor);
+                }
+                case Key.GETTER: {
+                    Field field = key.owner.getDeclaredField(key.name);
+                    field.setAccessible(true);
+                    return LOOKUP.unreflectGetter(field);
+                }
+                default: {
+                    Method method = key.owner.getMethod(key.name, key.params);
+                    method.setAccessible(true);
+                    return LOOKUP.unreflect(method);
+                }
+            }
+        } catch (NoSuchMethodException | NoSuchFieldException e) {
+            return MISSING;
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to resolve " + key.owner.getName() + "#" + key.name, e);
+            return MISSING;
+        }
+    }
+
+    private static final class Key {
+        static final int VIRTUAL = 0;
+        static final int STATIC = 1;
+        static final int CONSTRUCTOR = 2;
+        static final int GETTER = 3;
+
+        final Class<?> owner;
+        final String name;
+        final Class<?>[] params;
+        final int kind;
+        private final int hash;
+
+        Key(Class<?> owner, String name, Class<?>[] params, int kind) {
+            this.owner = owner;
+            this.name = name;
+            this.params = params;
+            this.kind = kind;
+            this.hash = ((owner.hashCode() * 31 + name.hashCode()) * 31 + Arrays.hashCode(params)) * 31 + kind;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return owner == other.owner && kind == other.kind && name.equals(other.name)
+                    && Arrays.equals(params, other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -5,6 +5,13 @@ import android.util.Log;
 
 public class Settings {
     private static final String PROPERTY_FACEUNLOCK_AVAILABLE = "property_faceunlock_available";
+    private static final String PROPERTY_CAMERA2_BACKEND = "property_camera2_backend";
+    private static final String PROPERTY_FRAME_QUALITY_THRESHOLDS = "property_frame_quality_thresholds";
+    private static final String PROPERTY_MULTI_IMAGE_ENROLL = "property_multi_image_enroll";
+    private static final String PROPERTY_MODEL_BLOB_KEY = "property_model_blob_key";
+    private static final String PROPERTY_LITE_CONFIG_CHOICE = "property_lite_config_choice";
+    private static final String PROPERTY_LITE_CONFIG_JOURNAL = "property_lite_config_journal";
+    private static final String PROPERTY_FRAME_THREAD_BOOST = "property_frame_thread_boost";
     private static final String TAG = Settings.class.getSimpleName();
 
     public static void setFaceUnlockAvailable(Context context, int i) {
@@ -17,4 +24,69 @@ public class Settings {
         SharedUtil sharedPrefUtil = new SharedUtil(context);
         return sharedPrefUtil.getIntValueByKey(PROPERTY_FACEUNLOCK_AVAILABLE) == 1;
     }
+
+    public static void setCamera2BackendEnabled(Context context, boolean enabled) {
+        new SharedUtil(context).saveBooleanValue(PROPERTY_CAMERA2_BACKEND, enabled);
+        Log.d(TAG, "setCamera2BackendEnabled: " + enabled);
+    }
+
+    public static boolean isCamera2BackendEnabled(Context context) {
+        return new SharedUtil(context).getBooleanValueByKey(PROPERTY_CAMERA2_BACKEND);
+    }
+
+    public static void setFrameQualityThresholds(Context context, String thresholds) {
+        new SharedUtil(context).saveStringValue(PROPERTY_FRAME_QUALITY_THRESHOLDS, thresholds);
+        Log.d(TAG, "setFrameQualityThresholds: " + thresholds);
+    }
+
+    /** Encoded {@code FrameQualityGate.Thresholds}, or null to use the defaults. */
+    public static String getFrameQualityThresholds(Context context) {
+        return new SharedUtil(context).getStringValueByKey(PROPERTY_FRAME_QUALITY_THRESHOLDS);
+    }
+
+    public static void setMultiImageEnrollEnabled(Context context, boolean enabled) {
+        new SharedUtil(context).saveBooleanValue(PROPERTY_MULTI_IMAGE_ENROLL, enabled);
+        Log.d(TAG, "setMultiImageEnrollEnabled: " + enabled);
+    }
+
+    public static boolean isMultiImageEnrollEnabled(Context context) {
+        return new SharedUtil(context).getBooleanValueByKey(PROPERTY_MULTI_IMAGE_ENROLL);
+    }
+
+    /** size:mtime:digest of the model file the engine last initialized from. */
+    public static void setModelBlobKey(Context context, String key) {
+        new SharedUtil(context).saveStringValue(PROPERTY_MODEL_BLOB_KEY, key);
+    }
+
+    public static String getModelBlobKey(Context context) {
+        return new SharedUtil(context).getStringValueByKey(PROPERTY_MODEL_BLOB_KEY);
+    }
+
+    /** Tuned engine back-end, as written by LiteConfigTuner.encodeChoice. */
+    public static void setLiteConfigChoice(Context context, String choice) {
+        new SharedUtil(context).saveStringValue(PROPERTY_LITE_CONFIG_CHOICE, choice);
+        Log.d(TAG, "setLiteConfigChoice: " + choice);
+    }
+
+    public static String getLiteConfigChoice(Context context) {
+        return new SharedUtil(context).getStringValueByKey(PROPERTY_LITE_CONFIG_CHOICE);
+    }
+
+    /** LiteConfigTuner trial marker; written with commit(), so it is on disk before a trial starts. */
+    public static void setLiteConfigJournal(Context context, String journal) {
+        new SharedUtil(context).saveStringValue(PROPERTY_LITE_CONFIG_JOURNAL, journal);
+    }
+
+    public static String getLiteConfigJournal(Context context) {
+        return new SharedUtil(context).getStringValueByKey(PROPERTY_LITE_CONFIG_JOURNAL);
+    }
+
+    public static void setFrameThreadBoostEnabled(Context context, boolean enabled) {
+        new SharedUtil(context).saveBooleanValue(PROPERTY_FRAME_THREAD_BOOST, enabled);
+        Log.d(TAG, "setFrameThreadBoostEnabled: " + enabled);
+    }
+
+    public static boolean isFrameThreadBoostEnabled(Context context) {
+        return new SharedUtil(context).getBooleanValueByKey(PROPERTY_FRAME_THREAD_BOOST);
+    }
 }
@@ -10,6 +10,7 @@ import android.util.Log;
 
 import ax.nd.faceunlock.AppConstants;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.InvocationTargetException;
 
 public class Util {
@@ -63,12 +64,12 @@ public class Util {
     }
 
     public static void setSystemProperty(String key, String value) {
+        MethodHandle set = MethodHandleCache.findStatic("android.os.SystemProperties", "set", String.class, String.class);
+        if (set == null) return;
         try {
-            Class<?> c = Class.forName("android.os.SystemProperties");
-            java.lang.reflect.Method set = c.getMethod("set", String.class, String.class);
-            set.invoke(null, key, value);
-        } catch (Exception e) {
-            e.printStackTrace();
+            set.invokeExact(key, value);
+        } catch (Throwable t) {
+            t.printStackTrace();
         }
     }
 }
\ No newline at end of file
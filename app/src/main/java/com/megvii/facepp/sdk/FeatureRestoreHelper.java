@@ -3,15 +3,18 @@ package com.megvii.facepp.sdk;
 import android.util.Log;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 public class FeatureRestoreHelper {
     private static final int BUFFER_SIZE = 8192;
-    private static final int RESTORE_IMAGE_SIZE = 144;
+    public static final int RESTORE_IMAGE_SIZE = 144;
     private static final String TAG = "FeatureRestoreHelper";
     public static final byte[] sMagic = {1, 2, 3, 4, 5, 6, 7, 8};
+    private static final String STORE_NAME = "templates";
     private UnlockEncryptor mEncryptor;
+    private Lite mLite;
+    private TemplateStore mStore;
+    private String mStorePath;
 
     public void setUnlockEncryptor(UnlockEncryptor unlockEncryptor) {
         this.mEncryptor = unlockEncryptor;
@@ -19,110 +22,170 @@ public class FeatureRestoreHelper {
 
     public void saveRestoreImage(byte[] bArr, String str, int i) {
         Log.i(TAG, "saveRestoreImage: length: " + bArr.length + " id " + i);
-        writeFile(getRestoreFile(str, i).getAbsolutePath(), bArr);
+        if (!store(str).put(i, seal(bArr))) {
+            Log.e(TAG, "saveRestoreImage: failed to store id " + i);
+        }
     }
 
     public void deleteRestoreImage(String str, int i) {
         Log.i(TAG, "deleteRestoreImage: id " + i);
-        getRestoreFile(str, i).delete();
+        store(str).remove(i);
+    }
+
+    /** Drops every restore image with one file deletion. */
+    public void clearRestoreImages(String str) {
+        Log.i(TAG, "clearRestoreImages");
+        store(str).clear();
     }
 
+    /** The initialized instance restores go through; falls back to {@link Lite#getInstance()}. */
+    public void setLite(Lite lite) {
+        this.mLite = lite;
+    }
+
+    /**
+     * Re-extracts only the templates the engine reports missing or invalid, reusing one pair of
+     * scratch buffers. Returns 0 if at least one template is usable, 24 otherwise.
+     */
     public int restoreAllFeature(String str) {
-        int i;
-        File[] listFiles = new File(str).listFiles();
-        if (listFiles == null || listFiles.length == 0) {
+        int[] ids = listRestoreIds(str);
+        if (ids.length == 0) {
             return 24;
         }
-        int i2 = 0;
-        for (File file : listFiles) {
-            String name = file.getName();
-            if (name.startsWith("restore_") && name.length() > 8) {
-                Log.i(TAG, "restoreAllFeature: " + name);
-                try {
-                    i = Integer.parseInt(name.substring(8));
-                } catch (NumberFormatException unused) {
-                    i = -1;
-                }
-                if (i != -1) {
-                    byte[] readFile = readFile(file.getAbsolutePath());
-                    Log.i(TAG, "restoreAllFeature: update old feature " + i);
-                    if (restoreFeatureAtPosition(i, readFile) == 0) {
-                        i2++;
-                    }
-                }
+        Lite lite = mLite != null ? mLite : Lite.getInstance();
+        Log.i(TAG, "restoreAllFeature: " + ids.length + " restore image(s), engine holds " + lite.getFeatureCount());
+        long start = System.nanoTime();
+        byte[] feature = null;
+        byte[] faceData = null;
+        int usable = 0;
+        int restored = 0;
+        for (int id : ids) {
+            long t0 = System.nanoTime();
+            if (lite.checkFeatureValid(id) == 0) {
+                usable++;
+                Log.i(TAG, "restoreAllFeature: " + id + " valid, " + (System.nanoTime() - t0) / 1000 + "us");
+                continue;
+            }
+            byte[] image = readRestoreImage(str, id);
+            if (image == null) {
+                continue;
             }
+            if (feature == null) {
+                feature = new byte[Lite.FEATURE_SIZE];
+                faceData = new byte[Lite.IMAGE_SIZE];
+            }
+            int res = lite.restoreFeatureAt(id, image, RESTORE_IMAGE_SIZE, RESTORE_IMAGE_SIZE, 90, feature, faceData);
+            if (res == 0) {
+                usable++;
+                restored++;
+            }
+            Log.i(TAG, "restoreAllFeature: " + id + " re-extracted, res " + res + ", "
+                    + (System.nanoTime() - t0) / 1000000 + "ms");
         }
-        if (i2 == 0) {
+        Log.i(TAG, "restoreAllFeature: " + usable + " usable, " + restored + " re-extracted in "
+                + (System.nanoTime() - start) / 1000000 + "ms");
+        if (usable == 0) {
             return 24;
         }
         return 0;
     }
 
-    private int restoreFeatureAtPosition(int i, byte[] bArr) {
-        return Lite.getInstance().updateFeature(bArr, RESTORE_IMAGE_SIZE, RESTORE_IMAGE_SIZE, 90, true, new byte[Lite.FEATURE_SIZE], new byte[Lite.IMAGE_SIZE], i);
+    public int[] listRestoreIds(String str) {
+        return store(str).ids();
     }
 
-    private File getRestoreFile(String str, int i) {
-        return new File(str, "restore_" + i);
+    /** The decrypted restore image, or null if it is missing or fails its checksum. */
+    public byte[] readRestoreImage(String str, int i) {
+        byte[] bArr = store(str).read(i);
+        return bArr == null ? null : unseal(bArr);
     }
 
-    private void writeFile(String str, byte[] bArr) {
-        File file = new File(str);
-        if (file.exists()) {
-            file.delete();
+    /**
+     * Opens the template store under {@code str}. restore_N files left by older builds are moved
+     * into it as they are, still encrypted, unless the store already holds that id.
+     */
+    private synchronized TemplateStore store(String str) {
+        if (mStore != null && str.equals(mStorePath)) {
+            return mStore;
         }
-        UnlockEncryptor unlockEncryptor = this.mEncryptor;
-        int i = 0;
-        if (unlockEncryptor != null) {
-            byte[] encrypt = unlockEncryptor.encrypt(bArr);
-            int length = encrypt.length;
-            byte[] bArr2 = sMagic;
-            bArr = new byte[(length + bArr2.length)];
-            System.arraycopy(bArr2, 0, bArr, 0, bArr2.length);
-            System.arraycopy(encrypt, 0, bArr, sMagic.length, encrypt.length);
+        TemplateStore store = new TemplateStore(new File(str, STORE_NAME));
+        store.open();
+        importLegacyFiles(str, store);
+        mStore = store;
+        mStorePath = str;
+        return store;
+    }
+
+    private void importLegacyFiles(String str, TemplateStore store) {
+        File[] listFiles = new File(str).listFiles();
+        if (listFiles == null) {
+            return;
         }
-        int length2 = bArr.length;
-        try {
-            FileOutputStream fileOutputStream = new FileOutputStream(str);
-            while (length2 > i) {
-                int i2 = length2 - i;
-                if (i2 > BUFFER_SIZE) {
-                    i2 = BUFFER_SIZE;
-                }
-                fileOutputStream.write(bArr, i, i2);
-                i += i2;
+        for (File file : listFiles) {
+            String name = file.getName();
+            if (!name.startsWith("restore_") || name.length() <= 8) {
+                continue;
+            }
+            int i;
+            try {
+                i = Integer.parseInt(name.substring(8));
+            } catch (NumberFormatException unused) {
+                continue;
+            }
+            if (store.read(i) != null) {
+                file.delete();
+                continue;
+            }
+            byte[] bArr = readFile(file);
+            if (bArr != null && store.put(i, bArr)) {
+                file.delete();
+                Log.i(TAG, "Imported " + name + " into the template store");
             }
-        } catch (IOException e) {
-            Log.e(TAG, "writeFile failed", e);
         }
     }
 
-    private byte[] readFile(String str) {
-        File file = new File(str);
-        if (!file.exists()) {
-            return null;
+    private byte[] seal(byte[] bArr) {
+        UnlockEncryptor unlockEncryptor = this.mEncryptor;
+        if (unlockEncryptor == null) {
+            return bArr;
         }
+        byte[] encrypt = unlockEncryptor.encrypt(bArr);
+        byte[] bArr2 = new byte[(encrypt.length + sMagic.length)];
+        System.arraycopy(sMagic, 0, bArr2, 0, sMagic.length);
+        System.arraycopy(encrypt, 0, bArr2, sMagic.length, encrypt.length);
+        return bArr2;
+    }
+
+    private byte[] unseal(byte[] bArr) {
+        if (this.mEncryptor == null || !startWithMagic(bArr)) {
+            return bArr;
+        }
+        byte[] bArr2 = new byte[(bArr.length - sMagic.length)];
+        System.arraycopy(bArr, sMagic.length, bArr2, 0, bArr2.length);
+        return this.mEncryptor.decrypt(bArr2);
+    }
+
+    /** Raw contents of a legacy restore file. */
+    private byte[] readFile(File file) {
         int length = (int) file.length();
         byte[] bArr = new byte[length];
-        try {
-            FileInputStream fileInputStream = new FileInputStream(str);
+        try (FileInputStream fileInputStream = new FileInputStream(file)) {
             int i = 0;
             while (length > i) {
                 int i2 = length - i;
                 if (i2 > BUFFER_SIZE) {
                     i2 = BUFFER_SIZE;
                 }
-                i += fileInputStream.read(bArr, i, i2);
-            }
-            if (this.mEncryptor == null || !startWithMagic(bArr)) {
-                return bArr;
+                int read = fileInputStream.read(bArr, i, i2);
+                if (read < 0) {
+                    return null;
+                }
+                i += read;
             }
-            byte[] bArr2 = new byte[(bArr.length - sMagic.length)];
-            System.arraycopy(bArr, sMagic.length, bArr2, 0, bArr2.length);
-            return this.mEncryptor.decrypt(bArr2);
+            return bArr;
         } catch (IOException e) {
             Log.e(TAG, "readFile failed", e);
-            return bArr;
+            return null;
         }
     }
 
@@ -47,6 +47,7 @@ public class Lite {
         if (handle == 0) {
             handle = LiteApi.nativeInitHandle(str);
             mPath = str;
+            mFeatureRestoreHelper.setLite(this);
         }
     }
 
@@ -156,6 +157,14 @@ public class Lite {
         return nativeUpdateFeature;
     }
 
+    /** Re-extracts a template from its restore image without rewriting the restore file. */
+    public int restoreFeatureAt(int i, byte[] bArr, int i2, int i3, int i4, byte[] bArr2, byte[] bArr3) {
+        if (bArr3.length < 40000 || bArr2.length < 10000) {
+            return 1;
+        }
+        return LiteApi.nativeUpdateFeature(handle, bArr, i2, i3, i4, 1, bArr2, bArr3, i);
+    }
+
     public int deleteFeature() {
         return deleteFeature(0);
     }
@@ -170,6 +179,10 @@ public class Lite {
         return mFeatureRestoreHelper.restoreAllFeature(mPath);
     }
 
+    public void clearRestoreImages() {
+        mFeatureRestoreHelper.clearRestoreImages(mPath);
+    }
+
     public int setConfig(float f, float f2, float f3, float f4, boolean z, boolean z2) {
         return LiteApi.nativeSetConfig(handle, f, f2, f3, f4, z, z2);
     }
@@ -190,16 +203,8 @@ public class Lite {
     }
 
     public int prepare(MGULKPowerMode mGULKPowerMode) {
-        int i = mGULKPowerMode.ordinal();
-        int i2 = 0;
-        if (i != 1) {
-            if (i == 2) {
-                i2 = 1;
-            } else if (i == 3) {
-                i2 = 2;
-            }
-        }
-        return LiteApi.nativePrepareWithPower(handle, i2);
+        // Native levels follow declaration order: NONE=0, LOW=1, HIGH=2.
+        return LiteApi.nativePrepareWithPower(handle, mGULKPowerMode.ordinal());
     }
 
     public int prepare() {
@@ -244,92 +249,114 @@ public class Lite {
         return liteConfig;
     }
 
+    private static final ThreadLocal<byte[]> sScratch = new ThreadLocal<>();
+
     @TargetApi(21)
     public static int image2NV21(Image image, byte[] bArr) {
-        int readImageIntoBuffer = readImageIntoBuffer(image, bArr);
-        if (readImageIntoBuffer == 1) {
-            return 1;
-        }
-        revertHalf(bArr);
-        return readImageIntoBuffer;
+        return image2NV21(image, bArr, null);
     }
 
+    /**
+     * Writes {@code image} as NV21 into the first width*height*3/2 bytes of {@code out}.
+     * {@code scratch} holds one chroma row (at least width bytes); when null a per-thread buffer is
+     * reused, so steady-state conversion does not allocate.
+     */
     @TargetApi(21)
-    private static int readImageIntoBuffer(Image image, byte[] bArr) {
-        int i;
-        int i2;
+    public static int image2NV21(Image image, byte[] out, byte[] scratch) {
         if (image == null) {
             Log.e("NULL Image", "image is null");
             return 1;
         }
-        int width = image.getWidth();
-        int height = image.getHeight();
         Image.Plane[] planes = image.getPlanes();
-        int i3 = 0;
-        for (int i4 = 0; i4 < planes.length; i4++) {
-            ByteBuffer buffer = planes[i4].getBuffer();
-            int rowStride = planes[i4].getRowStride();
-            int pixelStride = planes[i4].getPixelStride();
-            if (i4 == 0) {
-                i = width;
-            } else {
-                i = width / 2;
+        if (planes == null || planes.length < 3) return 1;
+        return yuvToNV21(image.getWidth(), image.getHeight(),
+                planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride(),
+                planes[1].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                planes[2].getBuffer(), planes[2].getRowStride(), planes[2].getPixelStride(),
+                out, scratch);
+    }
+
+    /**
+     * YUV_420_888 planes to NV21. The planes are only read, never written. Reads start at each
+     * buffer's current position; positions are left wherever the last bulk read ended.
+     */
+    public static int yuvToNV21(int width, int height,
+                                ByteBuffer y, int yRowStride, int yPixelStride,
+                                ByteBuffer u, int uRowStride, int uPixelStride,
+                                ByteBuffer v, int vRowStride, int vPixelStride,
+                                byte[] out, byte[] scratch) {
+        int ySize = width * height;
+        if (out == null || out.length < ySize + ySize / 2) return 1;
+        if (scratch == null || scratch.length < width) {
+            scratch = sScratch.get();
+            if (scratch == null || scratch.length < width) {
+                scratch = new byte[width];
+                sScratch.set(scratch);
             }
-            if (i4 == 0) {
-                i2 = height;
-            } else {
-                i2 = height / 2;
+        }
+
+        copyPlane(y, yRowStride, yPixelStride, width, height, out, 0, scratch);
+
+        int cw = width / 2;
+        int ch = height / 2;
+        int uBase = u.position();
+        int vBase = v.position();
+        int offset = ySize;
+        if (uPixelStride == 2 && vPixelStride == 2) {
+            // Bulk-read each V row straight into place; its odd bytes are then overwritten with U.
+            // Correct whether or not the planes share memory, so aliasing is never probed.
+            int rowBytes = cw * 2 - 1;
+            for (int row = 0; row < ch; row++) {
+                v.position(vBase + row * vRowStride);
+                v.get(out, offset, rowBytes);
+                u.position(uBase + row * uRowStride);
+                u.get(scratch, 0, rowBytes);
+                for (int col = 0; col < rowBytes; col += 2) out[offset + col + 1] = scratch[col];
+                offset += cw * 2;
             }
-            if (pixelStride == 1 && rowStride == i) {
-                int i5 = i * i2;
-                buffer.get(bArr, i3, i5);
-                i3 += i5;
-            } else {
-                byte[] bArr2 = new byte[rowStride];
-                int i6 = i3;
-                int i7 = 0;
-                while (i7 < i2 - 1) {
-                    buffer.get(bArr2, 0, rowStride);
-                    int i8 = i6;
-                    int i9 = 0;
-                    while (i9 < i) {
-                        bArr[i8] = bArr2[i9 * pixelStride];
-                        i9++;
-                        i8++;
-                    }
-                    i7++;
-                    i6 = i8;
+        } else if (uPixelStride == 1 && vPixelStride == 1) {
+            for (int row = 0; row < ch; row++) {
+                v.position(vBase + row * vRowStride);
+                v.get(scratch, 0, cw);
+                u.position(uBase + row * uRowStride);
+                u.get(scratch, cw, cw);
+                for (int col = 0; col < cw; col++) {
+                    out[offset++] = scratch[col];
+                    out[offset++] = scratch[cw + col];
                 }
-                buffer.get(bArr2, 0, Math.min(rowStride, buffer.remaining()));
-                int i10 = 0;
-                while (i10 < i) {
-                    bArr[i6] = bArr2[i10 * pixelStride];
-                    i10++;
-                    i6++;
+            }
+        } else {
+            for (int row = 0; row < ch; row++) {
+                int vRow = vBase + row * vRowStride;
+                int uRow = uBase + row * uRowStride;
+                for (int col = 0; col < cw; col++) {
+                    out[offset++] = v.get(vRow + col * vPixelStride);
+                    out[offset++] = u.get(uRow + col * uPixelStride);
                 }
-                i3 = i6;
             }
         }
         return 0;
     }
 
-    private static void revertHalf(byte[] bArr) {
-        int length = bArr.length;
-        int i = length / 3;
-        byte[] bArr2 = new byte[i];
-        int i2 = length / 6;
-        int i3 = i2 * 4;
-        int i4 = i2 * 5;
-        int i5 = 0;
-        while (i5 < bArr2.length - 1) {
-            bArr2[i5] = bArr[i4];
-            bArr2[i5 + 1] = bArr[i3];
-            i5 += 2;
-            i4++;
-            i3++;
+    private static void copyPlane(ByteBuffer src, int rowStride, int pixelStride, int width, int height,
+                                  byte[] out, int offset, byte[] scratch) {
+        int base = src.position();
+        if (pixelStride == 1 && rowStride == width) {
+            src.get(out, offset, width * height);
+        } else if (pixelStride == 1) {
+            for (int row = 0; row < height; row++) {
+                src.position(base + row * rowStride);
+                src.get(out, offset + row * width, width);
+            }
+        } else {
+            for (int row = 0; row < height; row++) {
+                int start = base + row * rowStride;
+                int end = offset + (row + 1) * width;
+                for (int i = offset + row * width, col = 0; i < end; i++, col += pixelStride) {
+                    out[i] = src.get(start + col);
+                }
+            }
         }
-        int i6 = i * 2;
-        if (length - i6 >= 0) System.arraycopy(bArr2, 0, bArr, i6, length - i6);
     }
 
     public static class MGULKImage {
@@ -354,6 +381,16 @@ public class Lite {
             height = i4;
             angle = i5;
         }
+
+        /** Re-points a wrapper at a new frame so batches can reuse the same instances. */
+        public MGULKImage set(byte[] bArr, int i, int i2, int i3, int i4) {
+            imageData = bArr;
+            imageSize = i;
+            width = i2;
+            height = i3;
+            angle = i4;
+            return this;
+        }
     }
 
     public class LiteConfig {
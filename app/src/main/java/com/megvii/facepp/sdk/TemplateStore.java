@@ -0,0 +1,233 @@
+package com.megvii.facepp.sdk;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * All restore records in one file: a header with a CRC-protected index of ids, offsets, lengths
+ * and per-record CRC32s, then the records. Every change writes a complete new file to a temp
+ * name, forces it to disk and renames it over the old one, so a crash leaves either the old or
+ * the new store. Reads come from a read-only mapping; a record whose checksum does not match
+ * is reported as missing instead of being handed to the engine.
+ */
+public class TemplateStore {
+    private static final String TAG = "TemplateStore";
+    private static final int MAGIC = 0x46555453; // "FUTS"
+    private static final int VERSION = 1;
+    /** magic, version, count, header CRC */
+    private static final int HEADER_SIZE = 16;
+    /** id, offset, length, CRC */
+    private static final int ENTRY_SIZE = 16;
+
+    private final File mFile;
+    private final File mTempFile;
+    private MappedByteBuffer mMap;
+    private int[] mIds = new int[0];
+    private int[] mOffsets = new int[0];
+    private int[] mLengths = new int[0];
+    private int[] mCrcs = new int[0];
+    private long mCorruptRecords;
+
+    public TemplateStore(File file) {
+        mFile = file;
+        mTempFile = new File(file.getPath() + ".tmp");
+    }
+
+    public synchronized boolean exists() {
+        return mFile.exists();
+    }
+
+    /** Maps the store; a missing file is an empty store, a damaged header is quarantined. */
+    public synchronized void open() {
+        mMap = null;
+        setIndex(new int[0], new int[0], new int[0], new int[0]);
+        if (mTempFile.exists()) mTempFile.delete();
+        if (!mFile.exists()) return;
+        try (RandomAccessFile raf = new RandomAccessFile(mFile, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (!parseIndex(map)) {
+                File corrupt = new File(mFile.getPath() + ".corrupt");
+                Log.e(TAG, "Damaged header in " + mFile + ", moving it to " + corrupt.getName());
+                mFile.renameTo(corrupt);
+                setIndex(new int[0], new int[0], new int[0], new int[0]);
+                return;
+            }
+            mMap = map;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to map " + mFile, e);
+        }
+    }
+
+    private boolean parseIndex(ByteBuffer map) {
+        int size = map.limit();
+        if (size < HEADER_SIZE || map.getInt(0) != MAGIC || map.getInt(4) != VERSION) return false;
+        int count = map.getInt(8);
+        if (count < 0 || HEADER_SIZE + (long) count * ENTRY_SIZE > size) return false;
+        CRC32 crc = new CRC32();
+        crc.update(slice(map, 0, 12));
+        crc.update(slice(map, HEADER_SIZE, count * ENTRY_SIZE));
+        if ((int) crc.getValue() != map.getInt(12)) return false;
+        int[] ids = new int[count];
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        int[] crcs = new int[count];
+        for (int i = 0; i < count; i++) {
+            int e = HEADER_SIZE + i * ENTRY_SIZE;
+            ids[i] = map.getInt(e);
+            offsets[i] = map.getInt(e + 4);
+            lengths[i] = map.getInt(e + 8);
+            crcs[i] = map.getInt(e + 12);
+            if (offsets[i] < 0 || lengths[i] < 0 || (long) offsets[i] + lengths[i] > size) return false;
+        }
+        setIndex(ids, offsets, lengths, crcs);
+        return true;
+    }
+
+    private void setIndex(int[] ids, int[] offsets, int[] lengths, int[] crcs) {
+        mIds = ids;
+        mOffsets = offsets;
+        mLengths = lengths;
+        mCrcs = crcs;
+    }
+
+    private static ByteBuffer slice(ByteBuffer map, int offset, int length) {
+        ByteBuffer dup = map.duplicate();
+        dup.position(offset).limit(offset + length);
+        return dup;
+    }
+
+    public synchronized int[] ids() {
+        return mIds.clone();
+    }
+
+    /** The record for {@code id}, or null if there is none or it fails its checksum. */
+    public synchronized byte[] read(int id) {
+        int i = indexOf(id);
+        if (i < 0 || mMap == null) return null;
+        byte[] data = new byte[mLengths[i]];
+        slice(mMap, mOffsets[i], mLengths[i]).get(data);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        if ((int) crc.getValue() != mCrcs[i]) {
+            mCorruptRecords++;
+            Log.e(TAG, "Record " + id + " fails its checksum, ignoring it");
+            return null;
+        }
+        return data;
+    }
+
+    /** Adds or replaces the record for {@code id}. */
+    public synchronized boolean put(int id, byte[] data) {
+        int i = indexOf(id);
+        int n = mIds.length;
+        byte[][] records = readAll(i < 0 ? n + 1 : n);
+        int[] ids = i < 0 ? Arrays.copyOf(mIds, n + 1) : mIds.clone();
+        int slot = i < 0 ? n : i;
+        ids[slot] = id;
+        records[slot] = data;
+        return commit(ids, records);
+    }
+
+    public synchronized boolean remove(int id) {
+        int i = indexOf(id);
+        if (i < 0) return true;
+        int n = mIds.length;
+        byte[][] all = readAll(n);
+        int[] ids = new int[n - 1];
+        byte[][] records = new byte[n - 1][];
+        for (int j = 0, k = 0; j < n; j++) {
+            if (j == i) continue;
+            ids[k] = mIds[j];
+            records[k++] = all[j];
+        }
+        return commit(ids, records);
+    }
+
+    /** Removes every record with a single file deletion. */
+    public synchronized void clear() {
+        mMap = null;
+        setIndex(new int[0], new int[0], new int[0], new int[0]);
+        if (mFile.exists() && !mFile.delete()) Log.w(TAG, "Failed to delete " + mFile);
+    }
+
+    /** Copies of the current records, sized for {@code capacity}; corrupt records are dropped. */
+    private byte[][] readAll(int capacity) {
+        byte[][] records = new byte[capacity][];
+        for (int j = 0; j < mIds.length; j++) records[j] = read(mIds[j]);
+        return records;
+    }
+
+    private boolean commit(int[] ids, byte[][] records) {
+        int count = 0;
+        for (byte[] r : records) if (r != null) count++;
+        int[] keptIds = new int[count];
+        byte[][] kept = new byte[count][];
+        for (int j = 0, k = 0; j < ids.length; j++) {
+            if (records[j] == null) continue;
+            keptIds[k] = ids[j];
+            kept[k++] = records[j];
+        }
+
+        int dataStart = HEADER_SIZE + count * ENTRY_SIZE;
+        ByteBuffer header = ByteBuffer.allocate(dataStart).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0);
+        int offset = dataStart;
+        for (int j = 0; j < count; j++) {
+            CRC32 crc = new CRC32();
+            crc.update(kept[j], 0, kept[j].length);
+            header.putInt(keptIds[j]).putInt(offset).putInt(kept[j].length).putInt((int) crc.getValue());
+            offset += kept[j].length;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, 12);
+        crc.update(header.array(), HEADER_SIZE, count * ENTRY_SIZE);
+        header.putInt(12, (int) crc.getValue());
+        header.position(0);
+
+        ByteBuffer[] buffers = new ByteBuffer[count + 1];
+        buffers[0] = header;
+        for (int j = 0; j < count; j++) buffers[j + 1] = ByteBuffer.wrap(kept[j]);
+        try (RandomAccessFile raf = new RandomAccessFile(mTempFile, "rw"); FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            long total = offset;
+            long written = 0;
+            while (written < total) written += channel.write(buffers);
+            channel.force(true);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write " + mTempFile, e);
+            mTempFile.delete();
+            return false;
+        }
+        try {
+            Files.move(mTempFile.toPath(), mFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to rename " + mTempFile, e);
+            mTempFile.delete();
+            return false;
+        }
+        open();
+        return true;
+    }
+
+    private int indexOf(int id) {
+        for (int i = 0; i < mIds.length; i++) if (mIds[i] == id) return i;
+        return -1;
+    }
+
+    public synchronized long getCorruptRecordCount() {
+        return mCorruptRecords;
+    }
+}
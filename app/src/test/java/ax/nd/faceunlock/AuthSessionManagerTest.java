@@ -0,0 +1,305 @@
+package ax.nd.faceunlock;
+
+import ax.nd.faceunlock.camera.CameraBackend;
+import ax.nd.faceunlock.camera.CameraFaceAuthController;
+import ax.nd.faceunlock.camera.FrameQualityGate;
+import ax.nd.faceunlock.camera.FrameThreadBoost;
+import ax.nd.faceunlock.camera.FrameWorker;
+import ax.nd.faceunlock.vendor.FacePPImpl;
+import ax.nd.faceunlock.vendor.PowerModePolicy;
+import com.megvii.facepp.sdk.Lite;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class AuthSessionManagerTest {
+    private static final int W = 64;
+    private static final int H = 48;
+
+    /**
+     * Engine calls are counted; compare returns {@link #result} after running {@link #duringCompare},
+     * and compareStart runs {@link #duringStart}.
+     */
+    private static class FakeEngine extends FacePPImpl {
+        int starts;
+        int stops;
+        Lite.MGULKPowerMode mode;
+        int result = 12;
+        Runnable duringCompare;
+        Runnable duringStart;
+
+        FakeEngine() {
+            super(null);
+        }
+
+        @Override
+        public void compareStart(Lite.MGULKPowerMode mode) {
+            starts++;
+            this.mode = mode;
+            if (duringStart != null) duringStart.run();
+        }
+
+        @Override
+        public void compareStop() {
+            stops++;
+        }
+
+        @Override
+        public int compare(byte[] img, int w, int h, int angle, boolean mirror, boolean live, int[] scores) {
+            if (duringCompare != null) duringCompare.run();
+            return result;
+        }
+    }
+
+    /** A camera that opens instantly and never streams. */
+    private static class IdleBackend implements CameraBackend {
+        int closes;
+
+        @Override
+        public void open(SessionConfig config, Callback callback) {
+        }
+
+        @Override
+        public void recycle(byte[] frame) {
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+
+        @Override
+        public CompletableFuture<Void> close() {
+            closes++;
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /** Main looper stand-in: posts wait until {@link #runPosted}, delayed ones until {@link #runDelayed}. */
+    private static class FakeHost implements AuthSessionManager.Host {
+        final ArrayDeque<Runnable> posted = new ArrayDeque<>();
+        final List<Runnable> delayed = new ArrayList<>();
+        final List<CameraFaceAuthController.ServiceCallback> callbacks = new ArrayList<>();
+        final List<IdleBackend> backends = new ArrayList<>();
+        final FrameWorker worker = new FrameWorker("test");
+        int cameraCloses;
+
+        @Override
+        public void post(Runnable task) {
+            posted.add(task);
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMs) {
+            delayed.add(task);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            delayed.remove(task);
+        }
+
+        @Override
+        public CameraFaceAuthController newController(CameraFaceAuthController.ServiceCallback callback) {
+            IdleBackend backend = new IdleBackend();
+            backends.add(backend);
+            callbacks.add(callback);
+            return new CameraFaceAuthController(null, worker, callback, backend);
+        }
+
+        @Override
+        public void closeCamera() {
+            cameraCloses++;
+        }
+
+        void runPosted() {
+            Runnable task;
+            while ((task = posted.poll()) != null) task.run();
+        }
+
+        void runDelayed() {
+            List<Runnable> due = new ArrayList<>(delayed);
+            delayed.clear();
+            for (Runnable task : due) task.run();
+        }
+    }
+
+    private static class Results implements AuthSessionManager.Callback {
+        final List<Object> authenticated = new ArrayList<>();
+        final List<Object> errors = new ArrayList<>();
+
+        @Override
+        public void onAuthenticated(AuthSessionManager.Target target) {
+            authenticated.add(target.receiver);
+        }
+
+        @Override
+        public void onError(AuthSessionManager.Target target, int error) {
+            errors.add(target.receiver);
+        }
+
+        @Override
+        public void onAcquired(AuthSessionManager.Target target, int acquiredInfo) {
+        }
+    }
+
+    private final FakeHost mHost = new FakeHost();
+    private final FakeEngine mEngine = new FakeEngine();
+    private final Results mResults = new Results();
+    private final AuthSessionManager mManager = new AuthSessionManager(mHost, mEngine, null, 1, mResults,
+            new FrameQualityGate(new FrameQualityGate.Thresholds(0, 255, 1f, 0f, 4)),
+            new PowerModePolicy(null), new FrameThreadBoost(null, mHost.worker, FrameThreadBoost.DEFAULT_TARGET_NANOS),
+            false);
+
+    private int frame() {
+        return mHost.callbacks.get(mHost.callbacks.size() - 1).handlePreviewData(new byte[W * H * 3 / 2], W, H);
+    }
+
+    @Test
+    public void burstOfRequestsStartsOneSessionForTheLastReceiver() {
+        mManager.requestStart(0, 0, "a");
+        mManager.requestStop();
+        mManager.requestStart(0, 0, "b");
+        mManager.requestStart(0, 0, "c");
+        mHost.runPosted();
+
+        assertEquals(3, mManager.getCoalescedRequestCount());
+        assertEquals(1, mHost.callbacks.size());
+        assertEquals(1, mEngine.starts);
+
+        mEngine.result = 0;
+        assertEquals(0, frame());
+        assertEquals(List.of("c"), mResults.authenticated);
+    }
+
+    @Test
+    public void liveSessionIsRetargetedInsteadOfReopened() {
+        mManager.requestStart(0, 0, "a");
+        mHost.runPosted();
+        mManager.requestStop();
+        mHost.runPosted();
+        assertEquals(1, mHost.delayed.size());
+
+        // A retry within the linger window picks up the open camera.
+        mManager.requestStart(0, 0, "b");
+        mHost.runPosted();
+        assertTrue(mHost.delayed.isEmpty());
+        assertEquals(1, mHost.callbacks.size());
+        assertEquals(1, mManager.getReusedSessionCount());
+        assertEquals(0, mHost.backends.get(0).closes);
+
+        mEngine.result = 0;
+        frame();
+        assertEquals(List.of("b"), mResults.authenticated);
+    }
+
+    @Test
+    public void cancelledRetriesMoveTheLiveSessionToLowPower() {
+        mManager.requestStart(0, 0, "a");
+        mHost.runPosted();
+        assertEquals(Lite.MGULKPowerMode.MG_UNLOCK_POWER_HIGH, mEngine.mode);
+        // Keyguard keeps cancelling and retrying within the linger window, as in a pocket.
+        mManager.requestStop();
+        mHost.runPosted();
+        mManager.requestStart(0, 0, "b");
+        mHost.runPosted();
+        assertEquals(1, mEngine.starts);
+        mManager.requestStop();
+        mHost.runPosted();
+        mManager.requestStart(0, 0, "c");
+        mHost.runPosted();
+
+        assertEquals(1, mHost.callbacks.size());
+        assertEquals(2, mEngine.starts);
+        assertEquals(1, mEngine.stops);
+        assertEquals(Lite.MGULKPowerMode.MG_UNLOCK_POWER_LOW, mEngine.mode);
+    }
+
+    @Test
+    public void lingeringSessionIsReleasedWhenNoRetryComes() {
+        mManager.requestStart(0, 0, "a");
+        mHost.runPosted();
+        mManager.requestStop();
+        mHost.runPosted();
+        assertEquals(-1, frame());
+
+        int cameraCloses = mHost.cameraCloses;
+        mHost.runDelayed();
+        assertEquals(1, mEngine.stops);
+        assertEquals(1, mHost.backends.get(0).closes);
+        // The controller closed the camera; no second close through the host.
+        assertEquals(cameraCloses, mHost.cameraCloses);
+    }
+
+    @Test
+    public void resultForAReplacedReceiverIsDropped() {
+        mManager.requestStart(0, 0, "a");
+        mHost.runPosted();
+        // The keyguard re-targets the session while a compare for "a" is running.
+        mEngine.duringCompare = () -> {
+            mManager.requestStart(0, 0, "b");
+            mHost.runPosted();
+        };
+        mEngine.result = 0;
+        frame();
+        assertTrue(mResults.authenticated.isEmpty());
+
+        mEngine.duringCompare = null;
+        frame();
+        assertEquals(List.of("b"), mResults.authenticated);
+        mHost.runPosted();
+        assertEquals(1, mEngine.stops);
+    }
+
+    @Test
+    public void cameraErrorReportsOnceAndKeepsANewerTarget() {
+        mManager.requestStart(0, 0, "a");
+        mHost.runPosted();
+        CameraFaceAuthController.ServiceCallback session = mHost.callbacks.get(0);
+        session.onCameraError();
+        session.onCameraError();
+        assertEquals(List.of("a"), mResults.errors);
+
+        mHost.runPosted();
+        mManager.requestStart(0, 0, "b");
+        mHost.runPosted();
+        assertEquals(2, mHost.callbacks.size());
+        // A late timeout from the first session does not touch the second one's receiver.
+        session.onTimeout(false);
+        assertEquals(List.of("a"), mResults.errors);
+        mEngine.result = 0;
+        frame();
+        assertEquals(List.of("b"), mResults.authenticated);
+    }
+
+    @Test
+    public void stopArrivingWhileStartRunsOnMainLeavesNoTarget() {
+        // The keyguard cancels on a binder thread while the start is still opening the session.
+        mEngine.duringStart = mManager::requestStop;
+        mManager.requestStart(0, 0, "a");
+        mHost.runPosted();
+        mEngine.duringStart = null;
+        mEngine.result = 0;
+        assertEquals(-1, frame());
+        assertTrue(mResults.authenticated.isEmpty());
+        assertEquals(1, mHost.delayed.size());
+        mHost.runDelayed();
+        assertEquals(1, mEngine.stops);
+    }
+
+    @Test
+    public void frameAfterStopBeforeMainRunsIsNotAuthenticated() {
+        mManager.requestStart(0, 0, "a");
+        mHost.runPosted();
+        mManager.requestStop();
+        mEngine.result = 0;
+        assertEquals(-1, frame());
+        assertTrue(mResults.authenticated.isEmpty());
+    }
+}
@@ -0,0 +1,89 @@
+package ax.nd.faceunlock;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EngineInitializerTest {
+
+    @Test
+    public void phasesRunInOrderOffTheCallingThread() throws Exception {
+        List<String> order = new ArrayList<>();
+        Thread caller = Thread.currentThread();
+        List<Thread> threads = new ArrayList<>();
+        EngineInitializer init = new EngineInitializer()
+                .add("a", () -> { order.add("a"); threads.add(Thread.currentThread()); })
+                .add("b", () -> order.add("b"));
+        assertFalse(init.isReady());
+        assertEquals("not started", init.getCurrentPhase());
+
+        init.start();
+        assertTrue(init.awaitReady("test", 5000));
+        assertEquals(2, order.size());
+        assertEquals("a", order.get(0));
+        assertEquals("b", order.get(1));
+        assertNotSame(caller, threads.get(0));
+        assertEquals("done", init.getCurrentPhase());
+        assertTrue(init.describe().startsWith("a="));
+        assertTrue(init.describe().contains("total="));
+    }
+
+    @Test
+    public void awaitIsBoundedWhileAPhaseIsSlow() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        EngineInitializer init = new EngineInitializer()
+                .add("fast", () -> { })
+                .add("models", () -> release.await(5, TimeUnit.SECONDS));
+        init.start();
+
+        // An unbounded wait would outlast the phase and see it finish.
+        assertFalse(init.awaitReady("test", 50));
+        assertEquals("models", init.getCurrentPhase());
+        assertTrue(init.describe(), init.describe().contains("models=running"));
+
+        release.countDown();
+        assertTrue(init.awaitReady("test", 5000));
+        init.getReadiness().get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void postReadyPhaseRunsAfterReadiness() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch tuned = new CountDownLatch(1);
+        EngineInitializer init = new EngineInitializer()
+                .add("restore", () -> { })
+                .addAfterReady("tune", () -> {
+                    release.await(5, TimeUnit.SECONDS);
+                    tuned.countDown();
+                    throw new IllegalStateException("benchmark");
+                });
+        init.start();
+        assertTrue(init.awaitReady("test", 5000));
+        assertEquals(1, tuned.getCount());
+        assertTrue(init.describe(), init.describe().contains("tune=running"));
+
+        release.countDown();
+        assertTrue(tuned.await(5, TimeUnit.SECONDS));
+        // A failed post-ready phase leaves the engine ready.
+        assertTrue(init.isReady());
+    }
+
+    @Test
+    public void failedPhaseStopsBringUp() {
+        List<String> ran = new ArrayList<>();
+        EngineInitializer init = new EngineInitializer()
+                .add("encryptor", () -> { throw new IllegalStateException("keystore"); })
+                .add("models", () -> ran.add("models"));
+        init.start();
+        assertFalse(init.awaitReady("test", 5000));
+        assertFalse(init.isReady());
+        assertTrue(init.getReadiness().isCompletedExceptionally());
+        assertTrue(ran.isEmpty());
+        assertTrue(init.describe(), init.describe().contains("encryptor=failed"));
+    }
+}
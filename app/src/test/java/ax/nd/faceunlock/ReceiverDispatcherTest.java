@@ -0,0 +1,76 @@
+package ax.nd.faceunlock;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/** Host check of the cached receiver dispatch. */
+public class ReceiverDispatcherTest {
+    public static class FakeReceiver {
+        int acquired = -1;
+        int vendor = -1;
+        int error = -1;
+
+        public void onAcquired(int sensorId, int acquiredInfo, int vendorCode) {
+            acquired = acquiredInfo;
+            vendor = vendorCode;
+        }
+
+        public void onError(int error, int vendorCode) {
+            this.error = error;
+        }
+    }
+
+    public static class LegacyReceiver {
+        int acquired = -1;
+
+        public void onAcquired(int acquiredInfo, int vendorCode) {
+            acquired = acquiredInfo;
+        }
+    }
+
+    public static class FakeIFaceServiceReceiver extends FakeReceiver {
+    }
+
+    public static class CallbackWrapper {
+        private final Object mUnrelated = "unrelated";
+        private final Object mReceiver;
+
+        CallbackWrapper(Object receiver) {
+            mReceiver = receiver;
+        }
+    }
+
+    @Test
+    public void dispatchesToThreeArgOverload() throws Throwable {
+        FakeReceiver receiver = new FakeReceiver();
+        assertTrue(ReceiverDispatcher.of(receiver).onAcquired(receiver, 3, 7));
+        assertEquals(3, receiver.acquired);
+        assertEquals(7, receiver.vendor);
+        assertTrue(ReceiverDispatcher.of(receiver).onError(receiver, 1, 0));
+        assertEquals(1, receiver.error);
+    }
+
+    @Test
+    public void fallsBackToLegacyOverload() throws Throwable {
+        LegacyReceiver receiver = new LegacyReceiver();
+        ReceiverDispatcher dispatcher = ReceiverDispatcher.of(receiver);
+        assertTrue(dispatcher.onAcquired(receiver, 5, 0));
+        assertEquals(5, receiver.acquired);
+        assertFalse(dispatcher.onError(receiver, 1, 0));
+    }
+
+    @Test
+    public void dispatcherIsResolvedOncePerClass() {
+        assertSame(ReceiverDispatcher.of(new FakeReceiver()), ReceiverDispatcher.of(new FakeReceiver()));
+    }
+
+    @Test
+    public void unwrapsWrappedReceiver() {
+        FakeIFaceServiceReceiver inner = new FakeIFaceServiceReceiver();
+        CallbackWrapper wrapper = new CallbackWrapper(inner);
+        assertSame(inner, ReceiverDispatcher.of(wrapper).unwrap(wrapper));
+        FakeReceiver plain = new FakeReceiver();
+        assertSame(plain, ReceiverDispatcher.of(plain).unwrap(plain));
+    }
+}
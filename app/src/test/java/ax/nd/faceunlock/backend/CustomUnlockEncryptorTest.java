@@ -0,0 +1,89 @@
+package ax.nd.faceunlock.backend;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.*;
+
+public class CustomUnlockEncryptorTest {
+
+    private static final class CountingSource implements CustomUnlockEncryptor.KeySource {
+        final Deque<SecretKey> keys = new ArrayDeque<>();
+        int loads;
+
+        @Override
+        public SecretKey load() {
+            loads++;
+            return keys.size() > 1 ? keys.poll() : keys.peek();
+        }
+    }
+
+    private static SecretKey aesKey() throws Exception {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(128);
+        return generator.generateKey();
+    }
+
+    private static byte[] image(int seed) {
+        byte[] data = new byte[144 * 144];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (seed + i);
+        return data;
+    }
+
+    @Test
+    public void looksTheKeyUpOnceAcrossCalls() throws Exception {
+        CountingSource source = new CountingSource();
+        source.keys.add(aesKey());
+        CustomUnlockEncryptor encryptor = new CustomUnlockEncryptor(source);
+
+        byte[][] sealed = new byte[5][];
+        for (int i = 0; i < sealed.length; i++) sealed[i] = encryptor.encrypt(image(i));
+        encryptor.beginSession("restore");
+        for (int i = 0; i < sealed.length; i++) assertArrayEquals(image(i), encryptor.decrypt(sealed[i]));
+        encryptor.endSession();
+
+        assertEquals(1, source.loads);
+        assertTrue(encryptor.toString(), encryptor.toString().startsWith("ops=10 keystore=1 lookup(s)"));
+    }
+
+    @Test
+    public void sealedFormatIsIvThenCiphertext() throws Exception {
+        CountingSource source = new CountingSource();
+        source.keys.add(aesKey());
+        CustomUnlockEncryptor encryptor = new CustomUnlockEncryptor(source);
+        byte[] first = encryptor.encrypt(image(1));
+        byte[] second = encryptor.encrypt(image(1));
+        // 12-byte IV, payload, 16-byte GCM tag; a fresh IV every call, even on a reused cipher.
+        assertEquals(12 + 144 * 144 + 16, first.length);
+        assertNotEquals(new String(first, 0, 12, "ISO-8859-1"), new String(second, 0, 12, "ISO-8859-1"));
+    }
+
+    @Test
+    public void rejectedKeyIsLookedUpAgain() throws Exception {
+        CountingSource source = new CountingSource();
+        // Keystore hands back a key the cipher refuses, then the real one.
+        source.keys.add(new SecretKeySpec(new byte[5], "AES"));
+        source.keys.add(aesKey());
+        CustomUnlockEncryptor encryptor = new CustomUnlockEncryptor(source);
+
+        byte[] sealed = encryptor.encrypt(image(3));
+        assertEquals(2, source.loads);
+        assertArrayEquals(image(3), encryptor.decrypt(sealed));
+        assertEquals(2, source.loads);
+    }
+
+    @Test
+    public void failuresKeepTheLegacyEmptyResult() {
+        CountingSource source = new CountingSource();
+        CustomUnlockEncryptor encryptor = new CustomUnlockEncryptor(source);
+        assertNull(encryptor.encrypt(null));
+        assertEquals(0, encryptor.encrypt(image(0)).length);
+        assertEquals(0, encryptor.decrypt(new byte[40]).length);
+    }
+}
@@ -0,0 +1,72 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CameraCapabilityStoreTest {
+
+    private static CameraCapabilities caps(String fingerprint, int cameraId) {
+        return new CameraCapabilities(fingerprint, cameraId, 1, 270,
+                Arrays.asList(new PreviewSizePlanner.Size(640, 480), new PreviewSizePlanner.Size(2592, 1952)),
+                Arrays.asList(17, 842094169), true, 30, Arrays.asList(100, 110, 120),
+                new ArrayList<>(Arrays.asList(new int[]{15000, 30000})));
+    }
+
+    @Test
+    public void roundTripsThroughDisk() throws Exception {
+        File dir = Files.createTempDirectory("caps").toFile();
+        new CameraCapabilityStore(dir).put(caps(CameraCapabilities.buildFingerprint(), 1));
+
+        CameraCapabilities loaded = new CameraCapabilityStore(dir).get(1);
+        assertNotNull(loaded);
+        assertEquals(270, loaded.orientation);
+        assertEquals(2, loaded.previewSizes.size());
+        assertEquals(2592, loaded.previewSizes.get(1).width);
+        assertEquals(Arrays.asList(100, 110, 120), loaded.zoomRatios);
+        assertEquals(30000, loaded.fpsRanges.get(0)[1]);
+        assertNull(new CameraCapabilityStore(dir).get(0));
+    }
+
+    @Test
+    public void discardsSnapshotsFromAnotherBuild() throws Exception {
+        File dir = Files.createTempDirectory("caps").toFile();
+        new CameraCapabilityStore(dir).put(caps("some/other/build", 1));
+        assertNull(new CameraCapabilityStore(dir).get(1));
+        assertFalse(new File(dir, "camera_caps_1").exists());
+    }
+
+    @Test
+    public void discardsOtherFormatVersions() throws Exception {
+        File dir = Files.createTempDirectory("caps").toFile();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(dir, "camera_caps_1")))) {
+            out.writeInt(CameraCapabilities.VERSION + 1);
+        }
+        assertNull(new CameraCapabilityStore(dir).get(1));
+    }
+
+    @Test
+    public void corruptCountIsAStaleCache() throws Exception {
+        File dir = Files.createTempDirectory("caps").toFile();
+        File file = new File(dir, "camera_caps_1");
+        for (int count : new int[]{-1, Integer.MAX_VALUE}) {
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+                out.writeInt(CameraCapabilities.VERSION);
+                out.writeUTF(CameraCapabilities.buildFingerprint());
+                out.writeInt(1);
+                out.writeInt(1);
+                out.writeInt(270);
+                out.writeInt(count);
+            }
+            assertNull(new CameraCapabilityStore(dir).get(1));
+            assertFalse(file.exists());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ax.nd.faceunlock.camera;
+
+import ax.nd.faceunlock.camera.CameraStateMachine.State;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class CameraStateMachineTest {
+    private final CameraStateMachine mMachine = new CameraStateMachine();
+
+    @Test
+    public void waiterCompletesOnTransitionIntoItsState() {
+        CompletableFuture<State> open = mMachine.await(State.OPEN);
+        mMachine.moveTo(State.OPENING);
+        assertFalse(open.isDone());
+
+        mMachine.moveTo(State.OPEN);
+        assertEquals(State.OPEN, open.getNow(null));
+        assertTrue(mMachine.isIn(State.OPEN));
+    }
+
+    @Test
+    public void awaitingTheCurrentStateCompletesImmediately() {
+        // What CameraService.closeCamera hands back when the camera is already closed.
+        CompletableFuture<State> closed = mMachine.await(State.CLOSED);
+        assertEquals(State.CLOSED, closed.getNow(null));
+
+        mMachine.moveTo(State.OPENING);
+        mMachine.moveTo(State.OPEN);
+        assertEquals(State.OPEN, mMachine.await(State.OPEN).getNow(null));
+    }
+
+    @Test
+    public void movingToTheCurrentStateCompletesNothing() {
+        mMachine.moveTo(State.OPENING);
+        CompletableFuture<State> closed = mMachine.await(State.CLOSED);
+        mMachine.moveTo(State.OPENING);
+        assertFalse(closed.isDone());
+    }
+
+    @Test
+    public void skippedStatesLeaveTheirWaitersPending() {
+        CompletableFuture<State> open = mMachine.await(State.OPEN);
+        CompletableFuture<State> previewing = mMachine.await(State.PREVIEWING);
+        // Open and start preview in one callable: OPEN is never entered on the way.
+        mMachine.moveTo(State.OPENING);
+        mMachine.moveTo(State.PREVIEWING);
+        assertEquals(State.PREVIEWING, previewing.getNow(null));
+        assertFalse(open.isDone());
+
+        // A close that fails part-way goes back to OPEN before reaching CLOSED.
+        CompletableFuture<State> closed = mMachine.await(State.CLOSED);
+        mMachine.moveTo(State.CLOSING);
+        mMachine.moveTo(State.OPEN);
+        assertEquals(State.OPEN, open.getNow(null));
+        assertFalse(closed.isDone());
+
+        mMachine.moveTo(State.CLOSED);
+        assertEquals(State.CLOSED, closed.getNow(null));
+    }
+
+    @Test
+    public void waitersCompleteOutsideTheLockSoTheyCanMoveOn() {
+        mMachine.moveTo(State.OPENING);
+        CompletableFuture<State> closed = mMachine.await(State.CLOSED);
+        CompletableFuture<State> reopened = new CompletableFuture<>();
+        closed.thenRun(() -> {
+            mMachine.moveTo(State.OPENING);
+            reopened.complete(mMachine.getState());
+        });
+        mMachine.moveTo(State.CLOSED);
+        assertEquals(State.OPENING, reopened.getNow(null));
+    }
+
+    @Test
+    public void everyWaiterForAStateCompletes() {
+        CompletableFuture<State> first = mMachine.await(State.OPEN);
+        CompletableFuture<State> second = mMachine.await(State.OPEN);
+        mMachine.moveTo(State.OPEN);
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+
+        // Completed waiters are dropped: a later entry does not see them again.
+        mMachine.moveTo(State.CLOSING);
+        CompletableFuture<State> third = mMachine.await(State.OPEN);
+        mMachine.moveTo(State.OPEN);
+        assertTrue(third.isDone());
+    }
+}
@@ -0,0 +1,91 @@
+package ax.nd.faceunlock.camera;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * In-memory backend: the test decides when streaming starts and which frames arrive. Given a
+ * pool, it keeps callback buffers the way Camera1Backend does: queued in the "camera" while
+ * streaming, released to the pool after close, and reclaimed when it closes.
+ */
+class FakeCameraBackend implements CameraBackend {
+    final List<byte[]> recycled = new ArrayList<>();
+    final CompletableFuture<Void> closed = new CompletableFuture<>();
+    final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+    private final FrameBufferPool mPool;
+    SessionConfig config;
+    Callback callback;
+    boolean streaming;
+    private int mBufferSize;
+
+    FakeCameraBackend() {
+        this(null);
+    }
+
+    FakeCameraBackend(FrameBufferPool pool) {
+        mPool = pool;
+    }
+
+    @Override
+    public void open(SessionConfig config, Callback callback) {
+        this.config = config;
+        this.callback = callback;
+    }
+
+    void start(FrameDescriptor descriptor, PreviewSizePlanner.Plan plan) {
+        streaming = true;
+        if (mPool != null) {
+            mBufferSize = descriptor.byteSize;
+            for (int n = 0; n < 3; n++) {
+                byte[] buffer = mPool.acquire(mBufferSize);
+                mPool.queued(buffer);
+                queue.add(buffer);
+            }
+        }
+        callback.onStarted(descriptor, plan);
+    }
+
+    void push(byte[] frame, long timestampNanos) {
+        callback.onFrame(frame, timestampNanos);
+    }
+
+    /** Fills the oldest queued buffer and delivers it; false if the receiver holds them all. */
+    boolean pushQueued(long timestampNanos) {
+        byte[] frame = queue.poll();
+        if (frame == null) return false;
+        frame[(int) (timestampNanos % frame.length)] = (byte) timestampNanos;
+        mPool.delivered(frame);
+        callback.onFrame(frame, timestampNanos);
+        return true;
+    }
+
+    @Override
+    public void recycle(byte[] frame) {
+        if (mPool == null) {
+            recycled.add(frame);
+        } else if (streaming && frame.length == mBufferSize) {
+            mPool.queued(frame);
+            queue.add(frame);
+        } else {
+            mPool.release(frame);
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    @Override
+    public CompletableFuture<Void> close() {
+        streaming = false;
+        if (mPool != null) {
+            queue.clear();
+            mPool.reclaim(mBufferSize);
+        }
+        closed.complete(null);
+        return closed;
+    }
+}
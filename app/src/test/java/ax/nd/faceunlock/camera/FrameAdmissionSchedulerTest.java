@@ -0,0 +1,118 @@
+package ax.nd.faceunlock.camera;
+
+import android.os.PowerManager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameAdmissionSchedulerTest {
+    private static final long MS = 1000000L;
+
+    /**
+     * Discrete simulation of a camera at {@code intervalMs} feeding a single-slot mailbox and an
+     * engine taking {@code latencyMs} per compare. Returns the largest frame age at compare start.
+     */
+    private static long simulate(FrameAdmissionScheduler scheduler, long intervalMs, long latencyMs, int frames) {
+        long pending = -1;
+        long busyUntil = -1;
+        long maxAge = 0;
+        for (int f = 1; f <= frames; f++) {
+            long now = f * intervalMs * MS;
+            if (busyUntil >= 0 && busyUntil <= now) {
+                scheduler.recordCompare(latencyMs * MS);
+                scheduler.onComputeFinished(busyUntil);
+                long finished = busyUntil;
+                busyUntil = -1;
+                if (pending >= 0) {
+                    maxAge = Math.max(maxAge, finished - pending);
+                    scheduler.onComputeStarted(finished);
+                    busyUntil = finished + latencyMs * MS;
+                    pending = -1;
+                }
+            }
+            if (!scheduler.admit(now)) continue;
+            if (busyUntil < 0) {
+                scheduler.onComputeStarted(now);
+                busyUntil = now + latencyMs * MS;
+            } else {
+                pending = now;
+            }
+        }
+        return maxAge;
+    }
+
+    @Test
+    public void admitsEverythingUntilLatencyIsKnown() {
+        FrameAdmissionScheduler scheduler = new FrameAdmissionScheduler();
+        assertTrue(scheduler.admit(MS));
+        assertTrue(scheduler.admit(2 * MS));
+        assertEquals(2, scheduler.getAdmittedCount());
+    }
+
+    @Test
+    public void keepsSlowEngineBusyWithFreshFrames() {
+        FrameAdmissionScheduler scheduler = new FrameAdmissionScheduler();
+        long maxAge = simulate(scheduler, 33, 80, 300);
+
+        // The engine can do 1000/80 compares a second and should get close to that...
+        float throughput = scheduler.getThroughput();
+        assertTrue("throughput " + throughput, throughput > 10f && throughput <= 12.6f);
+        // ...while most frames are never queued, and a queued frame waits at most one interval.
+        assertTrue(scheduler.getDeferredCount() > scheduler.getArrivedCount() / 2);
+        assertTrue("max age " + maxAge / MS, maxAge <= 33 * MS);
+        assertEquals(80 * MS, scheduler.getLatencyEstimateNanos());
+        assertEquals(33 * MS, scheduler.getFrameIntervalNanos());
+    }
+
+    @Test
+    public void fastEngineTakesEveryFrame() {
+        FrameAdmissionScheduler scheduler = new FrameAdmissionScheduler();
+        simulate(scheduler, 33, 10, 100);
+        assertEquals(0, scheduler.getDeferredCount());
+        assertEquals(100, scheduler.getAdmittedCount());
+    }
+
+    @Test
+    public void dutyCapThrottlesWhenHot() {
+        FrameAdmissionScheduler cool = new FrameAdmissionScheduler();
+        simulate(cool, 33, 80, 600);
+
+        FrameAdmissionScheduler hot = new FrameAdmissionScheduler();
+        hot.setDutyCap(FrameAdmissionScheduler.dutyCapForThermalStatus(PowerManager.THERMAL_STATUS_SEVERE));
+        simulate(hot, 33, 80, 600);
+
+        float ratio = hot.getThroughput() / cool.getThroughput();
+        assertTrue("ratio " + ratio, ratio > 0.3f && ratio < 0.55f);
+    }
+
+    @Test
+    public void cheapRejectsDoNotCountAsCompares() {
+        FrameAdmissionScheduler scheduler = new FrameAdmissionScheduler();
+        scheduler.setDutyCap(0.5f);
+        // A frame the quality gate turns away: busy for 3ms, no native compare.
+        scheduler.onComputeStarted(0);
+        scheduler.onComputeFinished(3 * MS);
+        assertEquals(0, scheduler.getLatencyEstimateNanos());
+        assertEquals(0, scheduler.getCompletedCount());
+        assertTrue(scheduler.admit(4 * MS));
+
+        // A compared frame: only the 80ms native compare is booked, and sets the duty gap.
+        scheduler.onComputeStarted(4 * MS);
+        scheduler.recordCompare(80 * MS);
+        scheduler.onComputeFinished(90 * MS);
+        assertEquals(80 * MS, scheduler.getLatencyEstimateNanos());
+        assertEquals(1, scheduler.getCompletedCount());
+        assertFalse(scheduler.admit(169 * MS));
+        assertTrue(scheduler.admit(171 * MS));
+    }
+
+    @Test
+    public void thermalStatusMapsToDecreasingDuty() {
+        assertEquals(1f, FrameAdmissionScheduler.dutyCapForThermalStatus(PowerManager.THERMAL_STATUS_LIGHT), 0f);
+        assertTrue(FrameAdmissionScheduler.dutyCapForThermalStatus(PowerManager.THERMAL_STATUS_MODERATE)
+                > FrameAdmissionScheduler.dutyCapForThermalStatus(PowerManager.THERMAL_STATUS_SEVERE));
+        assertTrue(FrameAdmissionScheduler.dutyCapForThermalStatus(PowerManager.THERMAL_STATUS_SEVERE)
+                > FrameAdmissionScheduler.dutyCapForThermalStatus(PowerManager.THERMAL_STATUS_CRITICAL));
+    }
+}
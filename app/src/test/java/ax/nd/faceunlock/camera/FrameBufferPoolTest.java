@@ -0,0 +1,131 @@
+package ax.nd.faceunlock.camera;
+
+import android.graphics.ImageFormat;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class FrameBufferPoolTest {
+    private static final int FRAME_SIZE = 2592 * 1952 * 3 / 2;
+    private static final int BUFFERS = 3;
+
+    @Test
+    public void reusesBuffersAcrossSessions() {
+        FrameBufferPool pool = new FrameBufferPool();
+        byte[] first = pool.acquire(FRAME_SIZE);
+        pool.queued(first);
+        pool.queued(pool.acquire(FRAME_SIZE));
+        pool.queued(pool.acquire(FRAME_SIZE));
+        pool.reclaim(FRAME_SIZE);
+
+        for (int session = 0; session < 10; session++) {
+            for (int n = 0; n < BUFFERS; n++) {
+                byte[] buffer = pool.acquire(FRAME_SIZE);
+                assertNotNull(buffer);
+                pool.queued(buffer);
+            }
+            pool.reclaim(FRAME_SIZE);
+        }
+        assertEquals(BUFFERS, pool.getAllocationCount());
+        assertSame(first, pool.acquire(FRAME_SIZE));
+    }
+
+    @Test
+    public void capsBuffersPerSize() {
+        FrameBufferPool pool = new FrameBufferPool();
+        for (int n = 0; n < 4; n++) assertNotNull(pool.acquire(16));
+        assertNull(pool.acquire(16));
+        assertNotNull(pool.acquire(32));
+    }
+
+    @Test
+    public void releaseIgnoresForeignAndDuplicateBuffers() {
+        FrameBufferPool pool = new FrameBufferPool();
+        byte[] buffer = pool.acquire(16);
+        pool.release(new byte[16]);
+        pool.release(buffer);
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(16));
+        assertNotSame(buffer, pool.acquire(16));
+    }
+
+    @Test
+    public void reclaimLeavesFramesAReceiverHolds() {
+        FrameBufferPool pool = new FrameBufferPool();
+        byte[] queued = pool.acquire(16);
+        byte[] held = pool.acquire(16);
+        pool.queued(queued);
+        pool.queued(held);
+        pool.delivered(held);
+
+        // The camera closes while the worker still has a frame.
+        pool.reclaim(16);
+        byte[] next = pool.acquire(16);
+        assertSame(queued, next);
+        pool.queued(next);
+        assertNotSame(held, pool.acquire(16));
+
+        // The worker finishes late; only the frame it held goes back, and only once.
+        pool.release(next);
+        pool.release(held);
+        pool.release(held);
+        assertSame(held, pool.acquire(16));
+        assertNotSame(next, pool.acquire(16));
+    }
+
+    @Test
+    public void steadyStateFramesDoNotAllocate() {
+        FrameBufferPool pool = new FrameBufferPool();
+        byte[] downscaled = new byte[640 * 480 * 3 / 2];
+
+        runSession(pool, downscaled, 200);
+        long allocationsBefore = pool.getAllocationCount();
+
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long bytesBefore = mx.getThreadAllocatedBytes(tid);
+        int frames = 10_000;
+        FakeCameraBackend backend = runSession(pool, downscaled, frames);
+        long bytesAfter = mx.getThreadAllocatedBytes(tid);
+
+        assertEquals(allocationsBefore, pool.getAllocationCount());
+        assertTrue(backend.closed.isDone());
+        long perFrame = (bytesAfter - bytesBefore) / frames;
+        assertTrue("allocated " + perFrame + " bytes per frame", perFrame < 8);
+    }
+
+    @Test
+    public void trimKeepsOnlyLentBuffers() {
+        FrameBufferPool pool = new FrameBufferPool();
+        byte[] free = pool.acquire(16);
+        byte[] lent = pool.acquire(16);
+        pool.release(free);
+        pool.trim();
+
+        assertNotSame(free, pool.acquire(16));
+        pool.release(lent);
+        assertSame(lent, pool.acquire(16));
+        assertEquals(3, pool.getAllocationCount());
+    }
+
+    /**
+     * Mirrors the enroll loop through the real pipeline: the camera fills a queued buffer, the
+     * sink downscales it and hands it straight back through {@link FramePipeline#recycle}.
+     */
+    private static FakeCameraBackend runSession(FrameBufferPool pool, byte[] dst, int frames) {
+        FakeCameraBackend backend = new FakeCameraBackend(pool);
+        FramePipeline pipeline = new FramePipeline(backend);
+        FrameDescriptor descriptor = new FrameDescriptor(1, 2592, 1952, ImageFormat.NV21);
+        pipeline.start(new CameraBackend.SessionConfig(1, null, null, descriptor, true), frame -> {
+            dst[frame[0] & 0xff] = frame[frame.length - 1];
+            pipeline.recycle(frame);
+        }, null);
+        backend.start(descriptor, null);
+        for (int f = 0; f < frames; f++) assertTrue(backend.pushQueued(f));
+        pipeline.stop();
+        return backend;
+    }
+}
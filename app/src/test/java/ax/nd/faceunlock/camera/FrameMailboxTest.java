@@ -0,0 +1,123 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class FrameMailboxTest {
+    private final ArrayDeque<Runnable> mQueue = new ArrayDeque<>();
+    private final FrameWorker mWorker = new FrameWorker(mQueue::add);
+    private final List<byte[]> mConsumed = new ArrayList<>();
+    private final List<byte[]> mRecycled = new ArrayList<>();
+
+    private FrameMailbox mailbox(int session) {
+        return new FrameMailbox(mWorker, session, mConsumed::add, mRecycled::add);
+    }
+
+    private void runQueued() {
+        Runnable task;
+        while ((task = mQueue.poll()) != null) task.run();
+    }
+
+    @Test
+    public void latestFrameWinsAndOneDrainIsQueued() {
+        FrameMailbox mailbox = mailbox(mWorker.beginSession());
+        byte[] a = new byte[1];
+        byte[] b = new byte[1];
+        byte[] c = new byte[1];
+        mailbox.offer(a);
+        mailbox.offer(b);
+        mailbox.offer(c);
+        assertEquals(1, mQueue.size());
+        runQueued();
+
+        assertEquals(1, mConsumed.size());
+        assertSame(c, mConsumed.get(0));
+        assertEquals(2, mRecycled.size());
+        assertSame(a, mRecycled.get(0));
+        assertSame(b, mRecycled.get(1));
+        assertEquals(1, mailbox.getProcessedCount());
+        assertEquals(2, mailbox.getDroppedCount());
+
+        // The slot is empty again, so the next frame queues a new drain.
+        mailbox.offer(a);
+        assertEquals(1, mQueue.size());
+    }
+
+    @Test
+    public void framesOfAnEndedSessionAreRecycled() {
+        int session = mWorker.beginSession();
+        FrameMailbox mailbox = mailbox(session);
+        byte[] waiting = new byte[1];
+        mailbox.offer(waiting);
+        mWorker.endSession(session);
+        runQueued();
+        byte[] late = new byte[1];
+        mailbox.offer(late);
+
+        assertTrue(mConsumed.isEmpty());
+        assertEquals(List.of(waiting, late), mRecycled);
+        assertEquals(0, mailbox.getProcessedCount());
+        assertEquals(2, mailbox.getDroppedCount());
+    }
+
+    @Test
+    public void clearRecyclesTheWaitingFrame() {
+        FrameMailbox mailbox = mailbox(mWorker.beginSession());
+        byte[] frame = new byte[1];
+        mailbox.offer(frame);
+        mailbox.clear();
+        mailbox.clear();
+        runQueued();
+        assertTrue(mConsumed.isEmpty());
+        assertEquals(List.of(frame), mRecycled);
+    }
+
+    @Test
+    public void everyFrameIsConsumedOrRecycledExactlyOnceUnderContention() throws Exception {
+        ExecutorService drainer = Executors.newSingleThreadExecutor();
+        FrameWorker worker = new FrameWorker(drainer);
+        AtomicInteger consumed = new AtomicInteger();
+        AtomicInteger recycled = new AtomicInteger();
+        AtomicIntegerArray seen = new AtomicIntegerArray(20000);
+        FrameMailbox mailbox = new FrameMailbox(worker, worker.beginSession(), frame -> {
+            seen.incrementAndGet(id(frame));
+            consumed.incrementAndGet();
+        }, frame -> {
+            seen.incrementAndGet(id(frame));
+            recycled.incrementAndGet();
+        });
+        CountDownLatch done = new CountDownLatch(2);
+        for (int t = 0; t < 2; t++) {
+            final int base = t * 10000;
+            new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    int id = base + i;
+                    mailbox.offer(new byte[]{(byte) id, (byte) (id >> 8)});
+                }
+                done.countDown();
+            }).start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        drainer.shutdown();
+        assertTrue(drainer.awaitTermination(10, TimeUnit.SECONDS));
+        mailbox.clear();
+
+        assertEquals(20000, consumed.get() + recycled.get());
+        for (int i = 0; i < seen.length(); i++) assertEquals(1, seen.get(i));
+    }
+
+    private static int id(byte[] frame) {
+        return (frame[0] & 0xff) | (frame[1] & 0xff) << 8;
+    }
+}
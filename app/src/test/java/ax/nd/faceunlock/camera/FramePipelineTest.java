@@ -0,0 +1,97 @@
+package ax.nd.faceunlock.camera;
+
+import android.graphics.ImageFormat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FramePipelineTest {
+    private static final FrameDescriptor VGA = new FrameDescriptor(1, 640, 480, ImageFormat.NV21);
+
+    private final FakeCameraBackend mBackend = new FakeCameraBackend();
+    private final FramePipeline mPipeline = new FramePipeline(mBackend);
+    private final List<byte[]> mDelivered = new ArrayList<>();
+    private final List<Exception> mErrors = new ArrayList<>();
+    private FrameDescriptor mStarted;
+
+    private void start() {
+        mPipeline.start(new CameraBackend.SessionConfig(1, null, null, null, false), mDelivered::add,
+                new FramePipeline.Listener() {
+                    @Override
+                    public void onStarted(FrameDescriptor descriptor, PreviewSizePlanner.Plan plan) {
+                        mStarted = descriptor;
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        mErrors.add(e);
+                    }
+                });
+    }
+
+    @Test
+    public void deliversFramesMatchingTheNegotiatedGeometry() {
+        start();
+        assertEquals(1, mBackend.config.cameraId);
+        assertFalse(mPipeline.isStreaming());
+        assertEquals(-1, mPipeline.getFirstFrameLatencyMs());
+
+        mBackend.start(VGA, null);
+        assertEquals(VGA, mStarted);
+        assertEquals(VGA, mPipeline.getDescriptor());
+        assertTrue(mPipeline.isStreaming());
+
+        byte[] frame = new byte[VGA.byteSize];
+        mBackend.push(frame, 42L);
+        assertEquals(1, mDelivered.size());
+        assertSame(frame, mDelivered.get(0));
+        assertEquals(42L, mPipeline.getLastTimestampNanos());
+        assertEquals(1, mPipeline.getFrameCount());
+        assertTrue(mPipeline.getFirstFrameLatencyMs() >= 0);
+        assertTrue(mPipeline.getMillisSinceLastFrame() >= 0);
+        assertTrue(mBackend.recycled.isEmpty());
+    }
+
+    @Test
+    public void recyclesFramesThatDoNotFit() {
+        start();
+        byte[] early = new byte[VGA.byteSize];
+        mBackend.push(early, 1L);
+        mBackend.start(VGA, null);
+        byte[] shortFrame = new byte[VGA.byteSize - 1];
+        mBackend.push(shortFrame, 2L);
+
+        assertTrue(mDelivered.isEmpty());
+        assertEquals(2, mPipeline.getRejectedCount());
+        assertSame(early, mBackend.recycled.get(0));
+        assertSame(shortFrame, mBackend.recycled.get(1));
+    }
+
+    @Test
+    public void stopRecyclesLateFramesAndClosesTheBackend() throws Exception {
+        start();
+        mBackend.start(VGA, null);
+        mPipeline.stop().get(1, TimeUnit.SECONDS);
+        assertTrue(mBackend.closed.isDone());
+        assertFalse(mPipeline.isStreaming());
+
+        byte[] late = new byte[VGA.byteSize];
+        mBackend.push(late, 3L);
+        mBackend.callback.onError(new RuntimeException("late"));
+        assertTrue(mDelivered.isEmpty());
+        assertSame(late, mBackend.recycled.get(0));
+        assertTrue(mErrors.isEmpty());
+    }
+
+    @Test
+    public void reportsErrorsWhileRunning() {
+        start();
+        mBackend.callback.onError(new IllegalStateException("disconnected"));
+        assertEquals(1, mErrors.size());
+    }
+}
@@ -0,0 +1,104 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameQualityGateTest {
+    static final int W = 640;
+    static final int H = 480;
+
+    static byte[] frame(int base, int noise, long seed) {
+        Random random = new Random(seed);
+        byte[] nv21 = new byte[W * H * 3 / 2];
+        for (int i = 0; i < W * H; i++) {
+            int v = base + (noise > 0 ? random.nextInt(2 * noise + 1) - noise : 0);
+            nv21[i] = (byte) Math.max(0, Math.min(255, v));
+        }
+        for (int i = W * H; i < nv21.length; i++) nv21[i] = (byte) 128;
+        return nv21;
+    }
+
+    /** 9x9 box blur of the luma plane (edges clamped), wide enough to wipe out pixel-level texture. */
+    private static byte[] blurred(byte[] src) {
+        byte[] out = src.clone();
+        int r = 4;
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                int sum = 0;
+                for (int dy = -r; dy <= r; dy++) {
+                    int sy = Math.max(0, Math.min(H - 1, y + dy));
+                    for (int dx = -r; dx <= r; dx++) {
+                        sum += src[sy * W + Math.max(0, Math.min(W - 1, x + dx))] & 0xff;
+                    }
+                }
+                out[y * W + x] = (byte) (sum / 81);
+            }
+        }
+        return out;
+    }
+
+    @Test
+    public void passesWellExposedTexturedFrame() {
+        FrameQualityGate gate = new FrameQualityGate(FrameQualityGate.Thresholds.DEFAULT);
+        assertEquals(FrameQualityGate.PASS, gate.evaluate(frame(120, 30, 1), W, H));
+        assertEquals(120, gate.getLastMeanLuma(), 2);
+        assertEquals(0, gate.getAvoidedCount());
+    }
+
+    @Test
+    public void rejectsDarkAndSaturatedFrames() {
+        FrameQualityGate gate = new FrameQualityGate(FrameQualityGate.Thresholds.DEFAULT);
+        assertEquals(FrameQualityGate.TOO_DARK, gate.evaluate(frame(15, 10, 2), W, H));
+        assertEquals(FrameQualityGate.TOO_BRIGHT, gate.evaluate(frame(250, 4, 3), W, H));
+
+        // Mid-grey on average, but most of the frame is crushed to black.
+        byte[] crushed = frame(120, 30, 4);
+        for (int i = 0; i < W * H * 7 / 10; i++) crushed[i] = 0;
+        for (int i = W * H * 7 / 10; i < W * H; i++) crushed[i] = (byte) 255;
+        assertEquals(FrameQualityGate.TOO_DARK, gate.evaluate(crushed, W, H));
+        assertEquals(3, gate.getAvoidedCount());
+        assertEquals(3, gate.getEvaluatedCount());
+    }
+
+    @Test
+    public void rejectsBlurredFrame() {
+        FrameQualityGate gate = new FrameQualityGate(FrameQualityGate.Thresholds.DEFAULT);
+        byte[] sharp = frame(120, 30, 5);
+        assertEquals(FrameQualityGate.PASS, gate.evaluate(sharp, W, H));
+        float sharpness = gate.getLastSharpness();
+        int verdict = gate.evaluate(blurred(sharp), W, H);
+        assertEquals(FrameQualityGate.BLURRY, verdict);
+        assertTrue(gate.getLastSharpness() < sharpness);
+    }
+
+    @Test
+    public void locatesTextureRelativeToCentre() {
+        FrameQualityGate gate = new FrameQualityGate(FrameQualityGate.Thresholds.DEFAULT);
+        byte[] centred = frame(120, 0, 8);
+        byte[] corner = frame(120, 0, 8);
+        byte[] texture = frame(120, 40, 9);
+        for (int y = 0; y < 120; y++) {
+            System.arraycopy(texture, y * W, centred, (180 + y) * W + 240, 160);
+            System.arraycopy(texture, y * W, corner, (10 + y) * W + 10, 160);
+        }
+        gate.evaluate(centred, W, H);
+        assertTrue(gate.getLastCentreOffset() < 0.05f);
+        gate.evaluate(corner, W, H);
+        assertTrue(gate.getLastCentreOffset() > 0.6f);
+    }
+
+    @Test
+    public void thresholdsRoundTripAndDisableBlurCheck() {
+        FrameQualityGate.Thresholds t = new FrameQualityGate.Thresholds(30, 200, 0.5f, 0f, 2);
+        FrameQualityGate.Thresholds decoded = FrameQualityGate.Thresholds.decode(t.encode());
+        assertEquals(t.encode(), decoded.encode());
+        assertSame(FrameQualityGate.Thresholds.DEFAULT, FrameQualityGate.Thresholds.decode("garbage"));
+        assertSame(FrameQualityGate.Thresholds.DEFAULT, FrameQualityGate.Thresholds.decode(null));
+
+        FrameQualityGate gate = new FrameQualityGate(decoded);
+        assertEquals(FrameQualityGate.PASS, gate.evaluate(frame(120, 0, 6), W, H));
+    }
+}
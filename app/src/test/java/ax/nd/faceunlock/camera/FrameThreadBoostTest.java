@@ -0,0 +1,198 @@
+package ax.nd.faceunlock.camera;
+
+import android.os.Process;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FrameThreadBoostTest {
+    private static final long MS = 1000000L;
+    private static final int TID = 42;
+
+    private static class FakeSession implements FrameThreadBoost.HintSession {
+        final List<Long> reports = new ArrayList<>();
+        boolean failReports;
+        int closes;
+
+        @Override
+        public void reportActualWorkDuration(long nanos) {
+            if (failReports) throw new IllegalStateException("session gone");
+            reports.add(nanos);
+        }
+
+        @Override
+        public void close() {
+            closes++;
+        }
+    }
+
+    private static class FakePlatform implements FrameThreadBoost.Platform {
+        final Map<Integer, Integer> priorities = new HashMap<>();
+        final List<FakeSession> sessions = new ArrayList<>();
+        final List<Long> targets = new ArrayList<>();
+        boolean hintSupported = true;
+
+        @Override
+        public int getThreadPriority(int tid) {
+            return priorities.getOrDefault(tid, 0);
+        }
+
+        @Override
+        public void setThreadPriority(int tid, int priority) {
+            priorities.put(tid, priority);
+        }
+
+        @Override
+        public FrameThreadBoost.HintSession createHintSession(int tid, long targetNanos) {
+            assertEquals(TID, tid);
+            if (!hintSupported) return null;
+            targets.add(targetNanos);
+            FakeSession session = new FakeSession();
+            sessions.add(session);
+            return session;
+        }
+    }
+
+    @Test
+    public void latencyIsSplitByBoostAndFirstFrame() {
+        FrameThreadBoost boost = new FrameThreadBoost(null, new FrameWorker("test"), FrameThreadBoost.DEFAULT_TARGET_NANOS);
+        boost.begin(false);
+        assertFalse(boost.isBoosting());
+        boost.reportWork(90 * MS);
+        boost.reportWork(60 * MS);
+        boost.end();
+
+        boost.begin(true);
+        assertTrue(boost.isBoosting());
+        boost.reportWork(50 * MS);
+        boost.reportWork(40 * MS);
+        boost.end();
+        assertFalse(boost.isBoosting());
+
+        // Nothing is recorded outside a session.
+        boost.reportWork(500 * MS);
+        boost.end();
+
+        String s = boost.toString();
+        assertTrue(s, s.contains("plain: sessions=1 frames=2 mean=75.0ms first=90.0ms"));
+        assertTrue(s, s.contains("boosted: sessions=1 frames=2 mean=45.0ms first=50.0ms"));
+    }
+
+    @Test
+    public void beginEndsThePreviousSession() {
+        FrameThreadBoost boost = new FrameThreadBoost(null, new FrameWorker("test"), FrameThreadBoost.DEFAULT_TARGET_NANOS);
+        boost.begin(true);
+        boost.reportWork(30 * MS);
+        boost.begin(false);
+        boost.reportWork(70 * MS);
+        boost.end();
+        String s = boost.toString();
+        assertTrue(s, s.contains("plain: sessions=1 frames=1 mean=70.0ms first=70.0ms"));
+        assertTrue(s, s.contains("boosted: sessions=1 frames=1 mean=30.0ms first=30.0ms"));
+    }
+
+    @Test
+    public void boostRaisesPriorityAndRestoresIt() {
+        FakePlatform platform = new FakePlatform();
+        platform.priorities.put(TID, 10);
+        FrameThreadBoost boost = new FrameThreadBoost(() -> TID, platform, 20 * MS);
+
+        boost.begin(true);
+        assertEquals(Process.THREAD_PRIORITY_DISPLAY, (int) platform.priorities.get(TID));
+        assertEquals(1, platform.sessions.size());
+        assertEquals(20 * MS, (long) platform.targets.get(0));
+        boost.reportWork(25 * MS);
+        boost.reportWork(15 * MS);
+        assertEquals(List.of(25 * MS, 15 * MS), platform.sessions.get(0).reports);
+
+        boost.end();
+        assertEquals(10, (int) platform.priorities.get(TID));
+        assertEquals(1, platform.sessions.get(0).closes);
+        boost.end();
+        assertEquals(1, platform.sessions.get(0).closes);
+    }
+
+    @Test
+    public void plainSessionLeavesTheThreadAlone() {
+        FakePlatform platform = new FakePlatform();
+        FrameThreadBoost boost = new FrameThreadBoost(() -> TID, platform, 20 * MS);
+        boost.begin(false);
+        boost.reportWork(30 * MS);
+        boost.end();
+        assertTrue(platform.priorities.isEmpty());
+        assertTrue(platform.sessions.isEmpty());
+    }
+
+    @Test
+    public void noThreadMeansNoBoost() {
+        FakePlatform platform = new FakePlatform();
+        FrameThreadBoost boost = new FrameThreadBoost(() -> 0, platform, 20 * MS);
+        boost.begin(true);
+        boost.reportWork(30 * MS);
+        boost.end();
+        assertTrue(platform.priorities.isEmpty());
+        assertTrue(platform.sessions.isEmpty());
+        assertTrue(boost.toString(), boost.toString().contains("boosted: sessions=1 frames=1"));
+    }
+
+    @Test
+    public void failingSessionIsClosedAndPriorityStillRestored() {
+        FakePlatform platform = new FakePlatform();
+        FrameThreadBoost boost = new FrameThreadBoost(() -> TID, platform, 20 * MS);
+        boost.begin(true);
+        FakeSession session = platform.sessions.get(0);
+        session.failReports = true;
+        boost.reportWork(30 * MS);
+        assertEquals(1, session.closes);
+        session.failReports = false;
+        boost.reportWork(30 * MS);
+        assertTrue(session.reports.isEmpty());
+
+        boost.end();
+        assertEquals(1, session.closes);
+        assertEquals(0, (int) platform.priorities.get(TID));
+    }
+
+    @Test
+    public void boostNeverLowersAThreadAlreadyAboveIt() {
+        FakePlatform platform = new FakePlatform();
+        platform.priorities.put(TID, Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        FrameThreadBoost boost = new FrameThreadBoost(() -> TID, platform, 20 * MS);
+
+        boost.begin(true);
+        assertEquals(Process.THREAD_PRIORITY_URGENT_DISPLAY, (int) platform.priorities.get(TID));
+        boost.end();
+        assertEquals(Process.THREAD_PRIORITY_URGENT_DISPLAY, (int) platform.priorities.get(TID));
+    }
+
+    @Test
+    public void priorityBoostWorksWithoutHintSessions() {
+        FakePlatform platform = new FakePlatform();
+        platform.hintSupported = false;
+        FrameThreadBoost boost = new FrameThreadBoost(() -> TID, platform, 20 * MS);
+        boost.begin(true);
+        assertEquals(Process.THREAD_PRIORITY_DISPLAY, (int) platform.priorities.get(TID));
+        boost.reportWork(30 * MS);
+        boost.end();
+        assertEquals(0, (int) platform.priorities.get(TID));
+    }
+
+    @Test
+    public void beginRestoresThePreviousBoost() {
+        FakePlatform platform = new FakePlatform();
+        platform.priorities.put(TID, 5);
+        FrameThreadBoost boost = new FrameThreadBoost(() -> TID, platform, 20 * MS);
+        boost.begin(true);
+        boost.begin(true);
+        assertEquals(1, platform.sessions.get(0).closes);
+        assertEquals(0, platform.sessions.get(1).closes);
+        boost.end();
+        assertEquals(5, (int) platform.priorities.get(TID));
+    }
+}
@@ -0,0 +1,61 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameWorkerTest {
+    /** Work waits here until the test runs it, as it would in the worker's queue. */
+    private final ArrayDeque<Runnable> mQueue = new ArrayDeque<>();
+    private final FrameWorker mWorker = new FrameWorker(mQueue::add);
+    private final List<String> mRan = new ArrayList<>();
+
+    private void runQueued() {
+        Runnable task;
+        while ((task = mQueue.poll()) != null) task.run();
+    }
+
+    @Test
+    public void workRunsOnlyForTheActiveSession() {
+        int first = mWorker.beginSession();
+        assertTrue(mWorker.isActive(first));
+        assertTrue(mWorker.post(first, () -> mRan.add("first")));
+
+        // A new session supersedes the first before its queued work gets to run.
+        int second = mWorker.beginSession();
+        assertNotEquals(first, second);
+        assertFalse(mWorker.isActive(first));
+        assertTrue(mWorker.post(second, () -> mRan.add("second")));
+        assertFalse(mWorker.post(first, () -> mRan.add("late")));
+        runQueued();
+
+        assertEquals(List.of("second"), mRan);
+        assertEquals(2, mWorker.getRejectedCount());
+    }
+
+    @Test
+    public void endingAnOldSessionLeavesTheNewOneActive() {
+        int first = mWorker.beginSession();
+        int second = mWorker.beginSession();
+        mWorker.endSession(first);
+        assertTrue(mWorker.isActive(second));
+
+        mWorker.post(second, () -> mRan.add("queued"));
+        mWorker.endSession(second);
+        assertFalse(mWorker.isActive(second));
+        runQueued();
+        assertTrue(mRan.isEmpty());
+        assertEquals(1, mWorker.getRejectedCount());
+    }
+
+    @Test
+    public void noSessionIsNeverActive() {
+        assertFalse(mWorker.isActive(0));
+        assertFalse(mWorker.post(0, () -> mRan.add("none")));
+        assertEquals(0, mWorker.getThreadId());
+    }
+}
@@ -0,0 +1,182 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NV21ResamplerTest {
+    static final int DST_W = 640;
+    static final int DST_H = 480;
+
+    @Test
+    public void nearestMatchesLegacyKernelsOnLuma() {
+        // 1280x720 at 2x is left out: the old kernel ran past the bottom of the frame there.
+        int[][] profiles = {{2592, 1952, 4}, {2304, 1728, 3}, {1920, 1080, 2}};
+        for (int[] p : profiles) {
+            byte[] src = noise(p[0], p[1], p[2]);
+            byte[] expected = new byte[DST_W * DST_H * 3 / 2];
+            byte[] actual = new byte[expected.length];
+            legacyDownscale(src, p[0], p[1], expected, p[2]);
+            resampler(p[0], p[1], p[2], NV21Resampler.Filter.NEAREST, 1).resample(src, actual);
+            for (int i = 0; i < DST_W * DST_H; i++) {
+                assertEquals(p[0] + "x" + p[1] + " luma " + i, expected[i], actual[i]);
+            }
+        }
+    }
+
+    /**
+     * The old kernel offset VU columns by half the horizontal crop, so its chroma sat left of the
+     * luma. Without a horizontal crop the planes match exactly; with one, each chroma row matches
+     * the old one read that many columns further right.
+     */
+    @Test
+    public void nearestMatchesLegacyKernelsOnChroma() {
+        int[][] profiles = {{2560, 1952, 4}, {1280, 1080, 2}, {2592, 1952, 4}, {2304, 1728, 3}, {1920, 1080, 2}};
+        for (int[] p : profiles) {
+            byte[] src = noise(p[0], p[1], p[2]);
+            byte[] expected = new byte[DST_W * DST_H * 3 / 2];
+            byte[] actual = new byte[expected.length];
+            legacyDownscale(src, p[0], p[1], expected, p[2]);
+            resampler(p[0], p[1], p[2], NV21Resampler.Filter.NEAREST, 1).resample(src, actual);
+            int shift = Math.max(0, (p[0] / p[2] - DST_W) / 2) / 2;
+            for (int y = 0; y < DST_H / 2; y++) {
+                int row = DST_W * DST_H + y * DST_W;
+                for (int x = 0; x + shift < DST_W; x++) {
+                    assertEquals(p[0] + "x" + p[1] + " chroma " + x + "," + y, expected[row + x + shift], actual[row + x]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void identityCropMatchesLegacyCropExactly() {
+        byte[] src = noise(800, 600, 1);
+        byte[] expected = new byte[DST_W * DST_H * 3 / 2];
+        byte[] actual = new byte[expected.length];
+        legacyCrop(src, 800, 600, expected);
+        for (NV21Resampler.Filter filter : NV21Resampler.Filter.values()) {
+            resampler(800, 600, 1, filter, 1).resample(src, actual);
+            assertArrayEquals(filter.name(), expected, actual);
+        }
+    }
+
+    @Test
+    public void boxAveragesIntegerBlocks() {
+        // 4x4 blocks of 0 and 255 alternating per column in the source average to exactly 127/128.
+        int w = 2560, h = 1920;
+        byte[] src = new byte[w * h * 3 / 2];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) src[y * w + x] = (byte) ((x & 1) == 0 ? 0 : 255);
+        }
+        for (int i = w * h; i < src.length; i += 2) {
+            src[i] = (byte) 100;
+            src[i + 1] = (byte) 200;
+        }
+        byte[] dst = new byte[DST_W * DST_H * 3 / 2];
+        new NV21Resampler(w, h, 0, 0, w, h, DST_W, DST_H, NV21Resampler.Filter.BOX).resample(src, dst);
+        for (int i = 0; i < DST_W * DST_H; i++) assertEquals(128, dst[i] & 0xFF);
+        for (int i = DST_W * DST_H; i < dst.length; i += 2) {
+            assertEquals(100, dst[i] & 0xFF);
+            assertEquals(200, dst[i + 1] & 0xFF);
+        }
+    }
+
+    @Test
+    public void nonIntegerRatioPreservesFlatFieldsAndGradients() {
+        int w = 1600, h = 1200;
+        byte[] src = new byte[w * h * 3 / 2];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) src[y * w + x] = (byte) (x * 255 / (w - 1));
+        }
+        for (int i = w * h; i < src.length; i += 2) {
+            src[i] = (byte) 90;
+            src[i + 1] = (byte) 160;
+        }
+        for (NV21Resampler.Filter filter : new NV21Resampler.Filter[]{NV21Resampler.Filter.BOX, NV21Resampler.Filter.BILINEAR}) {
+            byte[] dst = new byte[DST_W * DST_H * 3 / 2];
+            new NV21Resampler(w, h, 0, 0, w, h, DST_W, DST_H, filter).resample(src, dst);
+            for (int y = 0; y < DST_H; y++) {
+                for (int x = 0; x < DST_W; x++) {
+                    int value = dst[y * DST_W + x] & 0xFF;
+                    int ideal = (int) Math.round(((x + 0.5) * w / DST_W - 0.5) * 255.0 / (w - 1));
+                    assertTrue(filter + " " + x + "," + y + ": " + value + " vs " + ideal, Math.abs(value - ideal) <= 1);
+                }
+            }
+            for (int i = DST_W * DST_H; i < dst.length; i += 2) {
+                assertEquals(90, dst[i] & 0xFF);
+                assertEquals(160, dst[i + 1] & 0xFF);
+            }
+        }
+    }
+
+    @Test
+    public void parallelBandsMatchSingleThread() {
+        byte[] src = noise(2592, 1952, 4);
+        byte[] single = new byte[DST_W * DST_H * 3 / 2];
+        byte[] banded = new byte[single.length];
+        resampler(2592, 1952, 4, NV21Resampler.Filter.BOX, 1).resample(src, single);
+        resampler(2592, 1952, 4, NV21Resampler.Filter.BOX, 4).resample(src, banded);
+        assertArrayEquals(single, banded);
+    }
+
+    @Test
+    public void rejectsCropOutsideSource() {
+        try {
+            new NV21Resampler(640, 480, 2, 0, 640, 480, 320, 240, NV21Resampler.Filter.BOX);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    static NV21Resampler resampler(int w, int h, int scale, NV21Resampler.Filter filter, int parallelism) {
+        return new NV21Resampler(NV21Resampler.centerCrop(w, h, DST_W * scale, DST_H * scale, DST_W, DST_H, filter), parallelism);
+    }
+
+    static byte[] noise(int w, int h, int seed) {
+        byte[] data = new byte[w * h * 3 / 2];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /** The integer-ratio kernel previously in CameraFaceEnrollController. */
+    static void legacyDownscale(byte[] src, int srcWidth, int srcHeight, byte[] dest, int scale) {
+        int xOffset = Math.max(0, (srcWidth / scale - DST_W) / 2);
+        int yOffset = Math.max(0, (srcHeight / scale - DST_H) / 2);
+        for (int y = 0; y < DST_H; y++) {
+            int srcY = (y + yOffset) * scale;
+            if (srcY >= srcHeight) break;
+            for (int x = 0; x < DST_W; x++) {
+                dest[y * DST_W + x] = src[srcY * srcWidth + (x + xOffset) * scale];
+            }
+        }
+        int uvSrcStart = srcWidth * srcHeight;
+        int uvDstStart = DST_W * DST_H;
+        for (int y = 0; y < DST_H / 2; y++) {
+            int srcY = (y + yOffset / 2) * scale;
+            if (srcY >= srcHeight / 2) break;
+            for (int x = 0; x < DST_W; x += 2) {
+                int srcIndex = uvSrcStart + srcY * srcWidth + (x + xOffset / 2) * scale;
+                dest[uvDstStart + y * DST_W + x] = src[srcIndex];
+                dest[uvDstStart + y * DST_W + x + 1] = src[srcIndex + 1];
+            }
+        }
+    }
+
+    /** The 1:1 center crop previously in CameraFaceEnrollController. */
+    private static void legacyCrop(byte[] src, int srcWidth, int srcHeight, byte[] dest) {
+        int xOffset = (srcWidth - DST_W) / 2;
+        int yOffset = (srcHeight - DST_H) / 2;
+        if (xOffset % 2 != 0) xOffset--;
+        if (yOffset % 2 != 0) yOffset--;
+        for (int i = 0; i < DST_H; i++) {
+            System.arraycopy(src, (yOffset + i) * srcWidth + xOffset, dest, i * DST_W, DST_W);
+        }
+        int uvSrcStart = srcWidth * srcHeight;
+        int uvDstStart = DST_W * DST_H;
+        for (int i = 0; i < DST_H / 2; i++) {
+            System.arraycopy(src, uvSrcStart + (yOffset / 2 + i) * srcWidth + xOffset, dest, uvDstStart + i * DST_W, DST_W);
+        }
+    }
+}
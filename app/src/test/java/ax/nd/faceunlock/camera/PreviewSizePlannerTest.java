@@ -0,0 +1,110 @@
+package ax.nd.faceunlock.camera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PreviewSizePlannerTest {
+    private static final List<Integer> ZOOM_RATIOS = Arrays.asList(100, 102, 104, 107, 110, 113, 116, 120, 124, 128, 132);
+
+    private static List<PreviewSizePlanner.Size> sizes(int... dims) {
+        List<PreviewSizePlanner.Size> list = new ArrayList<>();
+        for (int i = 0; i < dims.length; i += 2) list.add(new PreviewSizePlanner.Size(dims[i], dims[i + 1]));
+        return list;
+    }
+
+    private static PreviewSizePlanner.Request engine(float zoom, List<Integer> ratios) {
+        return new PreviewSizePlanner.Request(640, 480, zoom, ratios);
+    }
+
+    @Test
+    public void prefersExactEngineSizeOverFullSensor() {
+        PreviewSizePlanner.Plan plan = new PreviewSizePlanner().plan(
+                sizes(2592, 1952, 1920, 1080, 1280, 960, 640, 480, 320, 240), engine(1f, null));
+        assertEquals(640, plan.size.width);
+        assertEquals(480, plan.size.height);
+        assertEquals(640, plan.cropWidth);
+        assertEquals(1.0, plan.cost.total, 1e-9);
+    }
+
+    @Test
+    public void picksSmallestSizeThatAvoidsUpscaling() {
+        PreviewSizePlanner.Plan plan = new PreviewSizePlanner().plan(
+                sizes(2592, 1952, 1280, 960, 800, 600, 352, 288), engine(1f, null));
+        assertEquals(800, plan.size.width);
+        assertEquals(0.0, plan.cost.upscale, 1e-9);
+    }
+
+    @Test
+    public void wideSizesPayForTheAspectCrop() {
+        PreviewSizePlanner.Plan plan = new PreviewSizePlanner().plan(sizes(1280, 720, 1024, 768), engine(1f, null));
+        assertEquals(1024, plan.size.width);
+
+        List<PreviewSizePlanner.Plan> all = new PreviewSizePlanner().evaluate(sizes(1280, 720), engine(1f, null));
+        PreviewSizePlanner.Plan wide = all.get(0);
+        assertEquals(960, wide.cropWidth);
+        assertEquals(720, wide.cropHeight);
+        assertEquals(160, wide.cropX);
+        assertEquals(0.25, wide.cost.aspect, 1e-9);
+    }
+
+    @Test
+    public void hardwareZoomKeepsSmallPreviewUsable() {
+        PreviewSizePlanner.Plan plan = new PreviewSizePlanner().plan(
+                sizes(2592, 1952, 1280, 960, 640, 480), engine(1.1f, ZOOM_RATIOS));
+        assertEquals(640, plan.size.width);
+        assertEquals(4, plan.zoomIndex);
+        assertEquals(1.1f, plan.hardwareZoom, 1e-6);
+        assertEquals(1f, plan.softwareZoom, 1e-6);
+    }
+
+    @Test
+    public void softwareZoomNeedsALargerFrame() {
+        PreviewSizePlanner.Plan plan = new PreviewSizePlanner().plan(
+                sizes(1280, 960, 800, 600, 640, 480), engine(1.2f, null));
+        assertEquals(800, plan.size.width);
+        assertEquals(1.2f, plan.softwareZoom, 1e-6);
+        assertEquals(666, plan.cropWidth);
+        assertEquals((800 - 666) / 2 & ~1, plan.cropX);
+        assertTrue(plan.cost.zoomCrop > 0);
+    }
+
+    @Test
+    public void costModelWeightsAreHonoured() {
+        PreviewSizePlanner.CostModel qualityFirst = new PreviewSizePlanner.CostModel(0.0, 2.0, 0.0, 1.0, 8.0);
+        List<PreviewSizePlanner.Plan> plans = new PreviewSizePlanner(qualityFirst).evaluate(
+                sizes(2592, 1952, 640, 480), engine(1f, null));
+        assertEquals(2, plans.size());
+        assertEquals(plans.get(0).cost.total, plans.get(1).cost.total, 0.02);
+        assertTrue(plans.get(0).cost.total <= plans.get(1).cost.total);
+
+        PreviewSizePlanner.Plan fullSensor = new PreviewSizePlanner().evaluate(sizes(2592, 1952), engine(1f, null)).get(0);
+        assertEquals(2592.0 * 1952 / (640 * 480), fullSensor.cost.bandwidth, 1e-9);
+        assertTrue(fullSensor.cost.total > 20);
+    }
+
+    @Test
+    public void onlyEnrollAsksForTheCropZoom() {
+        CameraCapabilities caps = new CameraCapabilities("fp", 1, 1, 270, sizes(1280, 960, 640, 480),
+                Arrays.asList(17), true, 30, ZOOM_RATIOS, new ArrayList<>());
+        PreviewSizePlanner.Plan enroll = new PreviewSizePlanner().plan(caps, true);
+        assertEquals(3, enroll.zoomIndex);
+        assertEquals(1.07f, enroll.hardwareZoom, 1e-6f);
+
+        PreviewSizePlanner.Plan auth = new PreviewSizePlanner().plan(caps, false);
+        assertEquals(0, auth.zoomIndex);
+        assertEquals(1f, auth.hardwareZoom, 0f);
+        assertEquals(1f, auth.softwareZoom, 0f);
+        assertEquals(auth.size.width, auth.cropWidth);
+    }
+
+    @Test
+    public void emptyListYieldsNoPlan() {
+        assertNull(new PreviewSizePlanner().plan(new ArrayList<>(), engine(1f, null)));
+        assertNull(new PreviewSizePlanner().plan(null, engine(1f, null)));
+    }
+}
@@ -0,0 +1,116 @@
+package com.megvii.facepp.sdk;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class FeatureRestoreHelperTest {
+
+    /** An engine that holds the templates in {@code valid} and re-extracts those in {@code restorable}. */
+    private static final class FakeLite extends Lite {
+        final Set<Integer> valid = new HashSet<>();
+        final Set<Integer> restorable = new HashSet<>();
+        final List<Integer> checked = new ArrayList<>();
+        final Map<Integer, byte[]> restoredFrom = new HashMap<>();
+        final Set<byte[]> scratch = new HashSet<>();
+
+        @Override
+        public int checkFeatureValid(int i) {
+            checked.add(i);
+            return valid.contains(i) ? 0 : 1;
+        }
+
+        @Override
+        public int getFeatureCount() {
+            return valid.size();
+        }
+
+        @Override
+        public int restoreFeatureAt(int i, byte[] bArr, int i2, int i3, int i4, byte[] bArr2, byte[] bArr3) {
+            restoredFrom.put(i, bArr.clone());
+            scratch.add(bArr2);
+            scratch.add(bArr3);
+            return restorable.contains(i) ? 0 : 1;
+        }
+    }
+
+    private static String dir() throws IOException {
+        java.io.File dir = Files.createTempDirectory("restore").toFile();
+        dir.deleteOnExit();
+        return dir.getPath();
+    }
+
+    private static byte[] image(int seed) {
+        byte[] data = new byte[144 * 144];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (seed + i * 3);
+        return data;
+    }
+
+    private static FeatureRestoreHelper helper(FakeLite lite, String path, int... ids) {
+        FeatureRestoreHelper helper = new FeatureRestoreHelper();
+        helper.setLite(lite);
+        for (int id : ids) helper.saveRestoreImage(image(id), path, id);
+        return helper;
+    }
+
+    @Test
+    public void onlyInvalidTemplatesAreReExtracted() throws IOException {
+        String path = dir();
+        FakeLite lite = new FakeLite();
+        lite.valid.add(1);
+        lite.valid.add(3);
+        lite.restorable.add(2);
+        FeatureRestoreHelper helper = helper(lite, path, 1, 2, 3, 4);
+
+        assertEquals(0, helper.restoreAllFeature(path));
+        assertEquals(List.of(1, 2, 3, 4), lite.checked);
+        assertEquals(Set.of(2, 4), lite.restoredFrom.keySet());
+        assertArrayEquals(image(2), lite.restoredFrom.get(2));
+        assertArrayEquals(image(4), lite.restoredFrom.get(4));
+        // One feature and one face buffer, shared by both re-extractions.
+        assertEquals(2, lite.scratch.size());
+    }
+
+    @Test
+    public void allValidSkipsTheRestoreImages() throws IOException {
+        String path = dir();
+        FakeLite lite = new FakeLite();
+        lite.valid.add(1);
+        lite.valid.add(2);
+        FeatureRestoreHelper helper = helper(lite, path, 1, 2);
+
+        assertEquals(0, helper.restoreAllFeature(path));
+        assertTrue(lite.restoredFrom.isEmpty());
+        assertTrue(lite.scratch.isEmpty());
+    }
+
+    @Test
+    public void failsWhenNothingIsUsable() throws IOException {
+        String path = dir();
+        FakeLite lite = new FakeLite();
+        FeatureRestoreHelper helper = helper(lite, path, 1, 2);
+
+        assertEquals(24, helper.restoreAllFeature(path));
+        assertEquals(Set.of(1, 2), lite.restoredFrom.keySet());
+    }
+
+    @Test
+    public void failsWithoutRestoreImages() throws IOException {
+        String path = dir();
+        FakeLite lite = new FakeLite();
+        lite.valid.add(1);
+        FeatureRestoreHelper helper = helper(lite, path);
+
+        assertEquals(24, helper.restoreAllFeature(path));
+        assertTrue(lite.checked.isEmpty());
+    }
+}
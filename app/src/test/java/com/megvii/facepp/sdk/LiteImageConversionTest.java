@@ -0,0 +1,196 @@
+package com.megvii.facepp.sdk;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LiteImageConversionTest {
+
+    /** One YUV_420_888 image as the three plane views an Image would hand out. */
+    static final class Planes {
+        final String name;
+        final int width;
+        final int height;
+        final ByteBuffer[] buffers;
+        final int[] rowStrides;
+        final int[] pixelStrides;
+
+        Planes(String name, int width, int height, ByteBuffer[] buffers, int[] rowStrides, int[] pixelStrides) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.buffers = buffers;
+            this.rowStrides = rowStrides;
+            this.pixelStrides = pixelStrides;
+        }
+
+        void rewind() {
+            for (ByteBuffer b : buffers) b.rewind();
+        }
+
+        Planes readOnly() {
+            ByteBuffer[] ro = new ByteBuffer[3];
+            for (int i = 0; i < 3; i++) ro[i] = buffers[i].asReadOnlyBuffer();
+            return new Planes(name + "/ro", width, height, ro, rowStrides, pixelStrides);
+        }
+    }
+
+    private static ByteBuffer random(Random random, int size) {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(data).rewind();
+        return buffer;
+    }
+
+    private static ByteBuffer slice(ByteBuffer parent, int offset, int length) {
+        ByteBuffer dup = parent.duplicate();
+        dup.position(offset).limit(offset + length);
+        return dup.slice();
+    }
+
+    private static ByteBuffer lumaPlane(Random random, int width, int height, int rowStride) {
+        return random(random, rowStride * (height - 1) + width);
+    }
+
+    /** Semi-planar chroma: one buffer, V and U one byte apart in either order, last row unpadded. */
+    private static Planes semiPlanar(String name, int width, int height, int yStride, int uvStride, boolean vFirst, Random random) {
+        int rowBytes = width - 1;
+        int length = uvStride * (height / 2 - 1) + rowBytes;
+        ByteBuffer chroma = random(random, length + 1);
+        ByteBuffer first = slice(chroma, 0, length);
+        ByteBuffer second = slice(chroma, 1, length);
+        ByteBuffer u = vFirst ? second : first;
+        ByteBuffer v = vFirst ? first : second;
+        return new Planes(name, width, height, new ByteBuffer[]{lumaPlane(random, width, height, yStride), u, v},
+                new int[]{yStride, uvStride, uvStride}, new int[]{1, 2, 2});
+    }
+
+    private static Planes planar(String name, int width, int height, int yStride, int uvStride, int uvPixel, Random random) {
+        int cw = width / 2;
+        int length = uvStride * (height / 2 - 1) + (cw - 1) * uvPixel + 1;
+        return new Planes(name, width, height,
+                new ByteBuffer[]{lumaPlane(random, width, height, yStride), random(random, length), random(random, length)},
+                new int[]{yStride, uvStride, uvStride}, new int[]{1, uvPixel, uvPixel});
+    }
+
+    static Planes[] layouts(int width, int height, Random random) {
+        return new Planes[]{
+                semiPlanar("nv21", width, height, width, width, true, random),
+                semiPlanar("nv21-padded", width, height, width + 64, width + 64, true, random),
+                semiPlanar("nv12", width, height, width, width, false, random),
+                planar("separate-stride2", width, height, width, width + 32, 2, random),
+                planar("i420", width, height, width, width / 2, 1, random),
+                planar("i420-padded", width, height, width + 32, width / 2 + 16, 1, random),
+                planar("stride3", width, height, width, width * 3 / 2 + 6, 3, random),
+        };
+    }
+
+    static int convert(Planes p, byte[] out, byte[] scratch) {
+        p.rewind();
+        return Lite.yuvToNV21(p.width, p.height,
+                p.buffers[0], p.rowStrides[0], p.pixelStrides[0],
+                p.buffers[1], p.rowStrides[1], p.pixelStrides[1],
+                p.buffers[2], p.rowStrides[2], p.pixelStrides[2], out, scratch);
+    }
+
+    /** The previous readImageIntoBuffer + revertHalf, unchanged apart from taking the planes directly. */
+    static void legacy(Planes p, byte[] bArr) {
+        p.rewind();
+        int i3 = 0;
+        for (int i4 = 0; i4 < 3; i4++) {
+            ByteBuffer buffer = p.buffers[i4];
+            int rowStride = p.rowStrides[i4];
+            int pixelStride = p.pixelStrides[i4];
+            int i = i4 == 0 ? p.width : p.width / 2;
+            int i2 = i4 == 0 ? p.height : p.height / 2;
+            if (pixelStride == 1 && rowStride == i) {
+                int i5 = i * i2;
+                buffer.get(bArr, i3, i5);
+                i3 += i5;
+            } else {
+                byte[] bArr2 = new byte[rowStride];
+                int i6 = i3;
+                for (int i7 = 0; i7 < i2 - 1; i7++) {
+                    buffer.get(bArr2, 0, rowStride);
+                    for (int i9 = 0; i9 < i; i9++) bArr[i6++] = bArr2[i9 * pixelStride];
+                }
+                buffer.get(bArr2, 0, Math.min(rowStride, buffer.remaining()));
+                for (int i10 = 0; i10 < i; i10++) bArr[i6++] = bArr2[i10 * pixelStride];
+                i3 = i6;
+            }
+        }
+        int length = bArr.length;
+        byte[] bArr2 = new byte[length / 3];
+        int i2 = length / 6;
+        int u = i2 * 4;
+        int v = i2 * 5;
+        for (int i5 = 0; i5 < bArr2.length - 1; i5 += 2) {
+            bArr2[i5] = bArr[v++];
+            bArr2[i5 + 1] = bArr[u++];
+        }
+        int i6 = length / 3 * 2;
+        System.arraycopy(bArr2, 0, bArr, i6, length - i6);
+    }
+
+    @Test
+    public void matchesLegacyConversionByteForByte() {
+        Random random = new Random(7);
+        int[][] sizes = {{640, 480}, {1280, 720}, {1920, 1080}, {176, 144}};
+        for (int[] size : sizes) {
+            for (Planes p : layouts(size[0], size[1], random)) {
+                for (Planes variant : new Planes[]{p, p.readOnly()}) {
+                    byte[] expected = new byte[size[0] * size[1] * 3 / 2];
+                    byte[] actual = new byte[expected.length];
+                    legacy(variant, expected);
+                    assertEquals(0, convert(variant, actual, new byte[size[0]]));
+                    assertArrayEquals(variant.name + " " + size[0] + "x" + size[1], expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void aliasProbeLeavesTheImageUntouched() {
+        Planes p = semiPlanar("nv21", 64, 48, 64, 64, true, new Random(3));
+        byte[] before = new byte[p.buffers[1].capacity()];
+        p.rewind();
+        p.buffers[1].get(before);
+        convert(p, new byte[64 * 48 * 3 / 2], null);
+        byte[] after = new byte[before.length];
+        p.rewind();
+        p.buffers[1].get(after);
+        assertArrayEquals(before, after);
+    }
+
+    @Test
+    public void rejectsShortOutput() {
+        Planes p = planar("i420", 64, 48, 64, 32, 1, new Random(1));
+        assertEquals(1, convert(p, new byte[64 * 48], null));
+    }
+
+    @Test
+    public void steadyStateConversionDoesNotAllocate() {
+        Random random = new Random(5);
+        Planes[] layouts = layouts(640, 480, random);
+        byte[] out = new byte[640 * 480 * 3 / 2];
+        for (Planes p : layouts) convert(p, out, null);
+
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        int frames = 0;
+        long bytesBefore = mx.getThreadAllocatedBytes(tid);
+        for (int n = 0; n < 50; n++) {
+            for (Planes p : layouts) {
+                convert(p, out, null);
+                frames++;
+            }
+        }
+        long perFrame = (mx.getThreadAllocatedBytes(tid) - bytesBefore) / frames;
+        assertTrue("allocated " + perFrame + " bytes per frame", perFrame < 8);
+    }
+}
@@ -0,0 +1,141 @@
+package com.megvii.facepp.sdk;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class TemplateStoreTest {
+
+    private static File storeFile() throws IOException {
+        File dir = Files.createTempDirectory("store").toFile();
+        dir.deleteOnExit();
+        return new File(dir, "templates");
+    }
+
+    private static byte[] record(int seed, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) (seed + i * 7);
+        return data;
+    }
+
+    private static void flipByte(File file, long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0xff);
+        }
+    }
+
+    @Test
+    public void putReplaceAndRemove() throws IOException {
+        TemplateStore store = new TemplateStore(storeFile());
+        store.open();
+        assertEquals(0, store.ids().length);
+        assertNull(store.read(1));
+
+        assertTrue(store.put(1, record(1, 100)));
+        assertTrue(store.put(2, record(2, 50)));
+        assertArrayEquals(new int[]{1, 2}, store.ids());
+        assertArrayEquals(record(1, 100), store.read(1));
+        assertArrayEquals(record(2, 50), store.read(2));
+
+        assertTrue(store.put(1, record(9, 30)));
+        assertArrayEquals(new int[]{1, 2}, store.ids());
+        assertArrayEquals(record(9, 30), store.read(1));
+
+        assertTrue(store.remove(1));
+        assertArrayEquals(new int[]{2}, store.ids());
+        assertNull(store.read(1));
+        assertArrayEquals(record(2, 50), store.read(2));
+        assertTrue(store.remove(7));
+    }
+
+    @Test
+    public void survivesReopen() throws IOException {
+        File file = storeFile();
+        TemplateStore store = new TemplateStore(file);
+        store.open();
+        store.put(3, record(3, 40000));
+        store.put(4, record(4, 40000));
+
+        TemplateStore reopened = new TemplateStore(file);
+        reopened.open();
+        assertArrayEquals(new int[]{3, 4}, reopened.ids());
+        assertArrayEquals(record(3, 40000), reopened.read(3));
+        assertArrayEquals(record(4, 40000), reopened.read(4));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void damagedRecordIsReportedMissing() throws IOException {
+        File file = storeFile();
+        TemplateStore store = new TemplateStore(file);
+        store.open();
+        store.put(1, record(1, 64));
+        store.put(2, record(2, 64));
+        // Header and two entries, then record 1; damage its last byte.
+        flipByte(file, 16 + 2 * 16 + 63);
+
+        TemplateStore reopened = new TemplateStore(file);
+        reopened.open();
+        assertNull(reopened.read(1));
+        assertArrayEquals(record(2, 64), reopened.read(2));
+        assertEquals(1, reopened.getCorruptRecordCount());
+
+        // The next write drops the damaged record instead of carrying it forward.
+        reopened.put(5, record(5, 8));
+        assertArrayEquals(new int[]{2, 5}, reopened.ids());
+    }
+
+    @Test
+    public void damagedHeaderIsQuarantined() throws IOException {
+        File file = storeFile();
+        TemplateStore store = new TemplateStore(file);
+        store.open();
+        store.put(1, record(1, 64));
+        flipByte(file, 16);
+
+        TemplateStore reopened = new TemplateStore(file);
+        reopened.open();
+        assertEquals(0, reopened.ids().length);
+        assertFalse(file.exists());
+        assertTrue(new File(file.getPath() + ".corrupt").exists());
+    }
+
+    @Test
+    public void staleTempFileIsIgnored() throws IOException {
+        File file = storeFile();
+        TemplateStore store = new TemplateStore(file);
+        store.open();
+        store.put(1, record(1, 16));
+        // A crash between writing the temp file and renaming it.
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), new byte[]{1, 2, 3});
+
+        TemplateStore reopened = new TemplateStore(file);
+        reopened.open();
+        assertFalse(tmp.exists());
+        assertArrayEquals(record(1, 16), reopened.read(1));
+    }
+
+    @Test
+    public void clearDeletesTheFile() throws IOException {
+        File file = storeFile();
+        TemplateStore store = new TemplateStore(file);
+        store.open();
+        store.put(1, record(1, 16));
+        assertTrue(store.exists());
+
+        store.clear();
+        assertFalse(store.exists());
+        assertEquals(0, store.ids().length);
+        assertTrue(store.put(2, record(2, 16)));
+        assertArrayEquals(new int[]{2}, store.ids());
+    }
+}